@@ -0,0 +1,20 @@
+package com.ccycloud.aws.statsd.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of benchmarks.jar: the usual JMH command line, always with the GC profiler so every result reports
+ * its allocation rate (gc.alloc.rate.norm is bytes allocated per operation) alongside throughput.
+ *
+ * java -jar target/benchmarks.jar [JMH options] [benchmark regex]
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class).build()).run();
+    }
+}
@@ -0,0 +1,82 @@
+package com.ccycloud.aws.statsd.benchmarks;
+
+import com.ccycloud.aws.statsd.impl.StatsdClient;
+import com.ccycloud.aws.statsd.impl.transport.UdpConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Producer threads calling incrementCounter on one shared client, which hands each metric to its dispatcher thread
+ * and on to a local UDP sink.  Compare dropped (from the client's stats, printed at teardown) across thread counts:
+ * a producer that outruns the dispatcher is only measuring how fast the queue rejects it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientBenchmark {
+
+    private LocalSink sink;
+    private StatsdClient client;
+    private Map<String,String> tags;
+
+    @Setup
+    public void setup() throws Exception {
+        sink = new LocalSink();
+        UdpConnection connection = new UdpConnection(sink.getHost(), sink.getPort());
+        connection.connect();
+        client = new StatsdClient(connection, new HashMap<String,String>());
+        client.startMeasurements();
+        tags = new HashMap<String,String>();
+        tags.put("service", "pricing");
+        tags.put("hostname", "machine-hostname");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.finishMeasurements();
+        System.out.println("enqueued " + client.getStats().getMetricsEnqueued()
+                + ", dropped " + client.getStats().getMetricsDropped());
+        sink.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void incrementCounter1Thread() {
+        client.incrementCounter("pricing_engine", "requests", tags, 1);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void incrementCounter2Threads() {
+        client.incrementCounter("pricing_engine", "requests", tags, 1);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void incrementCounter4Threads() {
+        client.incrementCounter("pricing_engine", "requests", tags, 1);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void incrementCounter8Threads() {
+        client.incrementCounter("pricing_engine", "requests", tags, 1);
+    }
+}
@@ -0,0 +1,51 @@
+package com.ccycloud.aws.statsd.benchmarks;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+
+/**
+ * A loopback UDP socket which reads and discards every datagram sent to it, so that sends measure the client and
+ * the kernel rather than a full receive buffer
+ */
+class LocalSink {
+    private final DatagramSocket socket;
+    private final Thread reader;
+    private volatile boolean running = true;
+
+    LocalSink() throws SocketException {
+        socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+        socket.setReceiveBufferSize(8 * 1024 * 1024);
+        reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                DatagramPacket packet = new DatagramPacket(new byte[65536], 65536);
+                while (running) {
+                    try {
+                        socket.receive(packet);
+                    } catch (IOException ioe) {
+                        return;
+                    }
+                }
+            }
+        }, "benchmark-sink");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    String getHost() {
+        return socket.getLocalAddress().getHostAddress();
+    }
+
+    int getPort() {
+        return socket.getLocalPort();
+    }
+
+    void close() throws InterruptedException {
+        running = false;
+        socket.close();
+        reader.join();
+    }
+}
@@ -0,0 +1,66 @@
+package com.ccycloud.aws.statsd.benchmarks;
+
+import com.ccycloud.aws.statsd.impl.MetricBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building counter and timer lines as Strings with zero to many tags, and sanitising clean and dirty names
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricBuilderBenchmark {
+
+    @Param({"0", "1", "4", "16"})
+    public int tagCount;
+
+    private MetricBuilder builder;
+    private Map<String,String> tags;
+    private long value;
+
+    @Setup
+    public void setup() {
+        builder = new MetricBuilder();
+        tags = new HashMap<String,String>();
+        for (int i = 0; i < tagCount; i++) {
+            tags.put("tag" + i, "value" + i);
+        }
+    }
+
+    @Benchmark
+    public String buildCounter() {
+        return builder.buildCounter("pricing_engine", "requests", tags, ++value);
+    }
+
+    @Benchmark
+    public String buildTimer() {
+        return builder.buildTimer("pricing_engine", "latency", tags, ++value);
+    }
+
+    @Benchmark
+    public String sanitiseClean() {
+        return builder.sanitise("pricing_engine.requests_total");
+    }
+
+    @Benchmark
+    public String sanitiseDirty() {
+        return builder.sanitise(" ..pricing engine...requests \t total.. ");
+    }
+}
@@ -0,0 +1,73 @@
+package com.ccycloud.aws.statsd.benchmarks;
+
+import com.ccycloud.aws.statsd.Stopwatch;
+import com.ccycloud.aws.statsd.Timer;
+import com.ccycloud.aws.statsd.impl.StatsdClient;
+import com.ccycloud.aws.statsd.impl.transport.UdpConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One thread timing an empty block with a timer handle, by start time, by stopwatch and against the timedEvent call
+ * it replaces.  gc.alloc.rate.norm should be 0 for the handle and stopwatch.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimerBenchmark {
+
+    private LocalSink sink;
+    private StatsdClient client;
+    private Timer timer;
+    private Stopwatch stopwatch;
+
+    @Setup
+    public void setup() throws Exception {
+        sink = new LocalSink();
+        UdpConnection connection = new UdpConnection(sink.getHost(), sink.getPort());
+        connection.connect();
+        client = new StatsdClient(connection, new HashMap<String,String>());
+        client.startMeasurements();
+        timer = client.timer("pricing_engine", "quote_time", null);
+        stopwatch = timer.stopwatch();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        client.finishMeasurements();
+        sink.close();
+    }
+
+    @Benchmark
+    public void recordSince() {
+        timer.recordSince(System.nanoTime());
+    }
+
+    @Benchmark
+    public void stopwatch() {
+        try (Stopwatch timing = stopwatch.start()) {
+            // nothing to time; this measures the stopwatch itself
+        }
+    }
+
+    @Benchmark
+    public void timedEvent() {
+        long start = System.nanoTime();
+        client.timedEvent("pricing_engine", "quote_time", null, (System.nanoTime() - start) / 1000000.0);
+    }
+}
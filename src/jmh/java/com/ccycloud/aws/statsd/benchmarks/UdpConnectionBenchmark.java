@@ -0,0 +1,65 @@
+package com.ccycloud.aws.statsd.benchmarks;
+
+import com.ccycloud.aws.statsd.impl.transport.UdpConnection;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One datagram per call from UdpConnection to a local sink socket, for a single line and for a full batch
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UdpConnectionBenchmark {
+
+    @Param({"48", "1432"})
+    public int datagramSize;
+
+    private LocalSink sink;
+    private UdpConnection connection;
+    private byte[] datagram;
+    private String message;
+
+    @Setup
+    public void setup() throws Exception {
+        sink = new LocalSink();
+        connection = new UdpConnection(sink.getHost(), sink.getPort());
+        connection.connect();
+        datagram = new byte[datagramSize];
+        Arrays.fill(datagram, (byte) 'a');
+        message = new String(datagram, StandardCharsets.ISO_8859_1);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        connection.disconnect();
+        sink.close();
+    }
+
+    @Benchmark
+    public boolean sendBytes() {
+        return connection.send(datagram, 0, datagram.length);
+    }
+
+    @Benchmark
+    public boolean sendString() {
+        return connection.send(message);
+    }
+}
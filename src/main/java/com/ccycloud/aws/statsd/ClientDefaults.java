@@ -0,0 +1,92 @@
+package com.ccycloud.aws.statsd;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * The default methods of {@link StatsdClientInterface}, in terms of the int methods every implementation has.
+ *
+ * Values beyond the range of an int are clamped to it, and handles call back into the client for every value, so
+ * an implementation only gains from the newer methods by overriding them.
+ */
+final class ClientDefaults {
+    private static final double NANOS_PER_MS = 1000000.0;
+
+    private ClientDefaults() {
+    }
+
+    static int clamp(long value) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+    }
+
+    static int clamp(double value) {
+        return clamp(Math.round(value));
+    }
+
+    static Counter counter(final StatsdClientInterface client, final String prefix, final String bucket,
+                           Map<String, String> tags) {
+        final Tags fixed = null == tags ? null : Tags.of(tags);
+        return new Counter() {
+            @Override
+            public void increment() {
+                client.incrementCounter(prefix, bucket, fixed, 1);
+            }
+
+            @Override
+            public void increment(long count) {
+                client.incrementCounter(prefix, bucket, fixed, count);
+            }
+        };
+    }
+
+    static Timer timer(final StatsdClientInterface client, final String prefix, final String bucket,
+                       Map<String, String> tags) {
+        final Tags fixed = null == tags ? null : Tags.of(tags);
+        return new Timer() {
+            @Override
+            public void record(long durationInMs) {
+                client.timedEvent(prefix, bucket, fixed, durationInMs);
+            }
+
+            @Override
+            public void record(double durationInMs) {
+                client.timedEvent(prefix, bucket, fixed, durationInMs);
+            }
+
+            @Override
+            public void recordNanos(long durationInNanos) {
+                record(durationInNanos / NANOS_PER_MS);
+            }
+
+            @Override
+            public void recordSince(long startNanos) {
+                recordNanos(System.nanoTime() - startNanos);
+            }
+
+            @Override
+            public void time(Runnable task) {
+                long start = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    recordSince(start);
+                }
+            }
+
+            @Override
+            public <T> T time(Callable<T> task) throws Exception {
+                long start = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    recordSince(start);
+                }
+            }
+
+            @Override
+            public Stopwatch stopwatch() {
+                return new Stopwatch(this);
+            }
+        };
+    }
+}
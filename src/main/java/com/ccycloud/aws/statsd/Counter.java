@@ -0,0 +1,13 @@
+package com.ccycloud.aws.statsd;
+
+/**
+ * A reusable handle on one counter series, obtained from {@link StatsdClientInterface#counter}.
+ *
+ * The series' name and tags are sanitised and encoded once when the handle is created, so incrementing only
+ * formats the count.  Handles are thread safe and intended to be kept, e.g. in static fields.
+ */
+public interface Counter {
+    void increment();
+
+    void increment(long count);
+}
@@ -0,0 +1,20 @@
+package com.ccycloud.aws.statsd;
+
+/**
+ * A reusable handle on one gauge series, obtained from {@link StatsdClient#gauge}.
+ *
+ * The series' name and tags are sanitised and encoded once when the handle is created, so each reading only
+ * formats the value.  Handles are thread safe and intended to be kept, e.g. in static fields.
+ */
+public interface Gauge {
+    void set(long value);
+
+    void set(double value);
+
+    /**
+     * Add to the gauge's current value on the server, as a statsd delta gauge, rather than replacing it
+     */
+    void adjust(long delta);
+
+    void adjust(double delta);
+}
@@ -3,32 +3,77 @@ package com.ccycloud.aws.statsd;
 import com.ccycloud.aws.statsd.impl.config.Configuration;
 import com.ccycloud.aws.statsd.impl.config.MissingConfigurationException;
 import com.ccycloud.aws.statsd.impl.logging.SystemLogger;
-import com.ccycloud.aws.statsd.impl.transport.UdpConnection;
+import com.ccycloud.aws.statsd.impl.stats.ClientStatsMBean;
+import com.ccycloud.aws.statsd.impl.transport.ReconnectSupervisor;
+import com.ccycloud.aws.statsd.impl.transport.Transport;
+import com.ccycloud.aws.statsd.impl.transport.UdpConnectionInterface;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base class for the statsd package.  Supports configuration; retrieval of the actual messaging interface
  * and any and sundry functions
  * <p/>
+ * {@link #get(Map)} returns the one shared client, configured by its first caller.  {@link #builder()} creates
+ * further clients, each with its own queue, dispatcher and connection, so that subsystems which must not contend
+ * with one another need not share; close each when finished with it.
+ * <p/>
  * Created by jeremyb on 03/04/2014.
  */
-public class StatsdClient implements StatsdClientInterface {
+public class StatsdClient implements StatsdClientInterface, Closeable {
     private static volatile StatsdClient instance = null;
+    // numbers the MBeans of clients built without a name
+    private static final AtomicInteger unnamed = new AtomicInteger(0);
+    // numbers the MBeans of clients given a name another client already has
+    private static final AtomicInteger duplicates = new AtomicInteger(0);
+    // merged tags are cached for at most this many distinct Tags passed in
+    static final int MAX_MERGED_TAGS = 1024;
+    // how long flush() waits for the dispatcher
+    static final long FLUSH_TIMEOUT_MS = 1000L;
+
     private Map<String, String> configuration = null;
+    private String objectName = MBEAN_NAME;
+    // the name this client's counters were registered under, if they are
+    private volatile ObjectName registeredName = null;
 
-    private UdpConnection connection = null;
+    // applied to every metric: the prefix when a call gives none, the tags beneath those a call gives; null if unset
+    private String defaultPrefix = null;
+    private Tags defaultTags = null;
+    private final ConcurrentMap<Tags, Tags> mergedTags = new ConcurrentHashMap<Tags, Tags>();
+
+    private UdpConnectionInterface connection = null;
 
     private com.ccycloud.aws.statsd.impl.StatsdClient client = null;
 
     private AtomicBoolean configured = new AtomicBoolean(false);
     private AtomicBoolean connected = new AtomicBoolean(false);
+    // retries a connection which failed outright, in the background, so the client is never left dead
+    private final ReconnectSupervisor reconnector = new ReconnectSupervisor(new ReconnectSupervisor.Attempt() {
+        @Override
+        public boolean connect() {
+            return connectAndStart();
+        }
+    });
 
     public static final String version = "1.0.15";
 
+    // JMX name of the shared client's own counters; see ClientStatsMBean.  Built clients add ",name=<name>"
+    public static final String MBEAN_NAME = "com.ccycloud.aws.statsd:type=StatsdClient";
+
     /**
      * Get an instance of the statsd object, configured with the passed config hash
      *
@@ -49,29 +94,118 @@ public class StatsdClient implements StatsdClientInterface {
         return instance;
     }
 
+    /**
+     * @return a builder for a new client, independent of the shared one and of any other built client
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
     @Override
     public void incrementCounter(String prefix, String bucket, Map<String,String> tags, int count) {
-        client.incrementCounter(prefix, bucket, tags, count);
+        client.incrementCounter(prefixOr(prefix), bucket, withDefaults(tags), count);
     }
 
     @Override
     public void incrementSampleCounter(String prefix, String bucket, Map<String,String> tags, int count, double sampleRate) {
-        client.incrementSampleCounter(prefix, bucket, tags, count, sampleRate);
+        client.incrementSampleCounter(prefixOr(prefix), bucket, withDefaults(tags), count, sampleRate);
     }
 
     @Override
     public void gaugeReading(String prefix, String bucket, Map<String,String> tags, int count) {
-        client.gaugeReading(prefix, bucket, tags, count);
+        client.gaugeReading(prefixOr(prefix), bucket, withDefaults(tags), count);
     }
 
     @Override
     public void timedEvent(String prefix, String bucket, Map<String,String> tags, int eventDurationInMs) {
-        client.timedEvent(prefix, bucket, tags, eventDurationInMs);
+        client.timedEvent(prefixOr(prefix), bucket, withDefaults(tags), eventDurationInMs);
+    }
+
+    @Override
+    public void sampleGaugeReading(String prefix, String bucket, Map<String,String> tags, int count, double sampleRate) {
+        client.sampleGaugeReading(prefixOr(prefix), bucket, withDefaults(tags), count, sampleRate);
+    }
+
+    @Override
+    public void sampleTimedEvent(String prefix, String bucket, Map<String,String> tags, int eventDurationInMs, double sampleRate) {
+        client.sampleTimedEvent(prefixOr(prefix), bucket, withDefaults(tags), eventDurationInMs, sampleRate);
     }
 
     @Override
     public void incrementUniqueCounter(String prefix, String bucket, Map<String,String> tags, int count) {
-        client.incrementUniqueCounter(prefix, bucket, tags, count);
+        client.incrementUniqueCounter(prefixOr(prefix), bucket, withDefaults(tags), count);
+    }
+
+    @Override
+    public void incrementCounter(String prefix, String bucket, Map<String,String> tags, long count) {
+        client.incrementCounter(prefixOr(prefix), bucket, withDefaults(tags), count);
+    }
+
+    @Override
+    public void gaugeReading(String prefix, String bucket, Map<String,String> tags, long value) {
+        client.gaugeReading(prefixOr(prefix), bucket, withDefaults(tags), value);
+    }
+
+    @Override
+    public void gaugeReading(String prefix, String bucket, Map<String,String> tags, double value) {
+        client.gaugeReading(prefixOr(prefix), bucket, withDefaults(tags), value);
+    }
+
+    @Override
+    public void timedEvent(String prefix, String bucket, Map<String,String> tags, long eventDurationInMs) {
+        client.timedEvent(prefixOr(prefix), bucket, withDefaults(tags), eventDurationInMs);
+    }
+
+    @Override
+    public void timedEvent(String prefix, String bucket, Map<String,String> tags, double eventDurationInMs) {
+        client.timedEvent(prefixOr(prefix), bucket, withDefaults(tags), eventDurationInMs);
+    }
+
+    public void adjustGauge(String prefix, String bucket, Map<String,String> tags, long delta) {
+        client.adjustGauge(prefixOr(prefix), bucket, withDefaults(tags), delta);
+    }
+
+    public void adjustGauge(String prefix, String bucket, Map<String,String> tags, double delta) {
+        client.adjustGauge(prefixOr(prefix), bucket, withDefaults(tags), delta);
+    }
+
+    @Override
+    public Counter counter(String prefix, String bucket, Map<String,String> tags) {
+        return client.counter(prefixOr(prefix), bucket, withDefaults(tags));
+    }
+
+    public Gauge gauge(String prefix, String bucket, Map<String,String> tags) {
+        return client.gauge(prefixOr(prefix), bucket, withDefaults(tags));
+    }
+
+    @Override
+    public Timer timer(String prefix, String bucket, Map<String,String> tags) {
+        return client.timer(prefixOr(prefix), bucket, withDefaults(tags));
+    }
+
+    private String prefixOr(String prefix) {
+        return null == prefix ? defaultPrefix : prefix;
+    }
+
+    // the default tags with the call's added; merges with a prebuilt Tags are kept, as the same few recur
+    private Map<String,String> withDefaults(Map<String,String> tags) {
+        if(null == defaultTags) {
+            return tags;
+        }
+        if(null == tags || tags.isEmpty()) {
+            return defaultTags;
+        }
+        if(!(tags instanceof Tags)) {
+            return defaultTags.and(tags);
+        }
+        Tags merged = mergedTags.get(tags);
+        if(null == merged) {
+            merged = defaultTags.and(tags);
+            if(mergedTags.size() < MAX_MERGED_TAGS) {
+                mergedTags.putIfAbsent((Tags) tags, merged);
+            }
+        }
+        return merged;
     }
 
     public boolean isConfigured() {
@@ -82,11 +216,45 @@ public class StatsdClient implements StatsdClientInterface {
         return connected.get();
     }
 
-    public com.ccycloud.aws.statsd.impl.StatsdClient buildClient(UdpConnection connection) {
-        return new com.ccycloud.aws.statsd.impl.StatsdClient(connection);
+    /**
+     * @return the client's own counters: metrics queued, dropped and sent, packets, send errors and so on
+     */
+    public ClientStatsMBean getStats() {
+        return client.getStats();
+    }
+
+    public com.ccycloud.aws.statsd.impl.StatsdClient buildClient(UdpConnectionInterface connection) {
+        return new com.ccycloud.aws.statsd.impl.StatsdClient(connection, configuration);
+    }
+
+    /**
+     * Send everything queued now, including partly filled datagrams held back by statsd.batch.max.delay.ms, and wait
+     * for it to be handed to the connection
+     *
+     * @return false if that did not happen within the timeout, e.g. because the client is not connected
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        com.ccycloud.aws.statsd.impl.StatsdClient current = client;
+        if(null == current || !connected.get()) {
+            return false;
+        }
+        try {
+            return current.flush(timeout, unit);
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * As {@link #flush(long, TimeUnit)}, waiting up to a second
+     */
+    public boolean flush() {
+        return flush(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
     }
 
     public void disconnect() {
+        reconnector.stop();
         if(null != connection && connection.isConnected()) {
             if(null != client) {
                 // ensure we spool any queued data
@@ -96,10 +264,26 @@ public class StatsdClient implements StatsdClientInterface {
         }
     }
 
+    /**
+     * Send anything still queued, close the connection and unregister the client's MBean.  Closing the shared client
+     * lets the next call to {@link #get(Map)} configure a new one.
+     */
+    @Override
+    public void close() {
+        disconnect();
+        unregisterMBean();
+        synchronized (com.ccycloud.aws.statsd.impl.StatsdClient.class) {
+            if(instance == this) {
+                instance = null;
+            }
+        }
+    }
+
     /**
      * close and recycle any UDP connections underlying this statsd object, create a new connection, and bind to the remote host
      */
     private void restart() throws UnknownHostException{
+        reconnector.stop();
         if(null != connection && connection.isConnected()) {
             if(null != client) {
                 // ensure we spool any queued data
@@ -109,30 +293,85 @@ public class StatsdClient implements StatsdClientInterface {
             connected.compareAndSet(true, false);
         }
 
-        String host = configuration.get(Configuration.CONFIG_HOST);
-        int port = Integer.parseInt(configuration.get(Configuration.CONFIG_PORT));
-        connection = new UdpConnection(host, port);
+        connection = transportFor(configuration).create(configuration);
         client = buildClient(connection);
+        registerMBean();
 
+        if(!connectAndStart()) {
+            reconnector.retry();
+        }
+    }
+
+    // connect, and start dispatching once connected; false if the connection has to be tried again
+    private synchronized boolean connectAndStart() {
         try {
             connection.connect();
             if(connection.isConnected()) {
-                connected.compareAndSet(false, true);
-                client.startMeasurements();
+                if(connected.compareAndSet(false, true)) {
+                    client.startMeasurements();
+                }
+                return true;
             }
         } catch(SocketException se) {
             SystemLogger.error("Unable to connect to remote host", se);
         }
+        return false;
     }
 
     // private methods
+    private void registerMBean() {
+        // a restart replaces this client's own registration
+        unregisterMBean();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(objectName);
+            try {
+                server.registerMBean(client.getStats(), name);
+            } catch(InstanceAlreadyExistsException iaee) {
+                // another live client has the name; never take its registration over
+                ObjectName numbered = new ObjectName(objectName + ",instance=" + duplicates.incrementAndGet());
+                SystemLogger.error(String.format("A statsd client MBean named %s is already registered; registering this client as %s", name, numbered));
+                server.registerMBean(client.getStats(), numbered);
+                name = numbered;
+            }
+            registeredName = name;
+        } catch(JMException jme) {
+            SystemLogger.error("Unable to register statsd client MBean", jme);
+        }
+    }
+
+    // only ever the registration this client made
+    private void unregisterMBean() {
+        ObjectName name = registeredName;
+        if(null == name) {
+            return;
+        }
+        registeredName = null;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if(server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch(JMException jme) {
+            SystemLogger.error("Unable to unregister statsd client MBean", jme);
+        }
+    }
+
+    /**
+     * @return the JMX name the client's counters are registered under; numbered if another client had the name
+     */
+    public String getObjectName() {
+        ObjectName name = registeredName;
+        return null != name ? name.toString() : objectName;
+    }
+
     private void configureWith(Map<String, String> configuration) {
         this.configuration = configuration;
         this.configured.compareAndSet(false, true);
     }
 
     private Map<String, String> validateMandatoryConfiguration(Map<String, String> proposedConfiguration) throws MissingConfigurationException {
-        for (String s : Configuration.getMandatoryConfigKeys()) {
+        for (String s : transportFor(proposedConfiguration).getMandatoryConfigKeys(proposedConfiguration)) {
             if (!proposedConfiguration.containsKey(s)) {
                 throw new MissingConfigurationException("Error: mandatory configuration value " + s + " was not specified.");
             }
@@ -140,7 +379,90 @@ public class StatsdClient implements StatsdClientInterface {
         return proposedConfiguration;
     }
 
+    private static Transport transportFor(Map<String, String> configuration) {
+        return Transport.fromConfiguration(
+                Configuration.getString(configuration, Configuration.CONFIG_TRANSPORT, Configuration.DEFAULT_TRANSPORT));
+    }
+
     private StatsdClient() {
         super();
     }
+
+    /**
+     * Configures an independent client.  Any configuration key may be set; statsd.host and statsd.port are mandatory
+     * unless the transport or statsd.endpoints says otherwise.
+     */
+    public static class Builder {
+        private final Map<String, String> configuration = new HashMap<String, String>();
+        private String prefix = null;
+        private Tags tags = null;
+        private String name = null;
+
+        private Builder() {
+        }
+
+        /**
+         * Take every key in the configuration, as {@link StatsdClient#get(Map)} would
+         */
+        public Builder configuration(Map<String, String> configuration) {
+            this.configuration.putAll(configuration);
+            return this;
+        }
+
+        public Builder set(String key, String value) {
+            configuration.put(key, value);
+            return this;
+        }
+
+        public Builder host(String host) {
+            return set(Configuration.CONFIG_HOST, host);
+        }
+
+        public Builder port(int port) {
+            return set(Configuration.CONFIG_PORT, String.valueOf(port));
+        }
+
+        /**
+         * The prefix used by calls which pass a null prefix
+         */
+        public Builder prefix(String prefix) {
+            this.prefix = prefix;
+            return this;
+        }
+
+        /**
+         * Tags added to every metric; a call's own tags replace any with the same key
+         */
+        public Builder tags(Map<String, String> tags) {
+            this.tags = null == tags || tags.isEmpty() ? null : Tags.of(tags);
+            return this;
+        }
+
+        /**
+         * Names the client's MBean, which should be unique in the JVM; clients without a name are numbered, as is a
+         * client given a name another live client has
+         */
+        public Builder name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Create and connect the client; as with {@link StatsdClient#get(Map)}, the connection is made in the
+         * background and metrics are queued meanwhile
+         *
+         * @throws MissingConfigurationException if mandatory keys are not provided
+         */
+        public StatsdClient build() throws MissingConfigurationException, UnknownHostException {
+            StatsdClient built = new StatsdClient();
+            Map<String, String> copy = new HashMap<String, String>(configuration);
+            built.configureWith(built.validateMandatoryConfiguration(copy));
+            built.defaultPrefix = prefix;
+            built.defaultTags = tags;
+            built.objectName = MBEAN_NAME + ",name=" + ObjectName.quote(
+                    null != name ? name : "client-" + unnamed.incrementAndGet());
+            built.restart();
+            return built;
+        }
+    }
 }
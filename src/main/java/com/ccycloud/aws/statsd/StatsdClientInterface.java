@@ -14,5 +14,49 @@ public interface StatsdClientInterface {
     public void incrementSampleCounter(String prefix, String bucket, Map<String,String> tags, int count, double sampleRate);
     public void gaugeReading(String prefix, String bucket, Map<String,String> tags, int count);
     public void timedEvent(String prefix, String bucket, Map<String,String> tags, int eventDurationInMs);
+
+    // sent with probability sampleRate, decided on the calling thread before anything is encoded; by default every
+    // reading and event is sent, unsampled
+    public default void sampleGaugeReading(String prefix, String bucket, Map<String,String> tags, int count, double sampleRate) {
+        gaugeReading(prefix, bucket, tags, count);
+    }
+
+    public default void sampleTimedEvent(String prefix, String bucket, Map<String,String> tags, int eventDurationInMs, double sampleRate) {
+        timedEvent(prefix, bucket, tags, eventDurationInMs);
+    }
+
     public void incrementUniqueCounter(String prefix, String bucket, Map<String,String> tags, int count);
+
+    // long and fractional values; pass a prebuilt Tags as the tags to skip sanitising and encoding them on every call.
+    // By default they are rounded and clamped to an int
+    public default void incrementCounter(String prefix, String bucket, Map<String,String> tags, long count) {
+        incrementCounter(prefix, bucket, tags, ClientDefaults.clamp(count));
+    }
+
+    public default void gaugeReading(String prefix, String bucket, Map<String,String> tags, long value) {
+        gaugeReading(prefix, bucket, tags, ClientDefaults.clamp(value));
+    }
+
+    public default void gaugeReading(String prefix, String bucket, Map<String,String> tags, double value) {
+        gaugeReading(prefix, bucket, tags, ClientDefaults.clamp(value));
+    }
+
+    public default void timedEvent(String prefix, String bucket, Map<String,String> tags, long eventDurationInMs) {
+        timedEvent(prefix, bucket, tags, ClientDefaults.clamp(eventDurationInMs));
+    }
+
+    public default void timedEvent(String prefix, String bucket, Map<String,String> tags, double eventDurationInMs) {
+        timedEvent(prefix, bucket, tags, ClientDefaults.clamp(eventDurationInMs));
+    }
+
+    // reusable handles on a single series, with the name and tags encoded up front; by default each value is passed
+    // to the methods above.  Delta gauges have no form to fall back on, so they and gauge handles are only on
+    // StatsdClient
+    public default Counter counter(String prefix, String bucket, Map<String,String> tags) {
+        return ClientDefaults.counter(this, prefix, bucket, tags);
+    }
+
+    public default Timer timer(String prefix, String bucket, Map<String,String> tags) {
+        return ClientDefaults.timer(this, prefix, bucket, tags);
+    }
 }
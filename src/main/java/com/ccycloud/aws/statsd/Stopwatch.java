@@ -0,0 +1,56 @@
+package com.ccycloud.aws.statsd;
+
+/**
+ * Times blocks of code with System.nanoTime() and records each one to a {@link Timer}.
+ *
+ * A stopwatch is reused rather than created per timing, so timing allocates nothing, and {@link #start()} returns
+ * the stopwatch itself so it can be used with try-with-resources:
+ *
+ *     try (Stopwatch timing = stopwatch.start()) {
+ *         cache.get(key);
+ *     }
+ *
+ * Not thread safe: keep one per thread, e.g. in a field of an object confined to it, or in a ThreadLocal.
+ */
+public final class Stopwatch implements AutoCloseable {
+    private final Timer timer;
+    private long startNanos;
+    private boolean running = false;
+
+    public Stopwatch(Timer timer) {
+        this.timer = timer;
+    }
+
+    public Stopwatch start() {
+        running = true;
+        startNanos = System.nanoTime();
+        return this;
+    }
+
+    /**
+     * Record the time since {@link #start()}; does nothing if the stopwatch is not running
+     *
+     * @return the nanoseconds recorded, or 0 if the stopwatch was not running
+     */
+    public long stop() {
+        long elapsed = System.nanoTime() - startNanos;
+        if (!running) {
+            return 0;
+        }
+        running = false;
+        timer.recordNanos(elapsed);
+        return elapsed;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stop and record, as {@link #stop()}
+     */
+    @Override
+    public void close() {
+        stop();
+    }
+}
@@ -0,0 +1,196 @@
+package com.ccycloud.aws.statsd;
+
+import com.ccycloud.aws.statsd.impl.MetricEncoder;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * An immutable set of tags, sorted by key, and sanitised and encoded once when it is built.
+ *
+ * Tags is a Map, so it can be passed anywhere the client takes tags.  The client then copies the encoded bytes
+ * rather than iterating and sanitising a map on every call, and equal tag sets always encode identically whatever
+ * order they were added in.  Build each set once, e.g. in a static field, and reuse it.
+ */
+public final class Tags extends AbstractMap<String, String> {
+    // declared first, as building EMPTY needs it
+    private static final MetricEncoder ENCODER = new MetricEncoder();
+
+    public static final Tags EMPTY = new Tags(new TreeMap<String, String>());
+
+    // sorted by key
+    private final String[] keys;
+    private final String[] values;
+    // "k=v,k=v" as sent on the wire, without the ',' separating it from the bucket
+    private final byte[] encoded;
+    private final int hash;
+
+    private Tags(TreeMap<String, String> sorted) {
+        keys = sorted.keySet().toArray(new String[sorted.size()]);
+        values = sorted.values().toArray(new String[sorted.size()]);
+        // sanitising never lengthens a string, and each character encodes to at most one byte
+        int length = 0;
+        for (int i = 0; i < keys.length; i++) {
+            length += keys[i].length() + values[i].length() + 2;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        ENCODER.putTags(buffer, sorted, false);
+        encoded = Arrays.copyOf(buffer.array(), buffer.position());
+        hash = sorted.hashCode();
+    }
+
+    /**
+     * @param keysAndValues alternating keys and values
+     */
+    public static Tags of(String... keysAndValues) {
+        if (keysAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Tags need a value for every key");
+        }
+        TreeMap<String, String> sorted = new TreeMap<String, String>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            put(sorted, keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return new Tags(sorted);
+    }
+
+    /**
+     * @return the given tags if they are already a Tags, otherwise a sorted copy
+     */
+    public static Tags of(Map<String, String> tags) {
+        if (tags instanceof Tags) {
+            return (Tags) tags;
+        }
+        if (null == tags || tags.isEmpty()) {
+            return EMPTY;
+        }
+        TreeMap<String, String> sorted = new TreeMap<String, String>();
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            put(sorted, tag.getKey(), tag.getValue());
+        }
+        return new Tags(sorted);
+    }
+
+    /**
+     * @return these tags with one more, or with the value of an existing key replaced
+     */
+    public Tags and(String key, String value) {
+        TreeMap<String, String> sorted = new TreeMap<String, String>(this);
+        put(sorted, key, value);
+        return new Tags(sorted);
+    }
+
+    /**
+     * @return these tags with all of the given ones added, their values replacing those of any keys already present
+     */
+    public Tags and(Map<String, String> tags) {
+        if (null == tags || tags.isEmpty()) {
+            return this;
+        }
+        TreeMap<String, String> sorted = new TreeMap<String, String>(this);
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            put(sorted, tag.getKey(), tag.getValue());
+        }
+        return new Tags(sorted);
+    }
+
+    /**
+     * Write the encoded tags, "k=v,k=v", into dst at its current position
+     *
+     * @throws java.nio.BufferOverflowException if they do not fit
+     */
+    public void writeTo(ByteBuffer dst) {
+        dst.put(encoded);
+    }
+
+    private static void put(TreeMap<String, String> sorted, String key, String value) {
+        if (null == key || null == value) {
+            throw new IllegalArgumentException("Tag keys and values must not be null");
+        }
+        sorted.put(key, value);
+    }
+
+    private int indexOf(Object key) {
+        return key instanceof String ? Arrays.binarySearch(keys, key) : -1;
+    }
+
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public String get(Object key) {
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    // walks the arrays directly, without allocating an iterator or entries
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        for (int i = 0; i < keys.length; i++) {
+            action.accept(keys[i], values[i]);
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        return new AbstractSet<Map.Entry<String, String>>() {
+            @Override
+            public int size() {
+                return keys.length;
+            }
+
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                return new Iterator<Map.Entry<String, String>>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < keys.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, String> next() {
+                        if (next >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        Map.Entry<String, String> entry = new SimpleImmutableEntry<String, String>(keys[next], values[next]);
+                        next++;
+                        return entry;
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o instanceof Tags) {
+            Tags other = (Tags) o;
+            return hash == other.hash && Arrays.equals(keys, other.keys) && Arrays.equals(values, other.values);
+        }
+        return super.equals(o);
+    }
+}
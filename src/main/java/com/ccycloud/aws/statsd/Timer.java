@@ -0,0 +1,48 @@
+package com.ccycloud.aws.statsd;
+
+import java.util.concurrent.Callable;
+
+/**
+ * A reusable handle on one timer series, obtained from {@link StatsdClientInterface#timer}.
+ *
+ * The series' name and tags are sanitised and encoded once when the handle is created, so each timing only
+ * formats the duration.  Handles are thread safe and intended to be kept, e.g. in static fields.
+ *
+ * Durations measured with System.nanoTime() are sent as fractional milliseconds, keeping sub-millisecond detail.
+ */
+public interface Timer {
+    void record(long durationInMs);
+
+    /**
+     * Sent with up to six decimal places; kept to the microsecond when timers are aggregated
+     */
+    void record(double durationInMs);
+
+    /**
+     * Record a duration measured with System.nanoTime(), sent as fractional milliseconds
+     */
+    void recordNanos(long durationInNanos);
+
+    /**
+     * Record the time since startNanos, a reading of System.nanoTime(); holding the start in a local long makes this
+     * the cheapest way to time a block, with nothing allocated
+     */
+    void recordSince(long startNanos);
+
+    /**
+     * Run the task and record how long it took, whether or not it completes normally
+     */
+    void time(Runnable task);
+
+    /**
+     * Call the task and record how long it took, whether or not it completes normally
+     *
+     * @return the task's result
+     */
+    <T> T time(Callable<T> task) throws Exception;
+
+    /**
+     * @return a new stopwatch on this timer, to be kept and reused by one thread
+     */
+    Stopwatch stopwatch();
+}
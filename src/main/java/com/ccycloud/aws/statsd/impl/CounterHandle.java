@@ -0,0 +1,36 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.Counter;
+import com.ccycloud.aws.statsd.impl.aggregation.SeriesKey;
+
+/**
+ * Counter handle holding either the series' pre-encoded name and tags, with its default sample rate, or, when counters
+ * are aggregated, its pinned aggregation key
+ */
+class CounterHandle implements Counter {
+    private final StatsdClient client;
+    private final byte[] nameAndTags;
+    private final double sampleRate;
+    private final SeriesKey key;
+
+    CounterHandle(StatsdClient client, byte[] nameAndTags, double sampleRate, SeriesKey key) {
+        this.client = client;
+        this.nameAndTags = nameAndTags;
+        this.sampleRate = sampleRate;
+        this.key = key;
+    }
+
+    @Override
+    public void increment() {
+        increment(1);
+    }
+
+    @Override
+    public void increment(long count) {
+        if (null != key) {
+            client.aggregateCounter(key, count);
+        } else {
+            client.record(nameAndTags, count, MetricEncoder.Type.COUNTER, sampleRate);
+        }
+    }
+}
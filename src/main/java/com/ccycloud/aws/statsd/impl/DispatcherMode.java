@@ -0,0 +1,68 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.impl.logging.SystemLogger;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * What the dispatcher workers run on, unless the client is given an Executor of its own
+ */
+public enum DispatcherMode {
+    /** a platform thread per worker */
+    THREAD,
+    /** a virtual thread per worker, on JDK 21 or later; platform threads on older JDKs */
+    VIRTUAL;
+
+    public static DispatcherMode fromConfiguration(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException iae) {
+            throw new IllegalArgumentException("Unknown dispatcher mode: " + value);
+        }
+    }
+
+    /**
+     * @return an executor which starts a new thread of this kind for every task
+     */
+    public Executor newExecutor() {
+        if (this == VIRTUAL) {
+            Executor virtual = virtualThreadExecutor();
+            if (null != virtual) {
+                return virtual;
+            }
+            SystemLogger.error("Virtual threads need JDK 21 or later; dispatching on platform threads instead");
+        }
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                new Thread(command, "statsd-dispatcher").start();
+            }
+        };
+    }
+
+    // Thread.startVirtualThread by reflection, as the client is built for JDKs which do not have it
+    private static Executor virtualThreadExecutor() {
+        final Method startVirtualThread;
+        try {
+            startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException nsme) {
+            return null;
+        }
+        return new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                try {
+                    startVirtualThread.invoke(null, command);
+                } catch (IllegalAccessException iae) {
+                    throw new RejectedExecutionException(iae);
+                } catch (InvocationTargetException ite) {
+                    // e.g. UnsupportedOperationException on JDK 19 and 20 without --enable-preview
+                    throw new RejectedExecutionException(ite.getCause());
+                }
+            }
+        };
+    }
+}
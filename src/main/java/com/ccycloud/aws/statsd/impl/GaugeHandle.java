@@ -0,0 +1,59 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.Gauge;
+import com.ccycloud.aws.statsd.impl.aggregation.SeriesKey;
+
+/**
+ * Gauge handle holding either the series' pre-encoded name and tags, with its default sample rate, or, when gauges
+ * are aggregated, its pinned aggregation key
+ */
+class GaugeHandle implements Gauge {
+    private final StatsdClient client;
+    private final byte[] nameAndTags;
+    private final double sampleRate;
+    private final SeriesKey key;
+
+    GaugeHandle(StatsdClient client, byte[] nameAndTags, double sampleRate, SeriesKey key) {
+        this.client = client;
+        this.nameAndTags = nameAndTags;
+        this.sampleRate = sampleRate;
+        this.key = key;
+    }
+
+    @Override
+    public void set(long value) {
+        if (null != key) {
+            client.aggregateGauge(key, value);
+        } else {
+            client.record(nameAndTags, value, MetricEncoder.Type.GAUGE, sampleRate);
+        }
+    }
+
+    @Override
+    public void set(double value) {
+        if (null != key) {
+            client.aggregateGauge(key, value);
+        } else {
+            client.record(nameAndTags, value, MetricEncoder.Type.GAUGE, sampleRate);
+        }
+    }
+
+    // deltas are never sampled: a gauge carries no rate for the server to scale them back up by
+    @Override
+    public void adjust(long delta) {
+        if (null != key) {
+            client.aggregateGaugeDelta(key, delta);
+        } else {
+            client.record(nameAndTags, delta, MetricEncoder.Type.GAUGE_DELTA, Sampler.ALWAYS);
+        }
+    }
+
+    @Override
+    public void adjust(double delta) {
+        if (null != key) {
+            client.aggregateGaugeDelta(key, delta);
+        } else {
+            client.record(nameAndTags, delta, MetricEncoder.Type.GAUGE_DELTA, Sampler.ALWAYS);
+        }
+    }
+}
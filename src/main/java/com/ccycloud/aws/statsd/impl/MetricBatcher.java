@@ -0,0 +1,144 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.impl.stats.ClientStats;
+import com.ccycloud.aws.statsd.impl.transport.UdpConnectionInterface;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Packs individual metric lines into newline separated datagrams no larger than the configured payload size.
+ * A metric is never split across datagrams; a single metric larger than the payload size is sent on its own.
+ *
+ * A datagram is sent as soon as it holds flushBytes bytes or flushLines lines, whichever comes first; anything short
+ * of that waits for {@link #flush()}, which the dispatcher calls on its own schedule.
+ *
+ * Not thread safe; intended to be owned by the dispatcher thread.
+ */
+public class MetricBatcher implements MetricSink {
+    static final byte SEPARATOR = '\n';
+
+    private final UdpConnectionInterface connection;
+    private final int maxPacketSize;
+    private final ByteBuffer packet;
+    private final ClientStats stats;
+    private final int flushBytes;
+    private final int flushLines;
+    // lines in the datagram being assembled
+    private int lines;
+
+    public MetricBatcher(UdpConnectionInterface connection, int maxPacketSize) {
+        this(connection, maxPacketSize, false);
+    }
+
+    /**
+     * @param direct assemble datagrams in direct memory, so a channel based connection can send them without a copy
+     */
+    public MetricBatcher(UdpConnectionInterface connection, int maxPacketSize, boolean direct) {
+        this(connection, maxPacketSize, direct, new ClientStats());
+    }
+
+    /**
+     * @param stats counts lines, packets, bytes and send failures
+     */
+    public MetricBatcher(UdpConnectionInterface connection, int maxPacketSize, boolean direct, ClientStats stats) {
+        this(connection, maxPacketSize, direct, stats, maxPacketSize, 0);
+    }
+
+    /**
+     * @param flushBytes send the datagram once it holds this many bytes; at most maxPacketSize
+     * @param flushLines send the datagram once it holds this many lines; 0 for no limit
+     */
+    public MetricBatcher(UdpConnectionInterface connection, int maxPacketSize, boolean direct, ClientStats stats,
+                         int flushBytes, int flushLines) {
+        if (maxPacketSize < 1) {
+            throw new IllegalArgumentException("Packet size must be positive: " + maxPacketSize);
+        }
+        if (flushBytes < 1 || flushBytes > maxPacketSize) {
+            throw new IllegalArgumentException(String.format("Flush size must be between 1 and the packet size %d: %d", maxPacketSize, flushBytes));
+        }
+        if (flushLines < 0) {
+            throw new IllegalArgumentException("Flush line count must not be negative: " + flushLines);
+        }
+        this.connection = connection;
+        this.maxPacketSize = maxPacketSize;
+        this.packet = direct ? ByteBuffer.allocateDirect(maxPacketSize) : ByteBuffer.allocate(maxPacketSize);
+        this.stats = stats;
+        this.flushBytes = flushBytes;
+        this.flushLines = 0 == flushLines ? Integer.MAX_VALUE : flushLines;
+    }
+
+    /**
+     * Append a metric to the current datagram, sending the datagram first if the metric would not fit.
+     */
+    @Override
+    public void add(byte[] metric, int offset, int length) {
+        stats.encoded();
+        if (reserve(length)) {
+            packet.put(metric, offset, length);
+            added();
+        } else {
+            stats.sent(length, maxPacketSize, connection.send(metric, offset, length));
+        }
+    }
+
+    @Override
+    public void add(byte[] metric) {
+        add(metric, 0, metric.length);
+    }
+
+    /**
+     * Append the metric between the buffer's position and limit; the buffer's position is left unchanged
+     */
+    @Override
+    public void add(ByteBuffer metric) {
+        stats.encoded();
+        int length = metric.remaining();
+        if (reserve(length)) {
+            packet.put(metric.duplicate());
+            added();
+        } else {
+            stats.sent(length, maxPacketSize, connection.send(metric.duplicate()));
+        }
+    }
+
+    /**
+     * Send any partially filled datagram
+     */
+    @Override
+    public void flush() {
+        if (packet.position() > 0) {
+            packet.flip();
+            int length = packet.remaining();
+            stats.sent(length, maxPacketSize, connection.send(packet));
+            packet.clear();
+            lines = 0;
+        }
+    }
+
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+
+    // send the datagram once a line takes it to either threshold
+    private void added() {
+        if (++lines >= flushLines || packet.position() >= flushBytes) {
+            flush();
+        }
+    }
+
+    // make room for a metric of the given length, returning false if it can only be sent on its own
+    private boolean reserve(int length) {
+        int position = packet.position();
+        if (position > 0 && position + 1 + length > maxPacketSize) {
+            flush();
+            position = 0;
+        }
+        if (length > maxPacketSize) {
+            return false;
+        }
+        if (position > 0) {
+            packet.put(SEPARATOR);
+        }
+        return true;
+    }
+}
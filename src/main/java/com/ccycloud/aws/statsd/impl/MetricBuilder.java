@@ -1,11 +1,15 @@
 package com.ccycloud.aws.statsd.impl;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Combines app names, prefixes, tags and separators into a sane and parseable statsd string
+ *
+ * Lines are produced by {@link MetricEncoder}; the formats below document the output.  As the encoder writes the
+ * ISO-8859-1 bytes sent on the wire, any character outside ISO-8859-1 comes back as '?'.
+ *
  * Created by jeremybotha on 20/04/17.
  */
 public class MetricBuilder {
@@ -14,6 +18,8 @@ public class MetricBuilder {
     public final String GAUGED_EVENT_FORMAT = "%s%s%s:%d|g";
     public final String SIMPLE_COUNT_FORMAT = "%s%s%s:%d|c";
     public final String SAMPLED_COUNT_FORMAT = "%s%s%s:%d|c@%.3f";
+    // client-side timer sampling can produce very low rates, so keep more precision than for counters
+    public final String SAMPLED_TIMED_EVENT_FORMAT = "%s%s%s:%d|ms@%.6f";
 
     public final String BUCKET_BLOCK = "%s.%s";
     public final String TAG_BLOCK = "%s=%s,";
@@ -23,100 +29,87 @@ public class MetricBuilder {
     public final String TAGGED_MEASUREMENT_SEPARATOR = ",";
     public final String PLAIN_MEASUREMENT_SEPARATOR = "";
 
-    private Pattern leadingPattern = Pattern.compile("^\\W+");
-    private Pattern trailingPattern = Pattern.compile("\\W+$");
-    private Pattern duplicateSeparatorPattern = Pattern.compile("\\.+");
+    public static final int SAMPLED_COUNT_DECIMALS = 3;
+    public static final int SAMPLED_TIMED_EVENT_DECIMALS = 6;
+
+    private final MetricEncoder encoder;
+
+    public MetricBuilder() {
+        this(new MetricEncoder());
+    }
+
+    public MetricBuilder(MetricEncoder encoder) {
+        this.encoder = encoder;
+    }
 
     public String buildCounter(String appname, String measurement, Map<String,String> tags, int count) {
-        String tagstring = join(tags);
-        String separator = tagstring.length() > 0 ? TAGGED_MEASUREMENT_SEPARATOR : PLAIN_MEASUREMENT_SEPARATOR;
-        String bucket = buildBucket(appname, measurement);
+        return buildCounter(appname, measurement, tags, (long) count);
+    }
 
-        return String.format(SIMPLE_COUNT_FORMAT, bucket, separator, tagstring, count);
+    public String buildCounter(String appname, String measurement, Map<String,String> tags, long count) {
+        return toString(encoder.encodeToScratch(appname, measurement, tags, count, MetricEncoder.Type.COUNTER));
     }
 
     public String buildGauge(String appname, String measurement, Map<String,String> tags, int gaugeReading) {
-        String tagstring = join(tags);
-        String separator = tagstring.length() > 0 ? TAGGED_MEASUREMENT_SEPARATOR : PLAIN_MEASUREMENT_SEPARATOR;
-        String bucket = buildBucket(appname, measurement);
+        return buildGauge(appname, measurement, tags, (long) gaugeReading);
+    }
 
-        return String.format(GAUGED_EVENT_FORMAT, bucket, separator, tagstring, gaugeReading);
+    public String buildGauge(String appname, String measurement, Map<String,String> tags, long gaugeReading) {
+        return toString(encoder.encodeToScratch(appname, measurement, tags, gaugeReading, MetricEncoder.Type.GAUGE));
     }
 
     public String buildTimer(String appname, String measurement, Map<String,String> tags, int reading) {
-        String tagstring = join(tags);
-        String separator = tagstring.length() > 0 ? TAGGED_MEASUREMENT_SEPARATOR : PLAIN_MEASUREMENT_SEPARATOR;
-        String bucket = buildBucket(appname, measurement);
+        return buildTimer(appname, measurement, tags, (long) reading);
+    }
 
-        return String.format(TIMED_EVENT_FORMAT, bucket, separator, tagstring, reading);
+    public String buildTimer(String appname, String measurement, Map<String,String> tags, long reading) {
+        return toString(encoder.encodeToScratch(appname, measurement, tags, reading, MetricEncoder.Type.TIMER));
     }
 
     public String buildSampleCounter(String appname, String measurement, Map<String,String> tags, int reading, double frequency) {
-        String tagstring = join(tags);
-        String separator = tagstring.length() > 0 ? TAGGED_MEASUREMENT_SEPARATOR : PLAIN_MEASUREMENT_SEPARATOR;
-        String bucket = buildBucket(appname, measurement);
+        return toString(encoder.encodeSampledToScratch(appname, measurement, tags, reading, MetricEncoder.Type.COUNTER,
+                frequency, SAMPLED_COUNT_DECIMALS));
+    }
 
-        return String.format(SAMPLED_COUNT_FORMAT, bucket, separator, tagstring, reading, frequency);
+    public String buildSampleTimer(String appname, String measurement, Map<String,String> tags, long reading, double frequency) {
+        return toString(encoder.encodeSampledToScratch(appname, measurement, tags, reading, MetricEncoder.Type.TIMER,
+                frequency, SAMPLED_TIMED_EVENT_DECIMALS));
     }
 
     public String buildBucket(String appname, String measurement) {
-        String _appname = sanitise(appname);
-        String _measurement = sanitise(measurement);
-
-        if(_appname.length() == 0) {
-            return _measurement;
-        } else {
-            if(_measurement.length() == 0) {
-                return _appname;
-            } else {
-                return String.format(BUCKET_BLOCK, _appname, _measurement);
-            }
-        }
+        ByteBuffer bucket = ByteBuffer.allocate(length(appname) + length(measurement) + 1);
+        encoder.putBucket(bucket, appname, measurement);
+        bucket.flip();
+        return toString(bucket);
     }
 
     public String sanitise(String src) {
-        if(null == src) {
-            return "";
-        }
-        String working = src.replaceAll("\\s+", "");
-
-        // trim leading commas
-        Matcher m = leadingPattern.matcher(working);
-
-        if(m.find()) {
-            working = m.replaceFirst("");
-        }
-
-        // trim tailing commas
-        m = trailingPattern.matcher(working);
-        if(m.find()) {
-           working = m.replaceFirst("");
-        }
-
-        m = duplicateSeparatorPattern.matcher(working);
-        if(m.find()) {
-            working = m.replaceAll(".");
-        }
-
-        return working.trim();
+        ByteBuffer sanitised = ByteBuffer.allocate(length(src));
+        encoder.putSanitised(sanitised, src);
+        sanitised.flip();
+        return toString(sanitised);
     }
 
-
     // join all keys in format k=v separated by commas
     public String join(Map<String,String> tags) {
-        StringBuilder sb = new StringBuilder();
-        String result;
-
-        if(null != tags && tags.size() > 0) {
-            for (String k : tags.keySet()) {
-                sb.append(String.format(TAG_BLOCK, sanitise(k), sanitise(tags.get(k))));
+        int length = 0;
+        if(null != tags) {
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                length += length(tag.getKey()) + length(tag.getValue()) + 2;
             }
-            result = sb.toString();
-            return result.endsWith(",") ? result.substring(0, result.length() - 1) : result;
-        } else {
-            result = "";
         }
-        return result;
+        ByteBuffer joined = ByteBuffer.allocate(length);
+        encoder.putTags(joined, tags, false);
+        joined.flip();
+        return toString(joined);
     }
 
+    // sanitising never lengthens a string, and each character encodes to at most one byte
+    private static int length(String src) {
+        return null == src ? 0 : src.length();
+    }
+
+    private static String toString(ByteBuffer line) {
+        return new String(line.array(), line.arrayOffset() + line.position(), line.remaining(), StandardCharsets.ISO_8859_1);
+    }
 }
@@ -0,0 +1,575 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.Tags;
+
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Writes statsd lines straight into a byte buffer, sanitising names and tags on the fly.
+ *
+ * Produces byte-for-byte the output of the original String.format / regex based {@link MetricBuilder}
+ * as sent on the wire in ISO-8859-1, without creating intermediate Strings, regex matchers or formatters.
+ * Once a thread's scratch buffer has grown to fit its longest line, encoding allocates nothing.
+ *
+ * Instances hold no state and are safe to share between threads.
+ */
+public class MetricEncoder {
+    static final int INITIAL_SCRATCH_SIZE = 512;
+    public static final int MAX_LINE_SIZE = 65507; // largest possible UDP payload
+
+    private static final byte[] DIGITS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9'};
+    private static final byte[] LONG_MIN_VALUE = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.ISO_8859_1);
+    private static final long[] POWERS_OF_TEN = {1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L};
+    // the most decimal places putFixed can write
+    private static final int MAX_RATE_DECIMALS = POWERS_OF_TEN.length - 1;
+    // keeps every scaled half-way point exactly representable as a double
+    private static final double MAX_FIXED_VALUE = 1000000.0;
+    // fractional values keep six decimal places, i.e. nanosecond resolution for durations in milliseconds
+    static final int MAX_DOUBLE_DECIMALS = 6;
+    // the largest magnitude whose value scaled by 10^MAX_DOUBLE_DECIMALS still fits comfortably in a long
+    private static final double MAX_SCALED_DOUBLE = 1e12;
+
+    static final byte UNMAPPABLE = '?';
+    // ':' + the longest long + the longest type suffix
+    static final int MAX_VALUE_AND_TYPE_SIZE = 1 + 20 + 3;
+    // ends the reading of 0 sent before a negative gauge reading
+    private static final byte[] ZERO_GAUGE = ":0|g\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * The statsd metric types, with the suffix which follows the value on the wire.  A gauge delta is a gauge whose
+     * value always carries its sign, which statsd adds to the current value rather than replacing it.
+     */
+    public enum Type {
+        COUNTER("|c"), GAUGE("|g"), GAUGE_DELTA("|g"), TIMER("|ms"), SET("|s");
+
+        private final byte[] suffix;
+
+        Type(String suffix) {
+            this.suffix = suffix.getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        public byte[] getSuffix() {
+            return suffix;
+        }
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /**
+     * Encode "name[,tags]:value|type" into dst at its current position.  A negative {@link Type#GAUGE} reading is
+     * encoded as two lines, a reading of 0 and then the value, so that statsd sets the gauge rather than adjusting it
+     *
+     * @throws BufferOverflowException if the line does not fit; dst's position is then undefined
+     */
+    public void encode(ByteBuffer dst, String prefix, String bucket, Map<String, String> tags, long value, Type type) {
+        int start = dst.position();
+        encodeNameAndTags(dst, prefix, bucket, tags);
+        putZeroBeforeNegativeGauge(dst, start, value < 0, type);
+        dst.put((byte) ':');
+        putSign(dst, value >= 0, type);
+        putLong(dst, value);
+        dst.put(type.getSuffix());
+    }
+
+    /**
+     * Encode "name[,tags]:value|type" into dst at its current position, from a name and tags already encoded by
+     * {@link #encodeNameAndTags(ByteBuffer, String, String, Map)}
+     *
+     * @throws BufferOverflowException if the line does not fit; dst's position is then undefined
+     */
+    public void encode(ByteBuffer dst, byte[] nameAndTags, long value, Type type) {
+        int start = dst.position();
+        dst.put(nameAndTags);
+        putZeroBeforeNegativeGauge(dst, start, value < 0, type);
+        dst.put((byte) ':');
+        putSign(dst, value >= 0, type);
+        putLong(dst, value);
+        dst.put(type.getSuffix());
+    }
+
+    /**
+     * Encode "name[,tags]:value|type@rate" into dst at its current position, with the rate to the given number of
+     * decimal places, or as many more as {@link #putRate} needs
+     *
+     * @throws BufferOverflowException if the line does not fit; dst's position is then undefined
+     */
+    public void encodeSampled(ByteBuffer dst, String prefix, String bucket, Map<String, String> tags, long value, Type type,
+                              double sampleRate, int decimals) {
+        encode(dst, prefix, bucket, tags, value, type);
+        dst.put((byte) '@');
+        putRate(dst, sampleRate, decimals);
+    }
+
+    /**
+     * As {@link #encodeSampled(ByteBuffer, String, String, Map, long, Type, double, int)} from an already encoded
+     * name and tags
+     */
+    public void encodeSampled(ByteBuffer dst, byte[] nameAndTags, long value, Type type, double sampleRate, int decimals) {
+        encode(dst, nameAndTags, value, type);
+        dst.put((byte) '@');
+        putRate(dst, sampleRate, decimals);
+    }
+
+    /**
+     * As {@link #encode(ByteBuffer, String, String, Map, long, Type)} with a fractional value
+     */
+    public void encode(ByteBuffer dst, String prefix, String bucket, Map<String, String> tags, double value, Type type) {
+        int start = dst.position();
+        encodeNameAndTags(dst, prefix, bucket, tags);
+        putZeroBeforeNegativeGauge(dst, start, value < 0 && !encodesAsZero(value), type);
+        dst.put((byte) ':');
+        putSign(dst, value >= 0 || encodesAsZero(value), type);
+        putDouble(dst, value);
+        dst.put(type.getSuffix());
+    }
+
+    /**
+     * As {@link #encode(ByteBuffer, byte[], long, Type)} with a fractional value
+     */
+    public void encode(ByteBuffer dst, byte[] nameAndTags, double value, Type type) {
+        int start = dst.position();
+        dst.put(nameAndTags);
+        putZeroBeforeNegativeGauge(dst, start, value < 0 && !encodesAsZero(value), type);
+        dst.put((byte) ':');
+        putSign(dst, value >= 0 || encodesAsZero(value), type);
+        putDouble(dst, value);
+        dst.put(type.getSuffix());
+    }
+
+    /**
+     * As {@link #encodeSampled(ByteBuffer, String, String, Map, long, Type, double, int)} with a fractional value
+     */
+    public void encodeSampled(ByteBuffer dst, String prefix, String bucket, Map<String, String> tags, double value, Type type,
+                              double sampleRate, int decimals) {
+        encode(dst, prefix, bucket, tags, value, type);
+        dst.put((byte) '@');
+        putRate(dst, sampleRate, decimals);
+    }
+
+    /**
+     * As {@link #encodeSampled(ByteBuffer, byte[], long, Type, double, int)} with a fractional value
+     */
+    public void encodeSampled(ByteBuffer dst, byte[] nameAndTags, double value, Type type, double sampleRate, int decimals) {
+        encode(dst, nameAndTags, value, type);
+        dst.put((byte) '@');
+        putRate(dst, sampleRate, decimals);
+    }
+
+    /**
+     * @return whether a fractional value is written as 0, i.e. it rounds to 0 at MAX_DOUBLE_DECIMALS places
+     */
+    public static boolean encodesAsZero(double value) {
+        return Math.abs(value) < MAX_SCALED_DOUBLE && Math.round(Math.abs(value) * POWERS_OF_TEN[MAX_DOUBLE_DECIMALS]) == 0;
+    }
+
+    // statsd applies a gauge value with a leading minus as a delta, so a negative reading is sent as a reading of 0
+    // followed by the value: "name:0|g\nname:-n|g".  The name just written, from start, is written again after the 0
+    private static void putZeroBeforeNegativeGauge(ByteBuffer dst, int start, boolean negative, Type type) {
+        if (negative && type == Type.GAUGE) {
+            int end = dst.position();
+            dst.put(ZERO_GAUGE);
+            for (int i = start; i < end; i++) {
+                dst.put(dst.get(i));
+            }
+        }
+    }
+
+    // a delta's '+'; negative values already carry their '-', so a value written as 0 must be given the '+'
+    private static void putSign(ByteBuffer dst, boolean positive, Type type) {
+        if (positive && type == Type.GAUGE_DELTA) {
+            dst.put((byte) '+');
+        }
+    }
+
+    /**
+     * Encode a line into this thread's scratch buffer, growing it as needed
+     *
+     * @return the scratch buffer, flipped ready for reading; only valid until the next call on this thread
+     */
+    public ByteBuffer encodeToScratch(String prefix, String bucket, Map<String, String> tags, long value, Type type) {
+        Scratch scratch = SCRATCH.get();
+        while (true) {
+            ByteBuffer line = scratch.clear();
+            try {
+                encode(line, prefix, bucket, tags, value, type);
+                line.flip();
+                return line;
+            } catch (BufferOverflowException boe) {
+                scratch.grow();
+            }
+        }
+    }
+
+    /**
+     * As {@link #encodeToScratch(String, String, Map, long, Type)} with a fractional value
+     */
+    public ByteBuffer encodeToScratch(String prefix, String bucket, Map<String, String> tags, double value, Type type) {
+        Scratch scratch = SCRATCH.get();
+        while (true) {
+            ByteBuffer line = scratch.clear();
+            try {
+                encode(line, prefix, bucket, tags, value, type);
+                line.flip();
+                return line;
+            } catch (BufferOverflowException boe) {
+                scratch.grow();
+            }
+        }
+    }
+
+    /**
+     * As {@link #encodeToScratch(String, String, Map, long, Type)} from an already encoded name and tags
+     */
+    public ByteBuffer encodeToScratch(byte[] nameAndTags, long value, Type type) {
+        // room for the name twice, should the value be a negative gauge reading
+        ByteBuffer line = SCRATCH.get().clear(2 * nameAndTags.length + ZERO_GAUGE.length + MAX_VALUE_AND_TYPE_SIZE);
+        encode(line, nameAndTags, value, type);
+        line.flip();
+        return line;
+    }
+
+    /**
+     * Sanitise and encode a series' name and tags once, for reuse by {@link #encode(ByteBuffer, byte[], long, Type)}
+     */
+    public byte[] encodeNameAndTags(String prefix, String bucket, Map<String, String> tags) {
+        Scratch scratch = SCRATCH.get();
+        while (true) {
+            ByteBuffer name = scratch.clear();
+            try {
+                encodeNameAndTags(name, prefix, bucket, tags);
+                name.flip();
+                byte[] encoded = new byte[name.remaining()];
+                name.get(encoded);
+                return encoded;
+            } catch (BufferOverflowException boe) {
+                scratch.grow();
+            }
+        }
+    }
+
+    /**
+     * As {@link #encodeToScratch(String, String, Map, long, Type)} with a sample rate
+     */
+    public ByteBuffer encodeSampledToScratch(String prefix, String bucket, Map<String, String> tags, long value, Type type,
+                                             double sampleRate, int decimals) {
+        Scratch scratch = SCRATCH.get();
+        while (true) {
+            ByteBuffer line = scratch.clear();
+            try {
+                encodeSampled(line, prefix, bucket, tags, value, type, sampleRate, decimals);
+                line.flip();
+                return line;
+            } catch (BufferOverflowException boe) {
+                scratch.grow();
+            }
+        }
+    }
+
+    /**
+     * As {@link #encodeSampledToScratch(String, String, Map, long, Type, double, int)} with a fractional value
+     */
+    public ByteBuffer encodeSampledToScratch(String prefix, String bucket, Map<String, String> tags, double value, Type type,
+                                             double sampleRate, int decimals) {
+        Scratch scratch = SCRATCH.get();
+        while (true) {
+            ByteBuffer line = scratch.clear();
+            try {
+                encodeSampled(line, prefix, bucket, tags, value, type, sampleRate, decimals);
+                line.flip();
+                return line;
+            } catch (BufferOverflowException boe) {
+                scratch.grow();
+            }
+        }
+    }
+
+    /**
+     * Encode the bucket "prefix.bucket" followed, if there are any tags, by ",k=v,k=v"
+     */
+    public void encodeNameAndTags(ByteBuffer dst, String prefix, String bucket, Map<String, String> tags) {
+        putBucket(dst, prefix, bucket);
+        putTags(dst, tags, true);
+    }
+
+    /**
+     * The sanitised prefix and bucket joined with a '.', omitting either if it sanitises to nothing
+     */
+    public void putBucket(ByteBuffer dst, String prefix, String bucket) {
+        if (putSanitised(dst, prefix) > 0 && hasWordCharacter(bucket)) {
+            dst.put((byte) '.');
+        }
+        putSanitised(dst, bucket);
+    }
+
+    /**
+     * Each tag as "k=v", comma separated, in the map's iteration order; a {@link Tags} is copied already encoded
+     *
+     * @param leadingSeparator whether to write a ',' before the first tag, separating the tags from the bucket
+     */
+    public void putTags(ByteBuffer dst, Map<String, String> tags, boolean leadingSeparator) {
+        if (null == tags || tags.isEmpty()) {
+            return;
+        }
+        if (tags instanceof Tags) {
+            if (leadingSeparator) {
+                dst.put((byte) ',');
+            }
+            ((Tags) tags).writeTo(dst);
+            return;
+        }
+        TagWriter writer = SCRATCH.get().tagWriter;
+        writer.start(this, dst, leadingSeparator);
+        try {
+            // Map.forEach walks a HashMap's table directly, without allocating an iterator
+            tags.forEach(writer);
+        } finally {
+            writer.finish();
+        }
+    }
+
+    /**
+     * Write src with the same result as the original regex based sanitise(): all whitespace removed,
+     * leading and trailing non-word characters removed and runs of '.' collapsed to one.
+     *
+     * @return the number of bytes written
+     */
+    public int putSanitised(ByteBuffer dst, String src) {
+        if (null == src) {
+            return 0;
+        }
+        int length = src.length();
+        int start = 0;
+        while (start < length && !isWordCharacter(src.charAt(start))) {
+            start++;
+        }
+        int end = length - 1;
+        while (end >= start && !isWordCharacter(src.charAt(end))) {
+            end--;
+        }
+        int written = 0;
+        boolean lastWasDot = false;
+        for (int i = start; i <= end; i++) {
+            char c = src.charAt(i);
+            if (isWhitespace(c)) {
+                continue;
+            }
+            if (c == '.') {
+                if (lastWasDot) {
+                    continue;
+                }
+                lastWasDot = true;
+            } else {
+                lastWasDot = false;
+            }
+            if (Character.isHighSurrogate(c) && i < end && Character.isLowSurrogate(src.charAt(i + 1))) {
+                // a surrogate pair is one unmappable character in ISO-8859-1
+                i++;
+                dst.put(UNMAPPABLE);
+            } else {
+                dst.put(c > 0xFF ? UNMAPPABLE : (byte) c);
+            }
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Decimal representation of value, as "%d" would format it
+     */
+    public void putLong(ByteBuffer dst, long value) {
+        if (value == Long.MIN_VALUE) {
+            dst.put(LONG_MIN_VALUE);
+            return;
+        }
+        if (value < 0) {
+            dst.put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long v = value / 10; v > 0; v /= 10) {
+            digits++;
+        }
+        int position = dst.position();
+        if (dst.remaining() < digits) {
+            throw new BufferOverflowException();
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            dst.put(i, DIGITS[(int) (value % 10)]);
+            value /= 10;
+        }
+        dst.position(position + digits);
+    }
+
+    /**
+     * Finite value in plain decimal notation: whole numbers as {@link #putLong}, anything else rounded to at most
+     * MAX_DOUBLE_DECIMALS places with trailing zeros dropped, e.g. 12.5 or -0.000125
+     *
+     * @throws IllegalArgumentException for NaN and infinities, which statsd cannot represent
+     */
+    public void putDouble(ByteBuffer dst, double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            throw new IllegalArgumentException("Unsupported value " + value);
+        }
+        double magnitude = Math.abs(value);
+        if (magnitude >= MAX_SCALED_DOUBLE) {
+            // beyond this a double has no fractional digits worth sending
+            if (magnitude < 0x1p63) {
+                putLong(dst, Math.round(value));
+            } else {
+                dst.put(new BigDecimal(value).toBigInteger().toString().getBytes(StandardCharsets.ISO_8859_1));
+            }
+            return;
+        }
+        long scale = POWERS_OF_TEN[MAX_DOUBLE_DECIMALS];
+        long scaled = Math.round(magnitude * scale);
+        long fraction = scaled % scale;
+        if (value < 0 && scaled > 0) {
+            dst.put((byte) '-');
+        }
+        putLong(dst, scaled / scale);
+        if (fraction > 0) {
+            dst.put((byte) '.');
+            for (long p = scale / 10; fraction > 0; p /= 10) {
+                dst.put(DIGITS[(int) (fraction / p)]);
+                fraction %= p;
+            }
+        }
+    }
+
+    /**
+     * Non-negative value to a fixed number of decimal places, as "%.nf" would format it: rounding half up
+     * on the shortest decimal representation of the double.
+     */
+    public void putFixed(ByteBuffer dst, double value, int decimals) {
+        if (decimals < 0 || decimals >= POWERS_OF_TEN.length || !(value >= 0 && value <= MAX_FIXED_VALUE)) {
+            throw new IllegalArgumentException("Unsupported fixed point value " + value + " to " + decimals + " places");
+        }
+        long scale = POWERS_OF_TEN[decimals];
+        long scaled = (long) Math.floor(value * scale);
+        // compare against the double nearest each exact half-way point so that e.g. 0.1235 rounds up to 0.124
+        if (value >= halfwayAbove(scaled, scale)) {
+            scaled++;
+        } else if (scaled > 0 && value < halfwayAbove(scaled - 1, scale)) {
+            scaled--;
+        }
+        putLong(dst, scaled / scale);
+        if (decimals > 0) {
+            dst.put((byte) '.');
+            long fraction = scaled % scale;
+            for (long p = scale / 10; p > 0; p /= 10) {
+                dst.put(DIGITS[(int) (fraction / p % 10)]);
+            }
+        }
+    }
+
+    /**
+     * Sample rate to at least the given number of decimal places, and more if it needs them to keep two significant
+     * digits, e.g. 0.0001 as 0.00010 rather than 0.000, which the server would divide by.  Rates too small for even
+     * MAX_RATE_DECIMALS places are sent as the smallest rate those can express, never as 0.
+     */
+    public void putRate(ByteBuffer dst, double rate, int decimals) {
+        int places = decimals;
+        while (places < MAX_RATE_DECIMALS && rate * POWERS_OF_TEN[places] < 9.5) {
+            places++;
+        }
+        putFixed(dst, Math.max(rate, 1.0 / POWERS_OF_TEN[places]), places);
+    }
+
+    private static double halfwayAbove(long scaled, long scale) {
+        return (double) (2 * scaled + 1) / (double) (2 * scale);
+    }
+
+    /**
+     * Whether src contains anything which survives sanitising
+     */
+    static boolean hasWordCharacter(String src) {
+        if (null == src) {
+            return false;
+        }
+        for (int i = 0; i < src.length(); i++) {
+            if (isWordCharacter(src.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // regex \w
+    static boolean isWordCharacter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    // regex \s
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Per-thread reusable state: the scratch line buffer and the tag writer
+     */
+    private static final class Scratch {
+        private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_SCRATCH_SIZE);
+        private final TagWriter tagWriter = new TagWriter();
+
+        ByteBuffer clear() {
+            buffer.clear();
+            return buffer;
+        }
+
+        // a cleared buffer of at least the given capacity
+        ByteBuffer clear(int capacity) {
+            if (buffer.capacity() < capacity) {
+                buffer = ByteBuffer.allocate(Math.max(capacity, buffer.capacity() * 2));
+            }
+            return clear();
+        }
+
+        void grow() {
+            if (buffer.capacity() >= MAX_LINE_SIZE) {
+                throw new IllegalArgumentException("Metric exceeds the maximum line size of " + MAX_LINE_SIZE + " bytes");
+            }
+            buffer = ByteBuffer.allocate(Math.min(MAX_LINE_SIZE, buffer.capacity() * 2));
+        }
+    }
+
+    /**
+     * Writes each tag in turn; reused per thread so that iterating the tags does not allocate
+     */
+    private static final class TagWriter implements BiConsumer<String, String> {
+        private MetricEncoder encoder;
+        private ByteBuffer dst;
+        private boolean separatorPending;
+
+        void start(MetricEncoder encoder, ByteBuffer dst, boolean leadingSeparator) {
+            this.encoder = encoder;
+            this.dst = dst;
+            this.separatorPending = leadingSeparator;
+        }
+
+        void finish() {
+            this.encoder = null;
+            this.dst = null;
+        }
+
+        @Override
+        public void accept(String key, String value) {
+            if (separatorPending) {
+                dst.put((byte) ',');
+            }
+            separatorPending = true;
+            encoder.putSanitised(dst, key);
+            dst.put((byte) '=');
+            encoder.putSanitised(dst, value);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package com.ccycloud.aws.statsd.impl;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Where the dispatcher puts encoded metric lines on their way to the wire.  Implementations batch lines into
+ * datagrams and are owned by the dispatcher thread.
+ */
+public interface MetricSink {
+    void add(byte[] metric, int offset, int length);
+
+    void add(byte[] metric);
+
+    /**
+     * Add the metric between the buffer's position and limit; the buffer's position is left unchanged
+     */
+    void add(ByteBuffer metric);
+
+    /**
+     * Send anything held back for batching
+     */
+    void flush();
+}
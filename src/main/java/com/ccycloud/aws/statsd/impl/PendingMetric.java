@@ -0,0 +1,149 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.impl.queue.LineWriter;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * The arguments of one recording call, held in a reusable per-thread instance so that the event buffer can have
+ * the line encoded straight into its own storage without a capturing lambda or any other allocation.
+ */
+class PendingMetric implements LineWriter {
+    private final MetricEncoder encoder;
+
+    private String prefix;
+    private String bucket;
+    private Map<String, String> tags;
+    private byte[] nameAndTags;
+    private long value;
+    // set instead of value for fractional readings
+    private double fractionalValue;
+    private boolean fractional;
+    private MetricEncoder.Type type;
+    private double sampleRate;
+    private int decimals = -1;
+    // the line as encoded by encodeNow(), which writeTo() then copies; null while the line is written in place
+    private ByteBuffer encoded;
+    private ByteBuffer scratch = ByteBuffer.allocate(MetricEncoder.INITIAL_SCRATCH_SIZE);
+
+    PendingMetric(MetricEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    PendingMetric set(String prefix, String bucket, Map<String, String> tags, long value, MetricEncoder.Type type) {
+        this.prefix = prefix;
+        this.bucket = bucket;
+        this.tags = tags;
+        this.nameAndTags = null;
+        this.value = value;
+        this.type = type;
+        this.decimals = -1;
+        this.fractional = false;
+        return this;
+    }
+
+    PendingMetric set(String prefix, String bucket, Map<String, String> tags, double value, MetricEncoder.Type type) {
+        set(prefix, bucket, tags, 0L, type);
+        this.fractionalValue = value;
+        this.fractional = true;
+        return this;
+    }
+
+    PendingMetric set(byte[] nameAndTags, double value, MetricEncoder.Type type) {
+        set(nameAndTags, 0L, type);
+        this.fractionalValue = value;
+        this.fractional = true;
+        return this;
+    }
+
+    PendingMetric set(byte[] nameAndTags, long value, MetricEncoder.Type type) {
+        set(null, null, null, value, type);
+        this.nameAndTags = nameAndTags;
+        return this;
+    }
+
+    PendingMetric sampled(double sampleRate, int decimals) {
+        this.sampleRate = sampleRate;
+        this.decimals = decimals;
+        return this;
+    }
+
+    MetricEncoder.Type getType() {
+        return type;
+    }
+
+    /**
+     * Encode the line now, into this thread's own buffer, for when its series must be known before choosing where
+     * to queue it; writeTo() then copies the encoded line
+     *
+     * @return the line between position and limit, or null if it is longer than the longest possible line
+     */
+    ByteBuffer encodeNow() {
+        encoded = null;
+        while (true) {
+            scratch.clear();
+            try {
+                writeTo(scratch);
+                scratch.flip();
+                encoded = scratch;
+                return encoded;
+            } catch (BufferOverflowException boe) {
+                if (scratch.capacity() >= MetricEncoder.MAX_LINE_SIZE) {
+                    return null;
+                }
+                scratch = ByteBuffer.allocate(Math.min(MetricEncoder.MAX_LINE_SIZE, scratch.capacity() * 2));
+            }
+        }
+    }
+
+    /**
+     * Drop references to the caller's arguments once the line is written
+     */
+    void clear() {
+        prefix = null;
+        bucket = null;
+        tags = null;
+        nameAndTags = null;
+        encoded = null;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        if (null != encoded) {
+            // put() checks for room before copying anything, so a failed attempt leaves the line intact for a retry
+            int start = encoded.position();
+            dst.put(encoded);
+            encoded.position(start);
+            return;
+        }
+        if (fractional) {
+            writeFractionalTo(dst);
+        } else if (null != nameAndTags) {
+            if (decimals >= 0) {
+                encoder.encodeSampled(dst, nameAndTags, value, type, sampleRate, decimals);
+            } else {
+                encoder.encode(dst, nameAndTags, value, type);
+            }
+        } else if (decimals >= 0) {
+            encoder.encodeSampled(dst, prefix, bucket, tags, value, type, sampleRate, decimals);
+        } else {
+            encoder.encode(dst, prefix, bucket, tags, value, type);
+        }
+    }
+
+    private void writeFractionalTo(ByteBuffer dst) {
+        if (null != nameAndTags) {
+            if (decimals >= 0) {
+                encoder.encodeSampled(dst, nameAndTags, fractionalValue, type, sampleRate, decimals);
+            } else {
+                encoder.encode(dst, nameAndTags, fractionalValue, type);
+            }
+        } else if (decimals >= 0) {
+            encoder.encodeSampled(dst, prefix, bucket, tags, fractionalValue, type, sampleRate, decimals);
+        } else {
+            encoder.encode(dst, prefix, bucket, tags, fractionalValue, type);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.ccycloud.aws.statsd.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides on the recording thread whether a sampled metric is sent at all, so that unsampled calls cost a random
+ * number and nothing more.  Also holds the configured default rate per bucket.
+ *
+ * Default rates are configured as a comma separated list such as "db.query=0.1,cache.hit=0.01,*=0.5", keyed on the
+ * bucket as passed by the caller; "*" applies to every bucket not listed.  Buckets with no rate are always sent.
+ */
+class Sampler {
+    static final double ALWAYS = 1.0;
+    static final String ANY_BUCKET = "*";
+
+    private final Map<String, Double> rates;
+    private final double otherwise;
+
+    private Sampler(Map<String, Double> rates, double otherwise) {
+        this.rates = rates;
+        this.otherwise = otherwise;
+    }
+
+    static Sampler parse(String defaultRates) {
+        Map<String, Double> rates = new HashMap<String, Double>();
+        double otherwise = ALWAYS;
+        if (null != defaultRates) {
+            for (String s : defaultRates.split(",")) {
+                String entry = s.trim();
+                if (entry.length() == 0) {
+                    continue;
+                }
+                int separator = entry.lastIndexOf('=');
+                if (separator < 1) {
+                    throw new IllegalArgumentException("Sample rate must be given as bucket=rate: " + s);
+                }
+                String bucket = entry.substring(0, separator).trim();
+                double rate;
+                try {
+                    rate = Double.parseDouble(entry.substring(separator + 1).trim());
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("Unrecognised sample rate: " + s);
+                }
+                if (rate <= 0 || rate > 1) {
+                    throw new IllegalArgumentException("Sample rate out of range: " + s);
+                }
+                if (ANY_BUCKET.equals(bucket)) {
+                    otherwise = rate;
+                } else {
+                    rates.put(bucket, rate);
+                }
+            }
+        }
+        return new Sampler(rates.isEmpty() ? Collections.<String, Double>emptyMap() : rates, otherwise);
+    }
+
+    /**
+     * @return the configured default rate for the bucket, or {@link #ALWAYS}
+     */
+    double rateFor(String bucket) {
+        Double rate = null == bucket ? null : rates.get(bucket);
+        return null == rate ? otherwise : rate;
+    }
+
+    /**
+     * @return true if a metric at this sample rate should be sent; rates of 1 or more always are, 0 or less never
+     */
+    static boolean sample(double rate) {
+        return rate >= ALWAYS || (rate > 0 && ThreadLocalRandom.current().nextDouble() < rate);
+    }
+}
@@ -0,0 +1,57 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.impl.stats.ClientStats;
+import com.ccycloud.aws.statsd.impl.transport.ShardedConnection;
+import com.ccycloud.aws.statsd.impl.transport.UdpConnectionInterface;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Routes each metric line to the batch buffer of the shard owning its series, so each server's datagrams are packed
+ * independently.  Not thread safe; owned by the dispatcher thread.
+ */
+public class ShardedBatcher implements MetricSink {
+    private final ShardedConnection connection;
+    private final MetricBatcher[] batchers;
+
+    public ShardedBatcher(ShardedConnection connection, int maxPacketSize, boolean direct, ClientStats stats) {
+        this(connection, maxPacketSize, direct, stats, maxPacketSize, 0);
+    }
+
+    /**
+     * @param flushBytes  each shard's datagram is sent once it holds this many bytes
+     * @param flushLines  or this many lines; 0 for no limit
+     */
+    public ShardedBatcher(ShardedConnection connection, int maxPacketSize, boolean direct, ClientStats stats,
+                          int flushBytes, int flushLines) {
+        this.connection = connection;
+        List<UdpConnectionInterface> shards = connection.getShards();
+        this.batchers = new MetricBatcher[shards.size()];
+        for (int i = 0; i < batchers.length; i++) {
+            batchers[i] = new MetricBatcher(shards.get(i), maxPacketSize, direct, stats, flushBytes, flushLines);
+        }
+    }
+
+    @Override
+    public void add(byte[] metric, int offset, int length) {
+        batchers[connection.shardFor(metric, offset, length)].add(metric, offset, length);
+    }
+
+    @Override
+    public void add(byte[] metric) {
+        add(metric, 0, metric.length);
+    }
+
+    @Override
+    public void add(ByteBuffer metric) {
+        batchers[connection.shardFor(metric)].add(metric);
+    }
+
+    @Override
+    public void flush() {
+        for (MetricBatcher batcher : batchers) {
+            batcher.flush();
+        }
+    }
+}
@@ -1,11 +1,45 @@
 package com.ccycloud.aws.statsd.impl;
 
+import com.ccycloud.aws.statsd.Counter;
+import com.ccycloud.aws.statsd.Gauge;
 import com.ccycloud.aws.statsd.StatsdClientInterface;
+import com.ccycloud.aws.statsd.Timer;
+import com.ccycloud.aws.statsd.impl.aggregation.CounterAggregator;
+import com.ccycloud.aws.statsd.impl.aggregation.GaugeAggregator;
+import com.ccycloud.aws.statsd.impl.aggregation.SeriesKey;
+import com.ccycloud.aws.statsd.impl.aggregation.SetAggregator;
+import com.ccycloud.aws.statsd.impl.aggregation.TimerAggregator;
+import com.ccycloud.aws.statsd.impl.aggregation.TimerSummary;
+import com.ccycloud.aws.statsd.impl.config.Configuration;
 import com.ccycloud.aws.statsd.impl.logging.SystemLogger;
+import com.ccycloud.aws.statsd.impl.queue.BoundedEventQueue;
+import com.ccycloud.aws.statsd.impl.queue.EventBuffer;
+import com.ccycloud.aws.statsd.impl.queue.OverflowPolicy;
+import com.ccycloud.aws.statsd.impl.queue.RingBuffer;
+import com.ccycloud.aws.statsd.impl.queue.SpillFile;
+import com.ccycloud.aws.statsd.impl.queue.SpillingEventBuffer;
+import com.ccycloud.aws.statsd.impl.stats.ClientStats;
+import com.ccycloud.aws.statsd.impl.stats.SelfReporter;
+import com.ccycloud.aws.statsd.impl.transport.ConsistentHashRing;
+import com.ccycloud.aws.statsd.impl.transport.ShardedConnection;
+import com.ccycloud.aws.statsd.impl.transport.Transport;
 import com.ccycloud.aws.statsd.impl.transport.UdpConnectionInterface;
 
-import java.util.AbstractQueue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import java.util.Map;
 
 /**
@@ -15,105 +49,775 @@ import java.util.Map;
  */
 public class StatsdClient implements StatsdClientInterface{
     private UdpConnectionInterface connection;
-    private Dispatcher dispatcher;
-    private MetricBuilder builder = new MetricBuilder();
+    // one worker per partition, each draining its own event queue into its own batcher
+    private volatile Dispatcher[] dispatchers;
+    private MetricEncoder encoder = new MetricEncoder();
+    private MetricSink[] batchers;
 
-    private AbstractQueue<String> eventQueue = new ConcurrentLinkedQueue<String>();
+    // null unless counter / gauge / timer aggregation is enabled
+    private CounterAggregator counterAggregator;
+    private GaugeAggregator gaugeAggregator;
+    private TimerAggregator timerAggregator;
+    // set members are always de-duplicated per flush interval
+    private SetAggregator setAggregator;
+    private long flushIntervalNanos;
+    private WaitStrategy waitStrategy;
+    private long maxLatencyNanos;
+    // how long a partly filled datagram may wait for more lines; 0 to send it as soon as the queue is drained
+    private long batchDelayNanos;
+    // how long finishMeasurements waits for the dispatchers to stop
+    private long stopTimeoutMs;
+    // the caller's executor, or one starting a thread per worker
+    private Executor executor;
+
+    // encoded metric lines awaiting dispatch; with several workers a series always goes to the same partition
+    private EventBuffer[] eventQueues;
+    // null with a single worker
+    private ConsistentHashRing partitions;
+    // null unless configured; shared by every partition, and replayed by the first
+    private SpillFile spillFile;
+    private final ThreadLocal<PendingMetric> pendingMetric = new ThreadLocal<PendingMetric>() {
+        @Override
+        protected PendingMetric initialValue() {
+            return new PendingMetric(encoder);
+        }
+    };
+    private long reportedDrops = 0;
+    private Sampler sampler;
+    private final ClientStats stats = new ClientStats();
+    // null unless the client reports its own counters through statsd
+    private SelfReporter selfReporter;
 
     @Override
     public void incrementCounter(String prefix, String bucket, Map<String,String> tags, int count) {
+        incrementCounter(prefix, bucket, tags, (long) count);
+    }
+
+    @Override
+    public void incrementCounter(String prefix, String bucket, Map<String,String> tags, long count) {
         if(connection.isConnected()) {
-            eventQueue.add(builder.buildCounter(prefix, bucket, tags, count));
+            if(null != counterAggregator) {
+                counterAggregator.increment(prefix, bucket, tags, count);
+            } else {
+                record(prefix, bucket, tags, count, MetricEncoder.Type.COUNTER, sampler.rateFor(bucket));
+            }
         }
     }
 
     @Override
     public void incrementSampleCounter(String prefix, String bucket, Map<String,String> tags, int count, double sampleRate) {
         if(connection.isConnected()) {
-            eventQueue.add(builder.buildSampleCounter(prefix, bucket, tags, count, sampleRate));
+            record(prefix, bucket, tags, count, MetricEncoder.Type.COUNTER, sampleRate);
         }
     }
 
     @Override
     public void gaugeReading(String prefix, String bucket, Map<String,String> tags, int count) {
+        gaugeReading(prefix, bucket, tags, (long) count);
+    }
+
+    @Override
+    public void gaugeReading(String prefix, String bucket, Map<String,String> tags, long value) {
         if(connection.isConnected()) {
-            eventQueue.add(builder.buildGauge(prefix, bucket, tags, count));
+            if(null != gaugeAggregator) {
+                gaugeAggregator.set(prefix, bucket, tags, value);
+            } else {
+                record(prefix, bucket, tags, value, MetricEncoder.Type.GAUGE, sampler.rateFor(bucket));
+            }
+        }
+    }
+
+    @Override
+    public void gaugeReading(String prefix, String bucket, Map<String,String> tags, double value) {
+        if(connection.isConnected() && isFinite(value)) {
+            if(null != gaugeAggregator) {
+                gaugeAggregator.set(prefix, bucket, tags, value);
+            } else {
+                record(prefix, bucket, tags, value, MetricEncoder.Type.GAUGE, sampler.rateFor(bucket));
+            }
+        }
+    }
+
+    @Override
+    public void sampleGaugeReading(String prefix, String bucket, Map<String,String> tags, int count, double sampleRate) {
+        if(connection.isConnected()) {
+            if(null != gaugeAggregator) {
+                if(Sampler.sample(sampleRate)) {
+                    gaugeAggregator.set(prefix, bucket, tags, count);
+                }
+            } else {
+                record(prefix, bucket, tags, count, MetricEncoder.Type.GAUGE, sampleRate);
+            }
+        }
+    }
+
+    // deltas are never sampled: a gauge carries no rate for the server to scale them back up by
+    public void adjustGauge(String prefix, String bucket, Map<String,String> tags, long delta) {
+        if(connection.isConnected()) {
+            if(null != gaugeAggregator) {
+                gaugeAggregator.adjust(prefix, bucket, tags, delta);
+            } else {
+                record(prefix, bucket, tags, delta, MetricEncoder.Type.GAUGE_DELTA, Sampler.ALWAYS);
+            }
+        }
+    }
+
+    public void adjustGauge(String prefix, String bucket, Map<String,String> tags, double delta) {
+        if(connection.isConnected() && isFinite(delta)) {
+            if(null != gaugeAggregator) {
+                gaugeAggregator.adjust(prefix, bucket, tags, delta);
+            } else {
+                record(prefix, bucket, tags, delta, MetricEncoder.Type.GAUGE_DELTA, Sampler.ALWAYS);
+            }
         }
     }
 
     @Override
     public void timedEvent(String prefix, String bucket, Map<String,String> tags, int eventDurationInMs) {
+        timedEvent(prefix, bucket, tags, (long) eventDurationInMs);
+    }
+
+    @Override
+    public void timedEvent(String prefix, String bucket, Map<String,String> tags, long eventDurationInMs) {
+        if(connection.isConnected()) {
+            if(null != timerAggregator) {
+                timerAggregator.record(prefix, bucket, tags, eventDurationInMs);
+            } else {
+                record(prefix, bucket, tags, eventDurationInMs, MetricEncoder.Type.TIMER, sampler.rateFor(bucket));
+            }
+        }
+    }
+
+    @Override
+    public void timedEvent(String prefix, String bucket, Map<String,String> tags, double eventDurationInMs) {
         if(connection.isConnected()) {
-            eventQueue.add(builder.buildTimer(prefix, bucket, tags, eventDurationInMs));
+            if(null != timerAggregator) {
+                timerAggregator.record(prefix, bucket, tags, eventDurationInMs);
+            } else {
+                record(prefix, bucket, tags, eventDurationInMs, MetricEncoder.Type.TIMER, sampler.rateFor(bucket));
+            }
+        }
+    }
+
+    @Override
+    public void sampleTimedEvent(String prefix, String bucket, Map<String,String> tags, int eventDurationInMs, double sampleRate) {
+        if(connection.isConnected()) {
+            record(prefix, bucket, tags, eventDurationInMs, MetricEncoder.Type.TIMER, sampleRate);
         }
     }
 
     @Override
     public void incrementUniqueCounter(String prefix, String bucket, Map<String,String> tags, int count) {
-        throw new RuntimeException("Not yet implemented.");
+        if(connection.isConnected()) {
+            setAggregator.add(prefix, bucket, tags, count);
+        }
+    }
+
+    @Override
+    public Counter counter(String prefix, String bucket, Map<String,String> tags) {
+        if(null != counterAggregator) {
+            return new CounterHandle(this, null, Sampler.ALWAYS, counterAggregator.pin(prefix, bucket, tags));
+        }
+        return new CounterHandle(this, encoder.encodeNameAndTags(prefix, bucket, tags), sampler.rateFor(bucket), null);
+    }
+
+    public Gauge gauge(String prefix, String bucket, Map<String,String> tags) {
+        if(null != gaugeAggregator) {
+            return new GaugeHandle(this, null, Sampler.ALWAYS, gaugeAggregator.pin(prefix, bucket, tags));
+        }
+        return new GaugeHandle(this, encoder.encodeNameAndTags(prefix, bucket, tags), sampler.rateFor(bucket), null);
+    }
+
+    @Override
+    public Timer timer(String prefix, String bucket, Map<String,String> tags) {
+        if(null != timerAggregator) {
+            return new TimerHandle(this, null, Sampler.ALWAYS, timerAggregator.pin(prefix, bucket, tags));
+        }
+        return new TimerHandle(this, encoder.encodeNameAndTags(prefix, bucket, tags), sampler.rateFor(bucket), null);
+    }
+
+    // hot paths for handles: the name and tags are already encoded, or the aggregation key already built
+    void record(byte[] nameAndTags, long value, MetricEncoder.Type type, double sampleRate) {
+        if(connection.isConnected() && Sampler.sample(sampleRate)) {
+            PendingMetric metric = pending().set(nameAndTags, value, type);
+            enqueue(sampleRate < Sampler.ALWAYS ? withRate(metric, sampleRate) : metric);
+        }
+    }
+
+    void record(byte[] nameAndTags, double value, MetricEncoder.Type type, double sampleRate) {
+        if(connection.isConnected() && isFinite(value) && Sampler.sample(sampleRate)) {
+            PendingMetric metric = pending().set(nameAndTags, value, type);
+            enqueue(sampleRate < Sampler.ALWAYS ? withRate(metric, sampleRate) : metric);
+        }
+    }
+
+    void aggregateCounter(SeriesKey key, long count) {
+        if(connection.isConnected()) {
+            counterAggregator.increment(key, count);
+        }
+    }
+
+    void aggregateGauge(SeriesKey key, double value) {
+        if(connection.isConnected() && isFinite(value)) {
+            gaugeAggregator.set(key, value);
+        }
+    }
+
+    void aggregateGaugeDelta(SeriesKey key, double delta) {
+        if(connection.isConnected() && isFinite(delta)) {
+            gaugeAggregator.adjust(key, delta);
+        }
+    }
+
+    void aggregateTimer(SeriesKey key, double durationInMs) {
+        if(connection.isConnected()) {
+            timerAggregator.record(key, durationInMs);
+        }
+    }
+
+    // the sampling decision is made before anything is encoded, so an unsampled call costs one random number
+    private void record(String prefix, String bucket, Map<String,String> tags, long value, MetricEncoder.Type type, double sampleRate) {
+        if(Sampler.sample(sampleRate)) {
+            PendingMetric metric = pending().set(prefix, bucket, tags, value, type);
+            enqueue(sampleRate < Sampler.ALWAYS ? withRate(metric, sampleRate) : metric);
+        }
+    }
+
+    private void record(String prefix, String bucket, Map<String,String> tags, double value, MetricEncoder.Type type, double sampleRate) {
+        if(isFinite(value) && Sampler.sample(sampleRate)) {
+            PendingMetric metric = pending().set(prefix, bucket, tags, value, type);
+            enqueue(sampleRate < Sampler.ALWAYS ? withRate(metric, sampleRate) : metric);
+        }
+    }
+
+    // NaN and infinities have no statsd representation, so are not sent
+    private static boolean isFinite(double value) {
+        return !Double.isNaN(value) && !Double.isInfinite(value);
+    }
+
+    // statsd scales sampled counters and timers up by the rate; gauges are last-value and carry no rate
+    private static PendingMetric withRate(PendingMetric metric, double sampleRate) {
+        switch(metric.getType()) {
+            case COUNTER:
+                return metric.sampled(sampleRate, MetricBuilder.SAMPLED_COUNT_DECIMALS);
+            case TIMER:
+                return metric.sampled(sampleRate, MetricBuilder.SAMPLED_TIMED_EVENT_DECIMALS);
+            default:
+                return metric;
+        }
+    }
+
+    private PendingMetric pending() {
+        return pendingMetric.get();
+    }
+
+    // have the event buffer encode the line into its own storage, then wake the dispatcher if it is idle
+    private void enqueue(PendingMetric metric) {
+        int partition = null == partitions ? 0 : partitionFor(metric);
+        boolean queued;
+        try {
+            queued = eventQueues[partition].offer(metric);
+        } finally {
+            // a failed encoding must not leave the thread's pending metric holding the caller's tags
+            metric.clear();
+        }
+        if(queued) {
+            stats.enqueued();
+            Dispatcher[] running = dispatchers;
+            if(null != running) {
+                running[partition].signal();
+            }
+        }
+    }
+
+    // the series is only known once encoded, so encode first and have the queue copy the line
+    private int partitionFor(PendingMetric metric) {
+        ByteBuffer line = metric.encodeNow();
+        if(null == line) {
+            // too long for any queue, which will count it as dropped
+            return 0;
+        }
+        return partitions.nodeFor(line, line.position(), ShardedConnection.seriesLength(line));
     }
 
     public StatsdClient(UdpConnectionInterface connection) {
+        this(connection, Collections.<String, String>emptyMap());
+    }
+
+    public StatsdClient(UdpConnectionInterface connection, Map<String, String> configuration) {
+        this(connection, configuration, null);
+    }
+
+    /**
+     * @param executor runs the dispatcher workers, each of which occupies a thread until the client is finished
+     *                 with; null to start a thread per worker as configured by statsd.dispatcher.mode
+     */
+    public StatsdClient(UdpConnectionInterface connection, Map<String, String> configuration, Executor executor) {
         this.connection = connection;
+        int workers = Configuration.getInt(configuration, Configuration.CONFIG_DISPATCHER_WORKERS, Configuration.DEFAULT_DISPATCHER_WORKERS);
+        if(workers < 1) {
+            throw new IllegalArgumentException("The dispatcher needs at least one worker: " + workers);
+        }
+        this.eventQueues = new EventBuffer[workers];
+        this.batchers = new MetricSink[workers];
+        this.spillFile = openSpillFile(configuration);
+        long replayRate = Configuration.getLong(configuration, Configuration.CONFIG_SPILL_REPLAY_RATE, Configuration.DEFAULT_SPILL_REPLAY_RATE);
+        List<String> names = new ArrayList<String>();
+        for(int i = 0; i < workers; i++) {
+            EventBuffer memory = buildEventBuffer(configuration);
+            eventQueues[i] = null == spillFile ? memory : new SpillingEventBuffer(memory, spillFile, 0 == i ? replayRate : 0);
+            batchers[i] = buildSink(connection, configuration, stats);
+            names.add(String.valueOf(i));
+        }
+        if(workers > 1) {
+            this.partitions = new ConsistentHashRing(names, ConsistentHashRing.DEFAULT_POINTS_PER_NODE);
+        }
+        this.executor = null != executor ? executor : DispatcherMode.fromConfiguration(
+                Configuration.getString(configuration, Configuration.CONFIG_DISPATCHER_MODE, Configuration.DEFAULT_DISPATCHER_MODE)).newExecutor();
+        this.sampler = Sampler.parse(Configuration.getString(configuration, Configuration.CONFIG_SAMPLE_RATES, null));
+        this.stats.watch(eventQueues);
+        if(Configuration.getBoolean(configuration, Configuration.CONFIG_SELF_METRICS, false)) {
+            this.selfReporter = new SelfReporter(stats, encoder,
+                    Configuration.getString(configuration, Configuration.CONFIG_SELF_METRICS_PREFIX, SelfReporter.DEFAULT_PREFIX));
+        }
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(
+                Configuration.getLong(configuration, Configuration.CONFIG_FLUSH_INTERVAL_MS, Configuration.DEFAULT_FLUSH_INTERVAL_MS));
+        this.waitStrategy = WaitStrategy.fromConfiguration(
+                Configuration.getString(configuration, Configuration.CONFIG_DISPATCHER_WAIT_STRATEGY, Configuration.DEFAULT_DISPATCHER_WAIT_STRATEGY));
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(
+                Configuration.getLong(configuration, Configuration.CONFIG_DISPATCHER_MAX_LATENCY_MS, Configuration.DEFAULT_DISPATCHER_MAX_LATENCY_MS));
+        this.stopTimeoutMs = Configuration.getLong(configuration, Configuration.CONFIG_DISPATCHER_STOP_TIMEOUT_MS, Configuration.DEFAULT_DISPATCHER_STOP_TIMEOUT_MS);
+        long batchDelayMs = Configuration.getLong(configuration, Configuration.CONFIG_BATCH_MAX_DELAY_MS, Configuration.DEFAULT_BATCH_MAX_DELAY_MS);
+        if(batchDelayMs < 0) {
+            throw new IllegalArgumentException("The batch delay must not be negative: " + batchDelayMs);
+        }
+        this.batchDelayNanos = TimeUnit.MILLISECONDS.toNanos(batchDelayMs);
+        if(Configuration.getBoolean(configuration, Configuration.CONFIG_AGGREGATE_COUNTERS, false)) {
+            counterAggregator = new CounterAggregator(encoder);
+        }
+        if(Configuration.getBoolean(configuration, Configuration.CONFIG_AGGREGATE_GAUGES, false)) {
+            gaugeAggregator = new GaugeAggregator(encoder);
+        }
+        this.setAggregator = new SetAggregator(encoder,
+                Configuration.getInt(configuration, Configuration.CONFIG_UNIQUE_MAX_EXACT, Configuration.DEFAULT_UNIQUE_MAX_EXACT),
+                Configuration.getBoolean(configuration, Configuration.CONFIG_UNIQUE_HYPERLOGLOG, false)
+                        ? Configuration.getInt(configuration, Configuration.CONFIG_UNIQUE_HYPERLOGLOG_PRECISION, Configuration.DEFAULT_UNIQUE_HYPERLOGLOG_PRECISION)
+                        : 0);
+        if(Configuration.getBoolean(configuration, Configuration.CONFIG_AGGREGATE_TIMERS, false)) {
+            timerAggregator = new TimerAggregator(encoder,
+                    TimerSummary.parse(Configuration.getString(configuration, Configuration.CONFIG_TIMER_SUMMARIES, TimerSummary.DEFAULT_SUMMARIES)),
+                    Configuration.getInt(configuration, Configuration.CONFIG_TIMER_SAMPLES, 0));
+        }
+    }
+
+    // a sharded connection gets a batch buffer per shard, so each server's datagrams are packed separately
+    private static MetricSink buildSink(UdpConnectionInterface connection, Map<String, String> configuration, ClientStats stats) {
+        int packetSize = Configuration.getInt(configuration, Configuration.CONFIG_PACKET_SIZE, Configuration.DEFAULT_PACKET_SIZE);
+        int flushBytes = Configuration.getInt(configuration, Configuration.CONFIG_BATCH_MAX_BYTES, packetSize);
+        int flushLines = Configuration.getInt(configuration, Configuration.CONFIG_BATCH_MAX_LINES, Configuration.DEFAULT_BATCH_MAX_LINES);
+        boolean direct = Transport.fromConfiguration(
+                Configuration.getString(configuration, Configuration.CONFIG_TRANSPORT, Configuration.DEFAULT_TRANSPORT)).prefersDirectBuffers();
+        if(connection instanceof ShardedConnection) {
+            return new ShardedBatcher((ShardedConnection) connection, packetSize, direct, stats, flushBytes, flushLines);
+        }
+        return new MetricBatcher(connection, packetSize, direct, stats, flushBytes, flushLines);
+    }
+
+    private static EventBuffer buildEventBuffer(Map<String, String> configuration) {
+        OverflowPolicy policy = OverflowPolicy.fromConfiguration(
+                Configuration.getString(configuration, Configuration.CONFIG_QUEUE_OVERFLOW, Configuration.DEFAULT_QUEUE_OVERFLOW));
+        long blockTimeout = Configuration.getLong(configuration, Configuration.CONFIG_QUEUE_BLOCK_TIMEOUT_MS, Configuration.DEFAULT_QUEUE_BLOCK_TIMEOUT_MS);
+        String type = Configuration.getString(configuration, Configuration.CONFIG_QUEUE_TYPE, Configuration.DEFAULT_QUEUE_TYPE);
+
+        if("ring".equalsIgnoreCase(type)) {
+            return new RingBuffer(
+                    Configuration.getInt(configuration, Configuration.CONFIG_RING_SLOTS, Configuration.DEFAULT_RING_SLOTS),
+                    Configuration.getInt(configuration, Configuration.CONFIG_RING_SLOT_SIZE, Configuration.DEFAULT_RING_SLOT_SIZE),
+                    policy, blockTimeout, TimeUnit.MILLISECONDS);
+        } else if("linked".equalsIgnoreCase(type)) {
+            return new BoundedEventQueue(
+                    Configuration.getInt(configuration, Configuration.CONFIG_QUEUE_CAPACITY, Configuration.DEFAULT_QUEUE_CAPACITY),
+                    Configuration.getLong(configuration, Configuration.CONFIG_QUEUE_CAPACITY_BYTES, Configuration.DEFAULT_QUEUE_CAPACITY_BYTES),
+                    policy, blockTimeout, TimeUnit.MILLISECONDS);
+        }
+        throw new IllegalArgumentException("Unknown queue type: " + type);
+    }
+
+    // a spill file which cannot be opened is reported, and the client carries on dropping what the queue cannot hold
+    private static SpillFile openSpillFile(Map<String, String> configuration) {
+        String path = Configuration.getString(configuration, Configuration.CONFIG_SPILL_PATH, null);
+        if(null == path) {
+            return null;
+        }
+        try {
+            return new SpillFile(new File(path),
+                    Configuration.getLong(configuration, Configuration.CONFIG_SPILL_SIZE_BYTES, Configuration.DEFAULT_SPILL_SIZE_BYTES));
+        } catch(IOException ioe) {
+            SystemLogger.error(String.format("Unable to open spill file %s", path), ioe);
+            return null;
+        }
     }
 
     public void startMeasurements() {
-        dispatcher = new Dispatcher();
-        dispatcher.start();
+        Dispatcher[] workers = new Dispatcher[eventQueues.length];
+        for(int i = 0; i < workers.length; i++) {
+            workers[i] = new Dispatcher(i);
+        }
+        dispatchers = workers;
+        for(Dispatcher worker : workers) {
+            worker.start();
+        }
+    }
+
+    public synchronized void finishMeasurements() {
+        Dispatcher[] workers = dispatchers;
+        // partitions whose batcher this thread may use: those whose worker has stopped, or will now never run
+        boolean[] released = new boolean[eventQueues.length];
+        try {
+            if(null == workers) {
+                Arrays.fill(released, true);
+            } else {
+                for(Dispatcher worker : workers) {
+                    worker.stop();
+                }
+                // each batcher belongs to its worker, so let them all finish before spooling the remainder
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(stopTimeoutMs);
+                for(int i = 0; i < workers.length; i++) {
+                    released[i] = workers[i].awaitStopped(deadline);
+                    if(!released[i]) {
+                        SystemLogger.error(String.format("Dispatcher %d did not stop within %d ms; its queued metrics are not sent", i, stopTimeoutMs));
+                    }
+                }
+            }
+            if(null != spillFile && !connection.isReady()) {
+                // nothing can be sent, so keep it all on disk for this or the next process to replay
+                for(int i = 0; i < eventQueues.length; i++) {
+                    if(released[i]) {
+                        ((SpillingEventBuffer) eventQueues[i]).spillAll();
+                    }
+                }
+                dispatchAggregates(spillFile);
+            } else {
+                for(int i = 0; i < eventQueues.length; i++) {
+                    if(released[i]) {
+                        dispatchAllEnqueuedEvents(i);
+                    }
+                }
+                if(released[0]) {
+                    dispatchAggregates();
+                }
+            }
+        }catch(InterruptedException ie) {
+            SystemLogger.error(ie.getMessage());
+        } finally {
+            if(null != spillFile) {
+                spillFile.close();
+            }
+        }
+    }
+
+    // pack everything queued on one partition into as few datagrams as possible, and send them all
+    void dispatchAllEnqueuedEvents(int partition) {
+        drain(partition);
+        batchers[partition].flush();
+    }
+
+    // move everything queued on one partition into its batcher, which sends each datagram as it fills
+    private int drain(int partition) {
+        EventBuffer eventQueue = eventQueues[partition];
+        MetricSink batcher = batchers[partition];
+        long start = System.nanoTime();
+        int drained = 0;
+        int batch;
+        while((batch = eventQueue.drainTo(batcher)) > 0) {
+            // keep going while producers are still adding
+            drained += batch;
+        }
+        if(drained > 0) {
+            stats.drained(System.nanoTime() - start);
+        }
+        return drained;
+    }
+
+    /**
+     * Have every dispatcher send all it has queued now, including partly filled datagrams, rather than when the
+     * batch thresholds or delay next say so.  Aggregated series are still sent once per flush interval.
+     *
+     * @return true once everything queued before the call has been handed to the connection; false if that did not
+     *         happen within the timeout, e.g. because the connection is not ready, or the client is not running
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        Dispatcher[] workers = dispatchers;
+        if(null == workers) {
+            return false;
+        }
+        long[] tickets = new long[workers.length];
+        for(int i = 0; i < workers.length; i++) {
+            tickets[i] = workers[i].requestFlush();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for(int i = 0; i < workers.length; i++) {
+            if(!workers[i].awaitFlush(tickets[i], deadline)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the client's own counters
+     */
+    public ClientStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the number of metrics discarded because the event queue was full
+     */
+    public long getDroppedCount() {
+        long drops = 0;
+        for(EventBuffer eventQueue : eventQueues) {
+            drops += eventQueue.getDroppedCount();
+        }
+        return drops;
+    }
+
+    // at most once per flush interval, say if metrics have been dropped since the last report
+    private void reportDrops() {
+        long drops = getDroppedCount();
+        if(drops != reportedDrops) {
+            SystemLogger.error(String.format("Event queue full; dropped %d metrics (%d in total)", drops - reportedDrops, drops));
+            reportedDrops = drops;
+        }
     }
 
-    public void finishMeasurements() {
-        dispatcher.shutdown();
+    // send one line per aggregated series accumulated since the last flush, through the first partition's batcher
+    void dispatchAggregates() {
+        dispatchAggregates(batchers[0]);
     }
 
-    private void dispatchAllEnqueuedEvents() {
-        for(; !eventQueue.isEmpty();) {
-            connection.send(eventQueue.remove());
+    private void dispatchAggregates(MetricSink batcher) {
+        if(null != counterAggregator) {
+            counterAggregator.flushTo(batcher);
+        }
+        if(null != gaugeAggregator) {
+            gaugeAggregator.flushTo(batcher);
+        }
+        if(null != timerAggregator) {
+            timerAggregator.flushTo(batcher);
         }
+        setAggregator.flushTo(batcher);
+        if(null != selfReporter) {
+            selfReporter.reportTo(batcher);
+        }
+        batcher.flush();
     }
 
     class Dispatcher implements Runnable {
-        private boolean running = false;
-        private Thread thread;
+        private static final int NEW = 0;
+        private static final int RUNNING = 1;
+        private static final int ABANDONED = 2;
+
+        private final EventBuffer eventQueue;
+        // only the first worker flushes the aggregates
+        private final boolean flushesAggregates;
+        private volatile boolean running = false;
+        // the thread running this worker, once it has started
+        private volatile Thread thread;
+        private final CountDownLatch stopped = new CountDownLatch(1);
+        // NEW until run() claims the worker, or finishing claims it for the caller's thread because it never ran
+        private final AtomicInteger state = new AtomicInteger(NEW);
+        private final int partition;
+        private long nextFlush;
+        // set while the dispatcher is parked, so only the first producer to find it idle pays for an unpark
+        private final AtomicBoolean parked = new AtomicBoolean(false);
+        // whether metrics have been waiting on the connection, and since when
+        private boolean stalled = false;
+        private long stalledSince;
+        // whether the batcher may hold a partly filled datagram, and when it must be sent by
+        private boolean batchPending = false;
+        private long batchDue;
+        // explicit flushes asked for, and the last one done; waiters are notified on this dispatcher's monitor
+        private final AtomicLong flushRequests = new AtomicLong();
+        private volatile long flushesDone = 0;
 
-        public synchronized void start() {
+        Dispatcher(int partition) {
+            this.partition = partition;
+            this.eventQueue = eventQueues[partition];
+            this.flushesAggregates = 0 == partition;
+        }
+
+        void start() {
             running = true;
-            thread = new Thread(this);
-            thread.start();
+            nextFlush = System.nanoTime() + flushIntervalNanos;
+            try {
+                executor.execute(this);
+            } catch(RejectedExecutionException ree) {
+                // queued metrics wait for finishMeasurements, which sends them on the caller's thread
+                SystemLogger.error(String.format("Unable to start dispatcher %d", partition), ree);
+                running = false;
+                state.set(ABANDONED);
+                stopped.countDown();
+            }
         }
 
-        public synchronized void shutdown() {
+        void stop() {
             running = false;
-            try {
-                dispatchAllEnqueuedEvents();
-                thread.join();
-            }catch(InterruptedException ie) {
-                SystemLogger.error(ie.getMessage());
+            LockSupport.unpark(thread);
+        }
+
+        /**
+         * Wait until the worker has stopped, or make sure it never starts if the executor has not run it yet
+         *
+         * @param deadline a System.nanoTime() reading
+         * @return false if the worker is still running, so its batcher may not be touched
+         */
+        boolean awaitStopped(long deadline) throws InterruptedException {
+            if(stopped.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+            // still queued on a busy or shut down executor
+            return state.compareAndSet(NEW, ABANDONED);
+        }
+
+        long requestFlush() {
+            long ticket = flushRequests.incrementAndGet();
+            LockSupport.unpark(thread);
+            return ticket;
+        }
+
+        /**
+         * @return whether the flush with the given ticket was done by the deadline, a System.nanoTime() reading
+         */
+        synchronized boolean awaitFlush(long ticket, long deadline) throws InterruptedException {
+            long remaining;
+            while(flushesDone < ticket && running && (remaining = deadline - System.nanoTime()) > 0) {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return flushesDone >= ticket;
+        }
+
+        /**
+         * Called by producers after queueing a metric; wakes the dispatcher if it is parked
+         */
+        void signal() {
+            if(parked.get() && parked.compareAndSet(true, false)) {
+                LockSupport.unpark(thread);
             }
         }
 
-        /*
-        * Sleep 100ms between attempts to poll the event queue if it empty*/
         public void run() {
-            while(running){
-                if(eventQueue.isEmpty()) {
-                    try {
-                        Thread.sleep(100l);
-                    } catch (InterruptedException e) {
-                        SystemLogger.error(e.getMessage());
-                    }
-                } else {
-                    if(connection.isConnected()) {
-                        // spool everything that's queued when possible
-                        dispatchAllEnqueuedEvents();
+            if(!state.compareAndSet(NEW, RUNNING)) {
+                // given up on before the executor got to it
+                return;
+            }
+            thread = Thread.currentThread();
+            try {
+                while(running){
+                    if(flushRequested() && connection.isReady()) {
+                        flushNow();
+                    } else if(!eventQueue.isEmpty() && connection.isReady()) {
+                        // spool everything that's queued when possible; until the connection is ready it stays queued
+                        dispatch();
                     } else {
-                        try {
-                            Thread.sleep(100l);
-                        } catch (InterruptedException e) {
-                            SystemLogger.error(e.getMessage());
+                        if(null != spillFile) {
+                            spillIfStalled();
                         }
+                        idle();
+                    }
+                    flushBatchIfDue();
+                    if(flushesAggregates) {
+                        flushAggregatesIfDue();
                     }
                 }
+            } finally {
+                synchronized(this) {
+                    // wake anyone waiting on a flush which will now not happen
+                    notifyAll();
+                }
+                stopped.countDown();
+            }
+        }
+
+        // with no batch delay send everything drained; otherwise hold a partly filled datagram until it is due
+        private void dispatch() {
+            if(0 == batchDelayNanos) {
+                dispatchAllEnqueuedEvents(partition);
+                return;
+            }
+            long now = System.nanoTime();
+            if(drain(partition) > 0 && !batchPending) {
+                batchPending = true;
+                batchDue = now + batchDelayNanos;
+            }
+        }
+
+        private void flushBatchIfDue() {
+            if(batchPending && System.nanoTime() - batchDue >= 0 && connection.isReady()) {
+                batchers[partition].flush();
+                batchPending = false;
+            }
+        }
+
+        private boolean flushRequested() {
+            return flushRequests.get() != flushesDone;
+        }
+
+        private void flushNow() {
+            long requested = flushRequests.get();
+            dispatchAllEnqueuedEvents(partition);
+            batchPending = false;
+            synchronized(this) {
+                flushesDone = requested;
+                notifyAll();
+            }
+        }
+
+        private void idle() {
+            if(connection.isReady() && waitStrategy == WaitStrategy.BUSY_SPIN) {
+                return;
+            }
+            if(connection.isReady() && waitStrategy == WaitStrategy.YIELD) {
+                Thread.yield();
+                return;
+            }
+            // park until signalled, the next aggregate flush, a partly filled datagram falling due, or the latency bound
+            // as a backstop against a lost signal
+            long now = System.nanoTime();
+            long timeout = flushesAggregates ? Math.min(maxLatencyNanos, nextFlush - now) : maxLatencyNanos;
+            if(batchPending) {
+                timeout = Math.min(timeout, batchDue - now);
+            }
+            parked.set(true);
+            if(running && timeout > 0 && (eventQueue.isEmpty() && !flushRequested() || !connection.isReady())) {
+                LockSupport.parkNanos(this, timeout);
+            }
+            parked.set(false);
+        }
+
+        // once the connection has been down for a flush interval, move waiting metrics to disk, where they outlive the process
+        private void spillIfStalled() {
+            if(connection.isReady() || eventQueue.isEmpty()) {
+                stalled = false;
+                return;
+            }
+            long now = System.nanoTime();
+            if(!stalled) {
+                stalled = true;
+                stalledSince = now;
+            } else if(now - stalledSince >= flushIntervalNanos) {
+                ((SpillingEventBuffer) eventQueue).spillAll();
+            }
+        }
+
+        private void flushAggregatesIfDue() {
+            long now = System.nanoTime();
+            if(now - nextFlush >= 0) {
+                if(connection.isReady()) {
+                    dispatchAggregates();
+                    reportDrops();
+                }
+                nextFlush = now + flushIntervalNanos;
             }
         }
     }
@@ -0,0 +1,80 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.Stopwatch;
+import com.ccycloud.aws.statsd.Timer;
+import com.ccycloud.aws.statsd.impl.aggregation.SeriesKey;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Timer handle holding either the series' pre-encoded name and tags, with its default sample rate, or, when timers
+ * are aggregated, its pinned aggregation key
+ */
+class TimerHandle implements Timer {
+    private static final double NANOS_PER_MS = 1000000.0;
+
+    private final StatsdClient client;
+    private final byte[] nameAndTags;
+    private final double sampleRate;
+    private final SeriesKey key;
+
+    TimerHandle(StatsdClient client, byte[] nameAndTags, double sampleRate, SeriesKey key) {
+        this.client = client;
+        this.nameAndTags = nameAndTags;
+        this.sampleRate = sampleRate;
+        this.key = key;
+    }
+
+    @Override
+    public void record(long durationInMs) {
+        if (null != key) {
+            client.aggregateTimer(key, durationInMs);
+        } else {
+            client.record(nameAndTags, durationInMs, MetricEncoder.Type.TIMER, sampleRate);
+        }
+    }
+
+    @Override
+    public void record(double durationInMs) {
+        if (null != key) {
+            client.aggregateTimer(key, durationInMs);
+        } else {
+            client.record(nameAndTags, durationInMs, MetricEncoder.Type.TIMER, sampleRate);
+        }
+    }
+
+    @Override
+    public void recordNanos(long durationInNanos) {
+        record(durationInNanos / NANOS_PER_MS);
+    }
+
+    @Override
+    public void recordSince(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void time(Runnable task) {
+        long start = System.nanoTime();
+        try {
+            task.run();
+        } finally {
+            recordSince(start);
+        }
+    }
+
+    @Override
+    public <T> T time(Callable<T> task) throws Exception {
+        long start = System.nanoTime();
+        try {
+            return task.call();
+        } finally {
+            recordSince(start);
+        }
+    }
+
+    @Override
+    public Stopwatch stopwatch() {
+        return new Stopwatch(this);
+    }
+}
@@ -0,0 +1,21 @@
+package com.ccycloud.aws.statsd.impl;
+
+/**
+ * How the dispatcher waits when there is nothing to send
+ */
+public enum WaitStrategy {
+    /** park until a producer signals new work or the maximum latency passes; near zero idle CPU */
+    PARK,
+    /** yield the processor between polls; lower wake-up latency at the cost of a busy core when loaded */
+    YIELD,
+    /** poll continuously; lowest latency, burns a whole core */
+    BUSY_SPIN;
+
+    public static WaitStrategy fromConfiguration(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException iae) {
+            throw new IllegalArgumentException("Unknown dispatcher wait strategy: " + value);
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import com.ccycloud.aws.statsd.impl.MetricSink;
+import com.ccycloud.aws.statsd.impl.MetricEncoder;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sums counter increments per series on the client so that one line per series is sent each flush interval,
+ * however many times the series was incremented.
+ *
+ * Recording threads only touch a striped LongAdder once the series exists, and a count of the writers in it unless
+ * the series is held by a handle; the dispatcher thread drains the sums.  The adders are never reset, as before
+ * Java 9 LongAdder.sumThenReset() can lose an increment racing with it: each flush sends the growth in the total
+ * since the last, so an increment the flush misses is sent with the next.
+ */
+public class CounterAggregator {
+    private final SeriesCells<Sum> counters = new SeriesCells<Sum>() {
+        @Override
+        protected Sum create() {
+            return new Sum();
+        }
+    };
+    private final MetricEncoder encoder;
+
+    public CounterAggregator(MetricEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    public void increment(String prefix, String bucket, Map<String, String> tags, long count) {
+        Sum sum = counters.enter(new SeriesKey(prefix, bucket, tags));
+        try {
+            sum.adder.add(count);
+        } finally {
+            sum.leave();
+        }
+    }
+
+    /**
+     * Increment a series by a key from {@link #pin}; the stored key is the same instance, so the lookup
+     * never compares tags
+     */
+    public void increment(SeriesKey key, long count) {
+        counters.pinnedCell(key).adder.add(count);
+    }
+
+    /**
+     * Register a series which will not be evicted when idle
+     *
+     * @return the key to increment the series with
+     */
+    public SeriesKey pin(String prefix, String bucket, Map<String, String> tags) {
+        return counters.pin(new SeriesKey(prefix, bucket, tags));
+    }
+
+    /**
+     * Emit one summed line per series incremented since the previous flush.
+     *
+     * Series which saw no increments are evicted so the map only holds live series.  Eviction waits for any
+     * increment in progress, and later increments go to a new cell, so the final read of an evicted series is
+     * complete.
+     */
+    public void flushTo(MetricSink batcher) {
+        for (Map.Entry<SeriesKey, Sum> entry : counters.entrySet()) {
+            SeriesKey key = entry.getKey();
+            Sum cell = entry.getValue();
+            long sum = cell.drain();
+            if (0 == sum && counters.evict(key, cell)) {
+                sum = cell.drain();
+            }
+            if (0 != sum) {
+                batcher.add(encoder.encodeToScratch(key.getPrefix(), key.getBucket(), key.getTags(), sum, MetricEncoder.Type.COUNTER));
+            }
+        }
+    }
+
+    public int size() {
+        return counters.size();
+    }
+
+    private static final class Sum extends SeriesCells.Cell {
+        private final LongAdder adder = new LongAdder();
+        // the total already sent; only touched by the flushing thread
+        private long sent;
+
+        // a total which has wrapped still gives the right difference
+        long drain() {
+            long total = adder.sum();
+            long sum = total - sent;
+            sent = total;
+            return sum;
+        }
+    }
+}
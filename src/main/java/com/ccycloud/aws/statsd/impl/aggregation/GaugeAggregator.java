@@ -0,0 +1,130 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import com.ccycloud.aws.statsd.impl.MetricEncoder;
+import com.ccycloud.aws.statsd.impl.MetricSink;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps only the latest reading of each gauge series, and the sum of its deltas, so that each series is sent at most
+ * once per flush interval however often it is set.
+ *
+ * A reading replaces any deltas recorded before it; deltas recorded after it are sent as a statsd delta gauge
+ * ("+n" / "-n") following the reading.  Values are held as doubles, exact for whole numbers up to 2^53.  As with
+ * every gauge, the encoder sends a negative reading after a reading of 0, as statsd would otherwise apply it as a
+ * delta.
+ */
+public class GaugeAggregator {
+    // no reading since the last flush; NaN is never recorded, as statsd cannot represent it
+    private static final long NO_READING = Double.doubleToRawLongBits(Double.NaN);
+    private static final long ZERO = Double.doubleToRawLongBits(0.0);
+
+    private final SeriesCells<Slot> gauges = new SeriesCells<Slot>() {
+        @Override
+        protected Slot create() {
+            return new Slot();
+        }
+    };
+    private final MetricEncoder encoder;
+
+    public GaugeAggregator(MetricEncoder encoder) {
+        this.encoder = encoder;
+    }
+
+    public void set(String prefix, String bucket, Map<String, String> tags, double value) {
+        Slot slot = gauges.enter(new SeriesKey(prefix, bucket, tags));
+        try {
+            slot.set(value);
+        } finally {
+            slot.leave();
+        }
+    }
+
+    /**
+     * Set a series by a key from {@link #pin}; the stored key is the same instance, so the lookup never compares tags
+     */
+    public void set(SeriesKey key, double value) {
+        gauges.pinnedCell(key).set(value);
+    }
+
+    public void adjust(String prefix, String bucket, Map<String, String> tags, double delta) {
+        Slot slot = gauges.enter(new SeriesKey(prefix, bucket, tags));
+        try {
+            slot.adjust(delta);
+        } finally {
+            slot.leave();
+        }
+    }
+
+    public void adjust(SeriesKey key, double delta) {
+        gauges.pinnedCell(key).adjust(delta);
+    }
+
+    /**
+     * Register a series which will not be evicted when idle
+     *
+     * @return the key to set the series with
+     */
+    public SeriesKey pin(String prefix, String bucket, Map<String, String> tags) {
+        return gauges.pin(new SeriesKey(prefix, bucket, tags));
+    }
+
+    /**
+     * Emit the latest reading and the summed deltas of each series touched since the previous flush.
+     *
+     * Series which were not touched are evicted so the map only holds live series.  Eviction waits for any write in
+     * progress, and later writes go to a new slot, so the final read of an evicted series is complete.
+     */
+    public void flushTo(MetricSink batcher) {
+        for (Map.Entry<SeriesKey, Slot> entry : gauges.entrySet()) {
+            SeriesKey key = entry.getKey();
+            Slot slot = entry.getValue();
+            long reading = slot.reading.getAndSet(NO_READING);
+            double delta = slot.takeDelta();
+            if (NO_READING == reading && 0 == delta && gauges.evict(key, slot)) {
+                reading = slot.reading.getAndSet(NO_READING);
+                delta = slot.takeDelta();
+            }
+            if (NO_READING != reading) {
+                // the encoder sends a negative reading after a reading of 0, so statsd sets rather than adjusts it
+                batcher.add(encoder.encodeToScratch(key.getPrefix(), key.getBucket(), key.getTags(),
+                        Double.longBitsToDouble(reading), MetricEncoder.Type.GAUGE));
+            }
+            // summed deltas leave residue such as -0.1 - 0.2 + 0.3 = -5.55e-17, which would be sent as "+0"
+            if (!MetricEncoder.encodesAsZero(delta)) {
+                batcher.add(encoder.encodeToScratch(key.getPrefix(), key.getBucket(), key.getTags(),
+                        delta, MetricEncoder.Type.GAUGE_DELTA));
+            }
+        }
+    }
+
+    public int size() {
+        return gauges.size();
+    }
+
+    private static final class Slot extends SeriesCells.Cell {
+        // the latest reading's bits, so it is set and taken atomically without boxing
+        private final AtomicLong reading = new AtomicLong(NO_READING);
+        // the summed deltas' bits, taken with getAndSet; before Java 9 DoubleAdder.sumThenReset() can lose a delta
+        // racing with it, and deltas are far rarer than counter increments, so a single CAS is cheap enough
+        private final AtomicLong delta = new AtomicLong(ZERO);
+
+        void set(double value) {
+            // a delta racing with the reading may land either side of it
+            delta.set(ZERO);
+            reading.set(Double.doubleToRawLongBits(value));
+        }
+
+        void adjust(double change) {
+            long current;
+            do {
+                current = delta.get();
+            } while (!delta.compareAndSet(current, Double.doubleToRawLongBits(Double.longBitsToDouble(current) + change)));
+        }
+
+        double takeDelta() {
+            return Double.longBitsToDouble(delta.getAndSet(ZERO));
+        }
+    }
+}
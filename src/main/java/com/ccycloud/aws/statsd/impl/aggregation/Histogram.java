@@ -0,0 +1,156 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-memory, log-linear histogram of non-negative long values in the style of HdrHistogram.
+ *
+ * Values below 2^SUB_BUCKET_BITS are counted exactly; above that each power of two is split into
+ * 2^SUB_BUCKET_BITS linear sub-buckets, giving a relative error of at most 1 / 2^SUB_BUCKET_BITS (about 3%).
+ * Values above MAX_VALUE are counted in the top bucket.  Memory is one long per bucket regardless of how many values
+ * are recorded, and recording is allocation free and lock free.
+ */
+public class Histogram {
+    static final int SUB_BUCKET_BITS = 5;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int MAX_VALUE_BITS = 36;
+    public static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+    static final int BUCKET_COUNT = SUB_BUCKET_COUNT * (MAX_VALUE_BITS - SUB_BUCKET_BITS + 1);
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(indexOf(value));
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // retry
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Move all counts recorded so far into the snapshot and reset this histogram.
+     * A value recorded concurrently with the reset is reported in either this snapshot or the next, never both.
+     *
+     * @return the snapshot passed in, for chaining
+     */
+    public Snapshot drainTo(Snapshot snapshot) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = counts.getAndSet(i, 0);
+            snapshot.counts[i] = c;
+            total += c;
+        }
+        snapshot.count = total;
+        long lowest = min.getAndSet(Long.MAX_VALUE);
+        long highest = max.getAndSet(Long.MIN_VALUE);
+        if (total > 0) {
+            // the exact extremes may belong to a racing value counted in the next snapshot; fall back to the buckets
+            snapshot.min = Math.max(lowest == Long.MAX_VALUE ? 0 : lowest, snapshot.lowestBucketValue());
+            snapshot.max = Math.min(highest == Long.MIN_VALUE ? MAX_VALUE : highest, snapshot.highestBucketValue());
+        }
+        return snapshot;
+    }
+
+    static int indexOf(long value) {
+        if (value > MAX_VALUE) {
+            value = MAX_VALUE;
+        }
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    static long lowestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        return ((long) (index % SUB_BUCKET_COUNT) + SUB_BUCKET_COUNT) << shift;
+    }
+
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        return lowestValueAt(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * A point-in-time copy of a histogram's counts; reusable across flushes to avoid allocation.
+     */
+    public static class Snapshot {
+        private final long[] counts = new long[BUCKET_COUNT];
+        private long count;
+        private long min;
+        private long max;
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * @param percentile in the range 0 to 100
+         * @return the midpoint of the bucket holding the value at the percentile, clamped to the observed extremes
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            return getValueAtRank(rank);
+        }
+
+        /**
+         * @param rank 1-based position among the recorded values in ascending order
+         */
+        public long getValueAtRank(long rank) {
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long mid = lowestValueAt(i) + (highestValueAt(i) - lowestValueAt(i)) / 2;
+                    return Math.min(max, Math.max(min, mid));
+                }
+            }
+            return max;
+        }
+
+        long lowestBucketValue() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (counts[i] > 0) {
+                    return lowestValueAt(i);
+                }
+            }
+            return 0;
+        }
+
+        long highestBucketValue() {
+            for (int i = BUCKET_COUNT - 1; i >= 0; i--) {
+                if (counts[i] > 0) {
+                    return highestValueAt(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
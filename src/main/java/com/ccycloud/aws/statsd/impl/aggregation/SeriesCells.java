@@ -0,0 +1,137 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The accumulators of an aggregator's live series, which the flushing thread evicts once idle without losing a
+ * value recorded concurrently.
+ *
+ * Writers which may race with eviction {@link #enter} the series' cell before recording and {@link Cell#leave()}
+ * it after.  The flusher can only retire a cell no writer is in, and a retired cell admits no writer, so a final
+ * drain after {@link #evict} sees everything ever recorded into it.  Series held by a handle are pinned and never
+ * evicted, so handles record through {@link #pinnedCell} without entering.  Only the flusher removes cells; a
+ * writer finding a retired cell waits the moment it takes to go and records into its successor.
+ */
+abstract class SeriesCells<C extends SeriesCells.Cell> {
+    private final ConcurrentMap<SeriesKey, C> cells = new ConcurrentHashMap<SeriesKey, C>();
+    private final Set<SeriesKey> pinned = ConcurrentHashMap.newKeySet();
+
+    protected abstract C create();
+
+    /**
+     * @return the series' cell, entered; the caller must leave it once the value is recorded
+     */
+    C enter(SeriesKey key) {
+        while (true) {
+            C cell = lookup(key);
+            if (cell.enter()) {
+                return cell;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * @return the cell of a series from {@link #pin}, to record into without entering
+     */
+    C pinnedCell(SeriesKey key) {
+        while (true) {
+            C cell = lookup(key);
+            if (!cell.isRetired()) {
+                return cell;
+            }
+            // only while a flush, racing with the pin, backs out of evicting it
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Register a series which will not be evicted when idle
+     *
+     * @return the key to record the series with; the stored key is the same instance, so lookups never compare tags
+     */
+    SeriesKey pin(SeriesKey key) {
+        SeriesKey retained = key.retain();
+        pinned.add(retained);
+        pinnedCell(retained);
+        return retained;
+    }
+
+    /**
+     * Remove an idle series unless it is pinned or being written to; called only by the flushing thread
+     *
+     * @return true if removed, after which nothing more is recorded into the cell
+     */
+    boolean evict(SeriesKey key, C cell) {
+        if (pinned.contains(key) || !cell.retire()) {
+            return false;
+        }
+        if (pinned.contains(key)) {
+            // pinned while being retired; a handle may already hold it
+            cell.reinstate();
+            return false;
+        }
+        cells.remove(key, cell);
+        return true;
+    }
+
+    Set<Map.Entry<SeriesKey, C>> entrySet() {
+        return cells.entrySet();
+    }
+
+    int size() {
+        return cells.size();
+    }
+
+    private C lookup(SeriesKey key) {
+        C cell = cells.get(key);
+        if (null == cell) {
+            C created = create();
+            cell = cells.putIfAbsent(key.retain(), created);
+            if (null == cell) {
+                cell = created;
+            }
+        }
+        return cell;
+    }
+
+    /**
+     * One series' accumulator, counting the writers in it, or retired
+     */
+    abstract static class Cell {
+        private static final int RETIRED = -1;
+        private final AtomicInteger writers = new AtomicInteger(0);
+
+        boolean enter() {
+            while (true) {
+                int current = writers.get();
+                if (RETIRED == current) {
+                    return false;
+                }
+                if (writers.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        final void leave() {
+            writers.decrementAndGet();
+        }
+
+        boolean retire() {
+            return writers.compareAndSet(0, RETIRED);
+        }
+
+        void reinstate() {
+            writers.set(0);
+        }
+
+        boolean isRetired() {
+            return RETIRED == writers.get();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import com.ccycloud.aws.statsd.Tags;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Identifies a single aggregated series by its raw prefix, bucket and tags.
+ *
+ * Lookups wrap the caller's arguments without copying them; only keys which are stored in an aggregation map
+ * take a private copy of the tags via {@link #retain()}, so a caller mutating its tag map afterwards cannot corrupt
+ * the map.
+ */
+public final class SeriesKey {
+    private final String prefix;
+    private final String bucket;
+    private final Map<String, String> tags;
+    private final int hash;
+    private final boolean retained;
+
+    public SeriesKey(String prefix, String bucket, Map<String, String> tags) {
+        this(prefix, bucket, tags, false);
+    }
+
+    private SeriesKey(String prefix, String bucket, Map<String, String> tags, boolean retained) {
+        this.prefix = prefix;
+        this.bucket = bucket;
+        this.tags = null == tags || tags.isEmpty() ? Collections.<String, String>emptyMap() : tags;
+        this.hash = computeHash();
+        this.retained = retained || this.tags.isEmpty() || this.tags instanceof Tags;
+    }
+
+    /**
+     * @return a key safe to store, holding its own immutable copy of the tags; this key if it already does, or its
+     * tags are an immutable {@link Tags}
+     */
+    public SeriesKey retain() {
+        if (retained) {
+            return this;
+        }
+        return new SeriesKey(prefix, bucket, Collections.unmodifiableMap(new HashMap<String, String>(tags)), true);
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public Map<String, String> getTags() {
+        return tags;
+    }
+
+    private int computeHash() {
+        int h = null == prefix ? 0 : prefix.hashCode();
+        h = 31 * h + (null == bucket ? 0 : bucket.hashCode());
+        return 31 * h + tags.hashCode();
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SeriesKey)) {
+            return false;
+        }
+        SeriesKey other = (SeriesKey) o;
+        return hash == other.hash
+                && (null == prefix ? null == other.prefix : prefix.equals(other.prefix))
+                && (null == bucket ? null == other.bucket : bucket.equals(other.bucket))
+                && tags.equals(other.tags);
+    }
+}
@@ -0,0 +1,151 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import com.ccycloud.aws.statsd.impl.MetricSink;
+import com.ccycloud.aws.statsd.impl.MetricEncoder;
+import com.ccycloud.aws.statsd.impl.logging.SystemLogger;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the distinct values of each set series on the client, so that a value seen any number of times in a
+ * flush interval is sent as a single "|s" line.
+ *
+ * With HyperLogLog enabled, a series whose exact set grows past the configured size switches to a fixed-size
+ * sketch for the rest of the interval and is sent as a cardinality estimate instead, as a gauge on the
+ * "cardinality" sub-bucket of the set, e.g. "app.users.cardinality".  Without it, values beyond the configured size
+ * are dropped for the rest of the interval, counted and reported.  Either way memory per series is bounded.
+ */
+public class SetAggregator {
+    public static final String CARDINALITY = "cardinality";
+
+    private final ConcurrentMap<SeriesKey, UniqueValues> sets = new ConcurrentHashMap<SeriesKey, UniqueValues>();
+    private final MetricEncoder encoder;
+    private final int maxExactSize;
+    // 0 keeps every set exact
+    private final int sketchPrecision;
+    // distinct values a full exact set turned away, never reset so that none racing with a flush is lost
+    private final LongAdder dropped = new LongAdder();
+    // how many of those have been reported; only touched by the flushing thread
+    private long droppedReported;
+
+    /**
+     * @param maxExactSize    distinct values held per series before switching to a sketch, or dropping further values
+     * @param sketchPrecision HyperLogLog precision, or 0 to always count exactly
+     */
+    public SetAggregator(MetricEncoder encoder, int maxExactSize, int sketchPrecision) {
+        if (0 != sketchPrecision) {
+            // fail on bad configuration now rather than at the first large set
+            new HyperLogLog(sketchPrecision);
+        }
+        this.encoder = encoder;
+        this.maxExactSize = maxExactSize;
+        this.sketchPrecision = sketchPrecision;
+    }
+
+    public void add(String prefix, String bucket, Map<String, String> tags, long value) {
+        SeriesKey key = new SeriesKey(prefix, bucket, tags);
+        while (true) {
+            UniqueValues values = sets.get(key);
+            if (null == values) {
+                UniqueValues created = new UniqueValues();
+                values = sets.putIfAbsent(key.retain(), created);
+                if (null == values) {
+                    values = created;
+                }
+            }
+            // a set closed by a flush after the lookup may already have been sent; record into its successor too
+            if (values.add(value)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Emit every series' distinct values, or its estimated cardinality, and start a new interval.
+     */
+    public void flushTo(MetricSink batcher) {
+        long total = dropped.sum();
+        if (total > droppedReported) {
+            SystemLogger.error(String.format("Set series held more than %d distinct values; dropped %d values (%d in total)",
+                    maxExactSize, total - droppedReported, total));
+            droppedReported = total;
+        }
+        for (Map.Entry<SeriesKey, UniqueValues> entry : sets.entrySet()) {
+            SeriesKey key = entry.getKey();
+            UniqueValues values = entry.getValue();
+            sets.remove(key, values);
+            values.close();
+
+            HyperLogLog sketch = values.sketch;
+            if (null != sketch) {
+                // values added while the sketch was being populated may only be in the exact set
+                for (Long value : values.exact) {
+                    sketch.offer(value);
+                }
+                String measurement = null == key.getBucket() ? CARDINALITY : key.getBucket() + "." + CARDINALITY;
+                batcher.add(encoder.encodeToScratch(key.getPrefix(), measurement, key.getTags(), sketch.estimate(),
+                        MetricEncoder.Type.GAUGE));
+            } else {
+                byte[] nameAndTags = encoder.encodeNameAndTags(key.getPrefix(), key.getBucket(), key.getTags());
+                for (Long value : values.exact) {
+                    batcher.add(encoder.encodeToScratch(nameAndTags, value, MetricEncoder.Type.SET));
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return sets.size();
+    }
+
+    /**
+     * @return the number of distinct values dropped because a series' exact set was full and there is no sketch
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private final class UniqueValues {
+        final Set<Long> exact = ConcurrentHashMap.newKeySet();
+        volatile HyperLogLog sketch;
+        private volatile boolean closed;
+
+        /**
+         * @return false if this interval's set was closed by a flush, in which case the value may not be sent
+         */
+        boolean add(long value) {
+            HyperLogLog current = sketch;
+            if (null != current) {
+                current.offer(value);
+            } else if (0 == sketchPrecision) {
+                // the size is checked before adding, so racing adds can take a set a few values past the limit
+                if (exact.size() < maxExactSize || exact.contains(value)) {
+                    exact.add(value);
+                } else {
+                    dropped.increment();
+                }
+            } else if (exact.add(value) && exact.size() > maxExactSize) {
+                overflow();
+            }
+            return !closed;
+        }
+
+        void close() {
+            closed = true;
+        }
+
+        private synchronized void overflow() {
+            if (null == sketch) {
+                HyperLogLog created = new HyperLogLog(sketchPrecision);
+                for (Long value : exact) {
+                    created.offer(value);
+                }
+                sketch = created;
+            }
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import com.ccycloud.aws.statsd.impl.MetricSink;
+import com.ccycloud.aws.statsd.impl.MetricBuilder;
+import com.ccycloud.aws.statsd.impl.MetricEncoder;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records timings into a fixed-size {@link Histogram} per series instead of sending every duration, and at each
+ * flush emits either summary statistics or a bounded number of representative timings per series.
+ *
+ * In sampled mode up to sampleCount timings are sent per series, taken at evenly spaced ranks, with a sample rate
+ * of sampleCount / count so the server's timer count is still correct.
+ *
+ * Durations are given in milliseconds but histogrammed in whole microseconds, so sub-millisecond timings from
+ * System.nanoTime() keep their resolution, and converted back to fractional milliseconds when emitted.  Timings
+ * longer than Histogram.MAX_VALUE microseconds, about 19 hours, are counted as that.
+ */
+public class TimerAggregator {
+    private static final double MICROS_PER_MS = 1000.0;
+
+    private final SeriesCells<Timings> timers = new SeriesCells<Timings>() {
+        @Override
+        protected Timings create() {
+            return new Timings();
+        }
+    };
+    private final MetricEncoder encoder;
+    private final List<TimerSummary> summaries;
+    private final int sampleCount;
+
+    // only touched by the flushing thread
+    private final Histogram.Snapshot snapshot = new Histogram.Snapshot();
+
+    /**
+     * @param summaries   statistics to emit per series; ignored if sampleCount is positive
+     * @param sampleCount if positive, emit this many representative timings per series rather than summaries
+     */
+    public TimerAggregator(MetricEncoder encoder, List<TimerSummary> summaries, int sampleCount) {
+        this.encoder = encoder;
+        this.summaries = summaries;
+        this.sampleCount = sampleCount;
+    }
+
+    public void record(String prefix, String bucket, Map<String, String> tags, double durationInMs) {
+        Timings timings = timers.enter(new SeriesKey(prefix, bucket, tags));
+        try {
+            timings.histogram.record(toMicros(durationInMs));
+        } finally {
+            timings.leave();
+        }
+    }
+
+    /**
+     * Record into a series by a key from {@link #pin}; the stored key is the same instance, so the lookup
+     * never compares tags
+     */
+    public void record(SeriesKey key, double durationInMs) {
+        timers.pinnedCell(key).histogram.record(toMicros(durationInMs));
+    }
+
+    /**
+     * Register a series which will not be evicted when idle
+     *
+     * @return the key to record the series with
+     */
+    public SeriesKey pin(String prefix, String bucket, Map<String, String> tags) {
+        return timers.pin(new SeriesKey(prefix, bucket, tags));
+    }
+
+    /**
+     * Emit each series recorded into since the previous flush.  Idle series are evicted; eviction waits for any
+     * timing being recorded, and later timings go to a new histogram, so none is lost.
+     */
+    public void flushTo(MetricSink batcher) {
+        for (Map.Entry<SeriesKey, Timings> entry : timers.entrySet()) {
+            SeriesKey key = entry.getKey();
+            Timings timings = entry.getValue();
+            timings.histogram.drainTo(snapshot);
+            if (snapshot.getCount() == 0) {
+                if (!timers.evict(key, timings)) {
+                    continue;
+                }
+                timings.histogram.drainTo(snapshot);
+                if (snapshot.getCount() == 0) {
+                    continue;
+                }
+            }
+            if (sampleCount > 0) {
+                emitSamples(key, batcher);
+            } else {
+                emitSummaries(key, batcher);
+            }
+        }
+    }
+
+    private void emitSummaries(SeriesKey key, MetricSink batcher) {
+        for (TimerSummary summary : summaries) {
+            String measurement = null == key.getBucket() ? summary.getName() : key.getBucket() + "." + summary.getName();
+            long value = summary.valueOf(snapshot);
+            if (summary.isCount()) {
+                batcher.add(encoder.encodeToScratch(key.getPrefix(), measurement, key.getTags(), value, MetricEncoder.Type.COUNTER));
+            } else {
+                batcher.add(encoder.encodeToScratch(key.getPrefix(), measurement, key.getTags(), toMs(value), MetricEncoder.Type.GAUGE));
+            }
+        }
+    }
+
+    private void emitSamples(SeriesKey key, MetricSink batcher) {
+        long count = snapshot.getCount();
+        if (count <= sampleCount) {
+            for (long rank = 1; rank <= count; rank++) {
+                batcher.add(encoder.encodeToScratch(key.getPrefix(), key.getBucket(), key.getTags(),
+                        toMs(snapshot.getValueAtRank(rank)), MetricEncoder.Type.TIMER));
+            }
+        } else {
+            double rate = (double) sampleCount / count;
+            for (int i = 0; i < sampleCount; i++) {
+                long rank = 1 + (long) ((i + 0.5) * count / sampleCount);
+                batcher.add(encoder.encodeSampledToScratch(key.getPrefix(), key.getBucket(), key.getTags(),
+                        toMs(snapshot.getValueAtRank(Math.min(rank, count))), MetricEncoder.Type.TIMER,
+                        rate, MetricBuilder.SAMPLED_TIMED_EVENT_DECIMALS));
+            }
+        }
+    }
+
+    public int size() {
+        return timers.size();
+    }
+
+    private static long toMicros(double durationInMs) {
+        return Math.round(durationInMs * MICROS_PER_MS);
+    }
+
+    private static double toMs(long durationInMicros) {
+        return durationInMicros / MICROS_PER_MS;
+    }
+
+    private static final class Timings extends SeriesCells.Cell {
+        private final Histogram histogram = new Histogram();
+    }
+}
@@ -0,0 +1,78 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One statistic emitted per timer series at each flush when timers are aggregated on the client.
+ *
+ * Summaries are configured as a comma separated list such as "count,min,max,p50,p95,p99.9"; each is sent as a
+ * sub-bucket of the timer, e.g. "app.request_time.p99_9".  The count is sent as a counter, everything else as a gauge.
+ */
+public class TimerSummary {
+    public static final String DEFAULT_SUMMARIES = "count,min,max,p50,p95,p99";
+
+    enum Kind { COUNT, MIN, MAX, PERCENTILE }
+
+    private final Kind kind;
+    private final String name;
+    private final double percentile;
+
+    private TimerSummary(Kind kind, String name, double percentile) {
+        this.kind = kind;
+        this.name = name;
+        this.percentile = percentile;
+    }
+
+    public static List<TimerSummary> parse(String summaries) {
+        List<TimerSummary> result = new ArrayList<TimerSummary>();
+        for (String s : summaries.split(",")) {
+            String summary = s.trim().toLowerCase();
+            if (summary.length() == 0) {
+                continue;
+            }
+            if ("count".equals(summary)) {
+                result.add(new TimerSummary(Kind.COUNT, summary, 0));
+            } else if ("min".equals(summary)) {
+                result.add(new TimerSummary(Kind.MIN, summary, 0));
+            } else if ("max".equals(summary)) {
+                result.add(new TimerSummary(Kind.MAX, summary, 0));
+            } else if (summary.startsWith("p")) {
+                double percentile;
+                try {
+                    percentile = Double.parseDouble(summary.substring(1));
+                } catch (NumberFormatException nfe) {
+                    throw new IllegalArgumentException("Unrecognised timer summary: " + s);
+                }
+                if (percentile <= 0 || percentile > 100) {
+                    throw new IllegalArgumentException("Timer percentile out of range: " + s);
+                }
+                result.add(new TimerSummary(Kind.PERCENTILE, summary.replace('.', '_'), percentile));
+            } else {
+                throw new IllegalArgumentException("Unrecognised timer summary: " + s);
+            }
+        }
+        return result;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isCount() {
+        return kind == Kind.COUNT;
+    }
+
+    public long valueOf(Histogram.Snapshot snapshot) {
+        switch (kind) {
+            case COUNT:
+                return snapshot.getCount();
+            case MIN:
+                return snapshot.getMin();
+            case MAX:
+                return snapshot.getMax();
+            default:
+                return snapshot.getValueAtPercentile(percentile);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.ccycloud.aws.statsd.impl.config;
 
+import java.util.Map;
+
 /**
  * Created by jeremyb on 03/04/2014.
  */
@@ -8,6 +10,110 @@ public class Configuration {
     public static final String CONFIG_HOST = "statsd.host";
     public static final String CONFIG_PORT = "statsd.port";
 
+    // "host:port,host:port" to shard series across several servers by consistent hashing, in place of host and port
+    public static final String CONFIG_ENDPOINTS = "statsd.endpoints";
+
+    // maximum payload of a single datagram; 1432 suits a 1500 byte ethernet MTU, 8932 suits jumbo frames
+    public static final String CONFIG_PACKET_SIZE = "statsd.packet.size";
+
+    // when a partly filled datagram is sent: once it holds this many bytes or lines, or its first line has waited this
+    // long; with no delay, whatever the dispatcher takes off the queue is sent straight away
+    public static final String CONFIG_BATCH_MAX_BYTES = "statsd.batch.max.bytes";
+    public static final String CONFIG_BATCH_MAX_LINES = "statsd.batch.max.lines";
+    public static final String CONFIG_BATCH_MAX_DELAY_MS = "statsd.batch.max.delay.ms";
+
+    // how metrics are sent: "udp" over a DatagramSocket, "udp_channel" over a non-blocking NIO DatagramChannel, "tcp",
+    // or "unix" to the Unix domain socket at statsd.socket.path
+    public static final String CONFIG_TRANSPORT = "statsd.transport";
+    public static final String CONFIG_SOCKET_PATH = "statsd.socket.path";
+
+    // udp and udp_channel transports: how long a resolved server address is used before it is looked up again
+    public static final String CONFIG_DNS_TTL_MS = "statsd.dns.ttl.ms";
+
+    // tcp and unix transports: bytes buffered while waiting for the writer, and when the writer sends them
+    public static final String CONFIG_TCP_BUFFER_SIZE = "statsd.tcp.buffer.size";
+    public static final String CONFIG_TCP_FLUSH_SIZE = "statsd.tcp.flush.size";
+    public static final String CONFIG_TCP_FLUSH_INTERVAL_MS = "statsd.tcp.flush.interval.ms";
+    public static final String CONFIG_TCP_CONNECT_TIMEOUT_MS = "statsd.tcp.connect.timeout.ms";
+
+    // default sample rate per bucket for counters, gauges and timers sent individually, e.g. "db.query=0.1,*=0.5"
+    public static final String CONFIG_SAMPLE_RATES = "statsd.sample.rates";
+
+    // sum counter increments per series on the client and send one line per series each flush interval
+    public static final String CONFIG_AGGREGATE_COUNTERS = "statsd.aggregate.counters";
+    public static final String CONFIG_FLUSH_INTERVAL_MS = "statsd.flush.interval.ms";
+
+    // record timings into a histogram per series and send summaries (or representative samples) each flush interval
+    public static final String CONFIG_AGGREGATE_TIMERS = "statsd.aggregate.timers";
+    public static final String CONFIG_TIMER_SUMMARIES = "statsd.timer.summaries";
+    public static final String CONFIG_TIMER_SAMPLES = "statsd.timer.samples";
+
+    // keep only the latest reading (and summed deltas) per gauge series and send each series once per flush interval
+    public static final String CONFIG_AGGREGATE_GAUGES = "statsd.aggregate.gauges";
+
+    // distinct values kept per set series each flush interval; with hyperloglog on, larger sets are sent as an
+    // estimate, and without it further values are dropped
+    public static final String CONFIG_UNIQUE_MAX_EXACT = "statsd.unique.max.exact";
+    public static final String CONFIG_UNIQUE_HYPERLOGLOG = "statsd.unique.hyperloglog";
+    public static final String CONFIG_UNIQUE_HYPERLOGLOG_PRECISION = "statsd.unique.hyperloglog.precision";
+
+    // send the client's own counters (queue depth, drops, packets sent...) through statsd under a reserved prefix
+    public static final String CONFIG_SELF_METRICS = "statsd.self.metrics";
+    public static final String CONFIG_SELF_METRICS_PREFIX = "statsd.self.metrics.prefix";
+
+    // "ring" for the preallocated lock-free ring of fixed-size slots, "linked" for a linked queue bounded by count and bytes
+    public static final String CONFIG_QUEUE_TYPE = "statsd.queue.type";
+    public static final String CONFIG_RING_SLOTS = "statsd.ring.slots";
+    public static final String CONFIG_RING_SLOT_SIZE = "statsd.ring.slot.size";
+
+    // bound on metrics awaiting dispatch, by count and by total bytes, and what to do with metrics that do not fit
+    public static final String CONFIG_QUEUE_CAPACITY = "statsd.queue.capacity";
+    public static final String CONFIG_QUEUE_CAPACITY_BYTES = "statsd.queue.capacity.bytes";
+    public static final String CONFIG_QUEUE_OVERFLOW = "statsd.queue.overflow";
+    public static final String CONFIG_QUEUE_BLOCK_TIMEOUT_MS = "statsd.queue.block.timeout.ms";
+
+    // a memory-mapped file of bounded size taking metrics the queue has no room for, and how fast they are replayed
+    public static final String CONFIG_SPILL_PATH = "statsd.spill.path";
+    public static final String CONFIG_SPILL_SIZE_BYTES = "statsd.spill.size.bytes";
+    public static final String CONFIG_SPILL_REPLAY_RATE = "statsd.spill.replay.rate";
+
+    // how the dispatcher waits for work (park, yield or busy_spin), and the longest it parks without being signalled
+    public static final String CONFIG_DISPATCHER_WAIT_STRATEGY = "statsd.dispatcher.wait.strategy";
+    public static final String CONFIG_DISPATCHER_MAX_LATENCY_MS = "statsd.dispatcher.max.latency.ms";
+    // how long shutting down waits for the dispatchers to stop
+    public static final String CONFIG_DISPATCHER_STOP_TIMEOUT_MS = "statsd.dispatcher.stop.timeout.ms";
+
+    // what the dispatcher runs on (thread or virtual), and how many workers share the sending, each with its own queue
+    public static final String CONFIG_DISPATCHER_MODE = "statsd.dispatcher.mode";
+    public static final String CONFIG_DISPATCHER_WORKERS = "statsd.dispatcher.workers";
+
+    public static final int DEFAULT_PACKET_SIZE = 1432;
+    public static final int DEFAULT_BATCH_MAX_LINES = 0;
+    public static final long DEFAULT_BATCH_MAX_DELAY_MS = 0L;
+    public static final String DEFAULT_TRANSPORT = "udp";
+    public static final long DEFAULT_DNS_TTL_MS = 60000L;
+    public static final int DEFAULT_TCP_BUFFER_SIZE = 1024 * 1024;
+    public static final int DEFAULT_TCP_FLUSH_SIZE = 64 * 1024;
+    public static final long DEFAULT_TCP_FLUSH_INTERVAL_MS = 100L;
+    public static final int DEFAULT_TCP_CONNECT_TIMEOUT_MS = 1000;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000L;
+    public static final int DEFAULT_UNIQUE_MAX_EXACT = 10000;
+    public static final int DEFAULT_UNIQUE_HYPERLOGLOG_PRECISION = 12;
+    public static final String DEFAULT_QUEUE_TYPE = "ring";
+    public static final int DEFAULT_RING_SLOTS = 8192;
+    public static final int DEFAULT_RING_SLOT_SIZE = 1024;
+    public static final int DEFAULT_QUEUE_CAPACITY = 100000;
+    public static final long DEFAULT_QUEUE_CAPACITY_BYTES = 8L * 1024 * 1024;
+    public static final String DEFAULT_QUEUE_OVERFLOW = "drop_newest";
+    public static final long DEFAULT_QUEUE_BLOCK_TIMEOUT_MS = 10L;
+    public static final long DEFAULT_SPILL_SIZE_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_SPILL_REPLAY_RATE = 10000L;
+    public static final String DEFAULT_DISPATCHER_WAIT_STRATEGY = "park";
+    public static final long DEFAULT_DISPATCHER_MAX_LATENCY_MS = 100L;
+    public static final long DEFAULT_DISPATCHER_STOP_TIMEOUT_MS = 5000L;
+    public static final String DEFAULT_DISPATCHER_MODE = "thread";
+    public static final int DEFAULT_DISPATCHER_WORKERS = 1;
+
     private static String[] configKeys = {
         CONFIG_HOST,
         CONFIG_PORT
@@ -16,4 +122,49 @@ public class Configuration {
     public static String[] getMandatoryConfigKeys() {
         return configKeys;
     }
+
+    /**
+     * Read an optional integer value, falling back to the default if the key is absent or blank
+     *
+     * @throws NumberFormatException if a value is present but is not an integer
+     */
+    public static int getInt(Map<String, String> configuration, String key, int defaultValue) {
+        String value = getValue(configuration, key);
+        return null == value ? defaultValue : Integer.parseInt(value);
+    }
+
+    /**
+     * Read an optional long value, falling back to the default if the key is absent or blank
+     *
+     * @throws NumberFormatException if a value is present but is not an integer
+     */
+    public static long getLong(Map<String, String> configuration, String key, long defaultValue) {
+        String value = getValue(configuration, key);
+        return null == value ? defaultValue : Long.parseLong(value);
+    }
+
+    /**
+     * Read an optional boolean value, falling back to the default if the key is absent or blank
+     */
+    public static boolean getBoolean(Map<String, String> configuration, String key, boolean defaultValue) {
+        String value = getValue(configuration, key);
+        return null == value ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Read an optional string value, falling back to the default if the key is absent or blank
+     */
+    public static String getString(Map<String, String> configuration, String key, String defaultValue) {
+        String value = getValue(configuration, key);
+        return null == value ? defaultValue : value;
+    }
+
+    // trimmed value for the key, or null if it is absent or blank
+    private static String getValue(Map<String, String> configuration, String key) {
+        String value = null == configuration ? null : configuration.get(key);
+        if (null == value || value.trim().length() == 0) {
+            return null;
+        }
+        return value.trim();
+    }
 }
@@ -0,0 +1,215 @@
+package com.ccycloud.aws.statsd.impl.queue;
+
+import com.ccycloud.aws.statsd.impl.MetricSink;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of encoded metric lines bounded both by number of entries and by total bytes, so the memory held by
+ * metrics awaiting dispatch is capped.  Metrics which cannot be queued are handled by the {@link OverflowPolicy}
+ * and counted.
+ *
+ * Safe for any number of producers and consumers.
+ */
+public class BoundedEventQueue implements EventBuffer {
+    static final int INITIAL_SCRATCH_SIZE = 512;
+    static final int MAX_LINE_SIZE = 65507;
+
+    // lines are encoded here first, then copied into an exactly sized entry
+    private static final ThreadLocal<ByteBuffer[]> SCRATCH = new ThreadLocal<ByteBuffer[]>() {
+        @Override
+        protected ByteBuffer[] initialValue() {
+            return new ByteBuffer[]{ByteBuffer.allocate(INITIAL_SCRATCH_SIZE)};
+        }
+    };
+
+    private final Queue<byte[]> events = new ConcurrentLinkedQueue<byte[]>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final int capacity;
+    private final long capacityBytes;
+    private final OverflowPolicy policy;
+    private final long blockTimeoutNanos;
+
+    // producers waiting for space under the BLOCK policy; the consumer only takes the lock if there are any
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * @param capacity      maximum number of queued metrics
+     * @param capacityBytes maximum total size of queued metrics
+     * @param policy        what to do with metrics which do not fit
+     * @param blockTimeout  how long BLOCK waits for space before dropping
+     */
+    public BoundedEventQueue(int capacity, long capacityBytes, OverflowPolicy policy, long blockTimeout, TimeUnit unit) {
+        if (capacity < 1 || capacityBytes < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.capacityBytes = capacityBytes;
+        this.policy = policy;
+        this.blockTimeoutNanos = unit.toNanos(blockTimeout);
+    }
+
+    @Override
+    public boolean offer(LineWriter line) {
+        ByteBuffer[] scratch = SCRATCH.get();
+        while (true) {
+            ByteBuffer buffer = scratch[0];
+            buffer.clear();
+            try {
+                line.writeTo(buffer);
+                break;
+            } catch (BufferOverflowException boe) {
+                if (buffer.capacity() >= MAX_LINE_SIZE) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                scratch[0] = ByteBuffer.allocate(Math.min(MAX_LINE_SIZE, buffer.capacity() * 2));
+            }
+        }
+        ByteBuffer encoded = scratch[0];
+        encoded.flip();
+        byte[] event = new byte[encoded.remaining()];
+        encoded.get(event);
+        return offer(event);
+    }
+
+    /**
+     * @return true if the event was queued, false if it was dropped
+     */
+    public boolean offer(byte[] event) {
+        if (event.length > capacityBytes) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        if (tryReserve(event.length)) {
+            events.add(event);
+            return true;
+        }
+        switch (policy) {
+            case DROP_OLDEST:
+                return offerDroppingOldest(event);
+            case BLOCK:
+                return offerBlocking(event);
+            default:
+                dropped.incrementAndGet();
+                return false;
+        }
+    }
+
+    /**
+     * @return the oldest queued event, or null if there is none
+     */
+    public byte[] poll() {
+        byte[] event = events.poll();
+        if (null != event) {
+            release(event.length);
+        }
+        return event;
+    }
+
+    @Override
+    public int drainTo(MetricSink batcher) {
+        int drained = 0;
+        byte[] event;
+        while (null != (event = poll())) {
+            batcher.add(event);
+            drained++;
+        }
+        return drained;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    public long sizeInBytes() {
+        return bytes.get();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private boolean offerDroppingOldest(byte[] event) {
+        while (!tryReserve(event.length)) {
+            if (null == poll()) {
+                // everything queued is already on its way out; treat as full
+                dropped.incrementAndGet();
+                return false;
+            }
+            dropped.incrementAndGet();
+        }
+        events.add(event);
+        return true;
+    }
+
+    private boolean offerBlocking(byte[] event) {
+        long remaining = blockTimeoutNanos;
+        waiting.incrementAndGet();
+        lock.lock();
+        try {
+            while (!tryReserve(event.length)) {
+                if (remaining <= 0) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                remaining = notFull.awaitNanos(remaining);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            dropped.incrementAndGet();
+            return false;
+        } finally {
+            lock.unlock();
+            waiting.decrementAndGet();
+        }
+        events.add(event);
+        return true;
+    }
+
+    private boolean tryReserve(int length) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        if (bytes.addAndGet(length) > capacityBytes) {
+            bytes.addAndGet(-length);
+            size.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    private void release(int length) {
+        bytes.addAndGet(-length);
+        size.decrementAndGet();
+        if (waiting.get() > 0) {
+            lock.lock();
+            try {
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
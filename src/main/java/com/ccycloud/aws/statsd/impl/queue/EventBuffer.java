@@ -0,0 +1,31 @@
+package com.ccycloud.aws.statsd.impl.queue;
+
+import com.ccycloud.aws.statsd.impl.MetricSink;
+
+/**
+ * Hands encoded metric lines from recording threads to the dispatcher.  Any number of producers; one consumer.
+ */
+public interface EventBuffer {
+    /**
+     * Encode a line into the buffer
+     *
+     * @return true if the line was queued, false if it was dropped
+     */
+    boolean offer(LineWriter line);
+
+    /**
+     * Move every line currently available into the batcher, oldest first
+     *
+     * @return the number of lines moved
+     */
+    int drainTo(MetricSink batcher);
+
+    boolean isEmpty();
+
+    int size();
+
+    /**
+     * @return the number of lines discarded because the buffer was full or a line could not be encoded
+     */
+    long getDroppedCount();
+}
@@ -0,0 +1,14 @@
+package com.ccycloud.aws.statsd.impl.queue;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes one encoded metric line into whatever space an {@link EventBuffer} hands it, so buffers which own their
+ * storage can have the line encoded straight into place.
+ */
+public interface LineWriter {
+    /**
+     * @throws java.nio.BufferOverflowException if the line does not fit in dst
+     */
+    void writeTo(ByteBuffer dst);
+}
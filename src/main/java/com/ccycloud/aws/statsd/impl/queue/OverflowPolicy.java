@@ -0,0 +1,21 @@
+package com.ccycloud.aws.statsd.impl.queue;
+
+/**
+ * What to do with a metric recorded while the event queue is full
+ */
+public enum OverflowPolicy {
+    /** discard the metric being recorded */
+    DROP_NEWEST,
+    /** discard the oldest queued metrics to make room */
+    DROP_OLDEST,
+    /** wait up to the configured timeout for the dispatcher to make room, then discard the metric being recorded */
+    BLOCK;
+
+    public static OverflowPolicy fromConfiguration(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException iae) {
+            throw new IllegalArgumentException("Unknown queue overflow policy: " + value);
+        }
+    }
+}
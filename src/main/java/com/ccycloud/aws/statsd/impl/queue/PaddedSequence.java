@@ -0,0 +1,46 @@
+package com.ccycloud.aws.statsd.impl.queue;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+/**
+ * A volatile long alone on its cache line, so that producers claiming sequences and the consumer releasing them
+ * do not false-share with each other or with neighbouring fields.  Padding is split across a class hierarchy, as
+ * in the LMAX Disruptor, because the JVM does not reorder fields across superclass boundaries.
+ */
+class PaddedSequence extends PaddedSequenceValue {
+    protected long p9, p10, p11, p12, p13, p14, p15;
+
+    private static final AtomicLongFieldUpdater<PaddedSequenceValue> UPDATER =
+            AtomicLongFieldUpdater.newUpdater(PaddedSequenceValue.class, "value");
+
+    PaddedSequence(long initialValue) {
+        UPDATER.lazySet(this, initialValue);
+    }
+
+    long get() {
+        return value;
+    }
+
+    void set(long newValue) {
+        value = newValue;
+    }
+
+    /**
+     * Ordered store: visible to other threads after all preceding writes, without a full fence
+     */
+    void lazySet(long newValue) {
+        UPDATER.lazySet(this, newValue);
+    }
+
+    boolean compareAndSet(long expected, long newValue) {
+        return UPDATER.compareAndSet(this, expected, newValue);
+    }
+}
+
+class PaddedSequenceLeftPadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class PaddedSequenceValue extends PaddedSequenceLeftPadding {
+    protected volatile long value;
+}
@@ -0,0 +1,181 @@
+package com.ccycloud.aws.statsd.impl.queue;
+
+import com.ccycloud.aws.statsd.impl.MetricSink;
+import com.ccycloud.aws.statsd.impl.logging.SystemLogger;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Preallocated multi-producer, single-consumer ring of fixed-size byte slots, in the style of the LMAX Disruptor.
+ *
+ * A producer claims the next sequence with a CAS on a padded cursor, encodes its line straight into that sequence's
+ * slot and publishes it by an ordered write to the slot's availability flag.  The dispatcher drains published slots
+ * in order, in batches, releasing them with a single ordered write of its own padded sequence per batch.  No objects
+ * are allocated per line and no lock is taken.
+ *
+ * A line which does not fit in a slot, or whose encoding throws, is dropped and counted.  Dropping the oldest line is not possible without
+ * the producers contending with the consumer, so the DROP_OLDEST policy behaves as DROP_NEWEST.
+ */
+public class RingBuffer implements EventBuffer {
+    static final int SKIPPED = -1;
+    // release drained slots to producers at least this often during a long drain
+    static final int RELEASE_BATCH = 256;
+
+    private final int slotCount;
+    private final int mask;
+    private final int indexShift;
+    private final int slotSize;
+
+    private final byte[] storage;
+    private final ByteBuffer[] slots;
+    private final int[] lengths;
+    // for each slot, the lap of the ring (sequence / slotCount) in which it was last published
+    private final AtomicIntegerArray published;
+
+    private final PaddedSequence claimed = new PaddedSequence(-1);
+    private final PaddedSequence consumed = new PaddedSequence(-1);
+
+    private final LongAdder dropped = new LongAdder();
+    private final OverflowPolicy policy;
+    private final long blockTimeoutNanos;
+
+    /**
+     * @param slots    number of slots, rounded up to a power of two
+     * @param slotSize bytes per slot; the longest line which can be queued
+     */
+    public RingBuffer(int slots, int slotSize, OverflowPolicy policy, long blockTimeout, TimeUnit unit) {
+        if (slots < 1 || slotSize < 1) {
+            throw new IllegalArgumentException("Ring buffer slot count and size must be positive");
+        }
+        this.slotCount = slots == 1 ? 1 : Integer.highestOneBit(slots - 1) << 1;
+        this.mask = slotCount - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(slotCount);
+        this.slotSize = slotSize;
+        this.storage = new byte[slotCount * slotSize];
+        this.slots = new ByteBuffer[slotCount];
+        this.lengths = new int[slotCount];
+        this.published = new AtomicIntegerArray(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            ByteBuffer slot = ByteBuffer.wrap(storage, i * slotSize, slotSize);
+            this.slots[i] = slot.slice();
+            this.published.set(i, -1);
+        }
+        if (policy == OverflowPolicy.DROP_OLDEST) {
+            SystemLogger.info("The ring buffer cannot drop its oldest entries; dropping the newest when full");
+            policy = OverflowPolicy.DROP_NEWEST;
+        }
+        this.policy = policy;
+        this.blockTimeoutNanos = unit.toNanos(blockTimeout);
+    }
+
+    @Override
+    public boolean offer(LineWriter line) {
+        long sequence = policy == OverflowPolicy.BLOCK ? claimBlocking() : tryClaim();
+        if (sequence < 0) {
+            dropped.increment();
+            return false;
+        }
+        int index = (int) (sequence & mask);
+        ByteBuffer slot = slots[index];
+        slot.clear();
+        // the sequence is already claimed, so the slot must be published whatever happens for the consumer to move
+        // past it; an encoding failure other than overflow still reaches the caller
+        int length = SKIPPED;
+        try {
+            line.writeTo(slot);
+            length = slot.position();
+        } catch (BufferOverflowException boe) {
+            // too long for a slot
+        } finally {
+            if (length == SKIPPED) {
+                dropped.increment();
+            }
+            lengths[index] = length;
+            published.lazySet(index, (int) (sequence >>> indexShift));
+        }
+        return length != SKIPPED;
+    }
+
+    @Override
+    public int drainTo(MetricSink batcher) {
+        long next = consumed.get() + 1;
+        long last = claimed.get();
+        int drained = 0;
+        while (next <= last) {
+            int index = (int) (next & mask);
+            if (published.get(index) != (int) (next >>> indexShift)) {
+                // claimed but still being written; lines must go out in order, so stop here
+                break;
+            }
+            int length = lengths[index];
+            if (length != SKIPPED) {
+                batcher.add(storage, index * slotSize, length);
+            }
+            next++;
+            if (++drained % RELEASE_BATCH == 0) {
+                consumed.lazySet(next - 1);
+            }
+        }
+        if (drained > 0) {
+            consumed.lazySet(next - 1);
+        }
+        return drained;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return consumed.get() == claimed.get();
+    }
+
+    @Override
+    public int size() {
+        return (int) (claimed.get() - consumed.get());
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    public int getSlotSize() {
+        return slotSize;
+    }
+
+    // the next sequence, or -1 if the ring is full
+    private long tryClaim() {
+        while (true) {
+            long current = claimed.get();
+            long next = current + 1;
+            if (next - slotCount > consumed.get()) {
+                return -1;
+            }
+            if (claimed.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    private long claimBlocking() {
+        long sequence = tryClaim();
+        if (sequence >= 0) {
+            return sequence;
+        }
+        long deadline = System.nanoTime() + blockTimeoutNanos;
+        while (true) {
+            LockSupport.parkNanos(1000L);
+            sequence = tryClaim();
+            if (sequence >= 0 || System.nanoTime() - deadline >= 0) {
+                return sequence;
+            }
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.ccycloud.aws.statsd.impl.queue;
+
+import com.ccycloud.aws.statsd.impl.MetricSink;
+import com.ccycloud.aws.statsd.impl.logging.SystemLogger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size ring of encoded metric lines in a memory-mapped file, holding metrics the in-memory queue has no
+ * room for until they can be replayed.
+ *
+ * Lines are stored oldest first as a two byte length followed by the line, wrapping around the end of the data
+ * region.  The header keeps the read and write positions, updated in place after every line, so a process which
+ * stops with lines spilled leaves them for the next one to replay; opening the file only maps it, however full it
+ * is.  Writes go to the page cache and are only forced to disk on {@link #close()}, so spilled lines survive the
+ * process dying but not the machine losing power.
+ *
+ * The file is created sparse and never grows past its header and capacity.  A line which does not fit in the space
+ * left is dropped and counted.  All methods are synchronized: the file is only touched when the queue is full or
+ * the connection is down, never on the normal path.
+ */
+public class SpillFile implements MetricSink, Closeable {
+    static final int MAGIC = 0x5354534c; // "STSL"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 64;
+    static final int MAX_LINE_LENGTH = 0xFFFF;
+    static final int LENGTH_SIZE = 2;
+
+    // header layout
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int HEAD_OFFSET = 16;
+    private static final int TAIL_OFFSET = 24;
+    private static final int COUNT_OFFSET = 32;
+
+    private final File path;
+    private final long capacity;
+    private final RandomAccessFile file;
+    // held for as long as the file is open, so no other client or process spills into it at the same time
+    private final FileLock lock;
+    private MappedByteBuffer map;
+    // the region after the header, positioned for each bulk copy in or out
+    private ByteBuffer data;
+
+    // byte positions of the oldest line and of the end of the newest, counted from the first line ever written
+    private long head;
+    private long tail;
+    private long count;
+
+    private final ByteBuffer scratch = ByteBuffer.allocate(MAX_LINE_LENGTH);
+    private final byte[] scratchLength = new byte[LENGTH_SIZE];
+    private final LongAdder dropped = new LongAdder();
+
+    /**
+     * Open the spill file at path, creating it if need be, and pick up any lines a previous process left in it
+     *
+     * @param capacity bytes of lines the file holds, each line taking two more than its length
+     * @throws IOException if the file cannot be created or mapped, or is in use by another client
+     */
+    public SpillFile(File path, long capacity) throws IOException {
+        if (capacity < LENGTH_SIZE + 1 || capacity > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Spill file capacity must be between 3 bytes and 2GB: " + capacity);
+        }
+        this.path = path;
+        this.capacity = capacity;
+        this.file = new RandomAccessFile(path, "rw");
+        try {
+            this.lock = file.getChannel().tryLock();
+        } catch (OverlappingFileLockException ofle) {
+            file.close();
+            throw new IOException(String.format("Spill file %s is already open in this process", path));
+        }
+        if (null == lock) {
+            file.close();
+            throw new IOException(String.format("Spill file %s is in use by another process", path));
+        }
+        try {
+            boolean existing = file.length() > 0;
+            if (file.length() != HEADER_SIZE + capacity) {
+                file.setLength(HEADER_SIZE + capacity);
+            }
+            this.map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+            map.position(HEADER_SIZE);
+            this.data = map.slice();
+            if (!recover()) {
+                if (existing) {
+                    SystemLogger.info(String.format("Spill file %s does not match the configured size; starting it afresh", path));
+                }
+                reset();
+            } else if (count > 0) {
+                SystemLogger.info(String.format("Spill file %s holds %d metrics to replay", path, count));
+            }
+        } catch (IOException ioe) {
+            close();
+            throw ioe;
+        }
+    }
+
+    // take up the positions a previous process left, if the header is intact and for a file of this size
+    private boolean recover() {
+        if (map.getInt(MAGIC_OFFSET) != MAGIC || map.getInt(VERSION_OFFSET) != VERSION
+                || map.getLong(CAPACITY_OFFSET) != capacity) {
+            return false;
+        }
+        head = map.getLong(HEAD_OFFSET);
+        tail = map.getLong(TAIL_OFFSET);
+        count = map.getLong(COUNT_OFFSET);
+        long used = tail - head;
+        return head >= 0 && used >= 0 && used <= capacity && count >= 0 && count <= used / (LENGTH_SIZE + 1);
+    }
+
+    private void reset() {
+        head = 0;
+        tail = 0;
+        count = 0;
+        map.putInt(MAGIC_OFFSET, MAGIC);
+        map.putInt(VERSION_OFFSET, VERSION);
+        map.putLong(CAPACITY_OFFSET, capacity);
+        writePositions();
+    }
+
+    private void writePositions() {
+        map.putLong(HEAD_OFFSET, head);
+        map.putLong(TAIL_OFFSET, tail);
+        map.putLong(COUNT_OFFSET, count);
+    }
+
+    /**
+     * Encode a line and append it
+     *
+     * @return false if the line was dropped because it did not fit or the file is closed
+     */
+    public synchronized boolean append(LineWriter line) {
+        scratch.clear();
+        try {
+            line.writeTo(scratch);
+        } catch (BufferOverflowException boe) {
+            dropped.increment();
+            return false;
+        }
+        scratch.flip();
+        return append(scratch.array(), 0, scratch.limit());
+    }
+
+    /**
+     * @return false if the line was dropped because it did not fit or the file is closed
+     */
+    public synchronized boolean append(byte[] line, int offset, int length) {
+        if (null == map || length > MAX_LINE_LENGTH || (tail - head) + LENGTH_SIZE + length > capacity) {
+            dropped.increment();
+            return false;
+        }
+        scratchLength[0] = (byte) (length >>> 8);
+        scratchLength[1] = (byte) length;
+        write(scratchLength, 0, LENGTH_SIZE);
+        write(line, offset, length);
+        count++;
+        writePositions();
+        return true;
+    }
+
+    // copy in at the tail, in two parts if the line wraps past the end
+    private void write(byte[] src, int offset, int length) {
+        int at = (int) (tail % capacity);
+        int first = (int) Math.min(length, capacity - at);
+        data.position(at);
+        data.put(src, offset, first);
+        if (first < length) {
+            data.position(0);
+            data.put(src, offset + first, length - first);
+        }
+        tail += length;
+    }
+
+    private void read(byte[] dst, int length) {
+        int at = (int) (head % capacity);
+        int first = (int) Math.min(length, capacity - at);
+        data.position(at);
+        data.get(dst, 0, first);
+        if (first < length) {
+            data.position(0);
+            data.get(dst, first, length - first);
+        }
+        head += length;
+    }
+
+    /**
+     * Move up to maxLines of the oldest lines into the sink; each is removed from the file once the sink has it
+     *
+     * @return the number of lines moved
+     */
+    public synchronized int replayTo(MetricSink sink, int maxLines) {
+        int replayed = 0;
+        byte[] line = scratch.array();
+        while (null != map && count > 0 && replayed < maxLines) {
+            read(scratchLength, LENGTH_SIZE);
+            int length = ((scratchLength[0] & 0xFF) << 8) | (scratchLength[1] & 0xFF);
+            read(line, length);
+            count--;
+            writePositions();
+            sink.add(line, 0, length);
+            replayed++;
+        }
+        return replayed;
+    }
+
+    @Override
+    public void add(byte[] metric, int offset, int length) {
+        append(metric, offset, length);
+    }
+
+    @Override
+    public void add(byte[] metric) {
+        append(metric, 0, metric.length);
+    }
+
+    @Override
+    public synchronized void add(ByteBuffer metric) {
+        int length = metric.remaining();
+        if (length > MAX_LINE_LENGTH) {
+            dropped.increment();
+            return;
+        }
+        metric.duplicate().get(scratch.array(), 0, length);
+        append(scratch.array(), 0, length);
+    }
+
+    // lines are in the file as soon as they are added
+    @Override
+    public void flush() {
+    }
+
+    public synchronized boolean isEmpty() {
+        return 0 == count;
+    }
+
+    /**
+     * @return the number of lines waiting to be replayed
+     */
+    public synchronized long size() {
+        return count;
+    }
+
+    /**
+     * @return the number of lines which did not fit
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    public File getPath() {
+        return path;
+    }
+
+    /**
+     * Force the lines to disk and release the file; anything appended afterwards is dropped.  The mapping itself is
+     * only released once it is garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        if (null != map) {
+            map.force();
+            map = null;
+            data = null;
+        }
+        try {
+            if (null != lock && lock.isValid()) {
+                lock.release();
+            }
+            file.close();
+        } catch (IOException ioe) {
+            SystemLogger.error(String.format("Unable to close spill file %s : %s", path, ioe.getMessage()));
+        }
+    }
+}
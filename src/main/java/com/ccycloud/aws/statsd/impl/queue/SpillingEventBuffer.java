@@ -0,0 +1,124 @@
+package com.ccycloud.aws.statsd.impl.queue;
+
+import com.ccycloud.aws.statsd.impl.MetricSink;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-memory event buffer which overflows to a {@link SpillFile} rather than dropping, and feeds the spilled lines
+ * back to the dispatcher, no faster than a set rate, once the in-memory buffer has been drained.
+ *
+ * Several buffers may share one spill file; only those given a replay rate take lines back out of it.  The buffer
+ * counts as empty while replay is held back by the rate, so the dispatcher parks between replayed batches instead
+ * of spinning.
+ */
+public class SpillingEventBuffer implements EventBuffer {
+    private final EventBuffer memory;
+    private final SpillFile spill;
+    private final double linesPerNano;
+    // at most one second's worth of lines are replayed in a burst, starting with a full second's worth
+    private final double maxAllowance;
+    private double allowance;
+    private long lastRefill = System.nanoTime();
+    // lines the memory buffer dropped which the spill file took
+    private final LongAdder spilled = new LongAdder();
+
+    /**
+     * @param replayRate lines per second moved back out of the spill file; 0 for a buffer which only spills
+     */
+    public SpillingEventBuffer(EventBuffer memory, SpillFile spill, long replayRate) {
+        if (replayRate < 0) {
+            throw new IllegalArgumentException("Spill replay rate must not be negative: " + replayRate);
+        }
+        this.memory = memory;
+        this.spill = spill;
+        this.linesPerNano = replayRate / (double) TimeUnit.SECONDS.toNanos(1);
+        this.maxAllowance = replayRate;
+        this.allowance = maxAllowance;
+    }
+
+    @Override
+    public boolean offer(LineWriter line) {
+        if (memory.offer(line)) {
+            return true;
+        }
+        if (spill.append(line)) {
+            spilled.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Drain the in-memory buffer, then replay spilled lines if the memory buffer was already empty
+     */
+    @Override
+    public int drainTo(MetricSink batcher) {
+        int drained = memory.drainTo(batcher);
+        if (drained > 0 || 0 == maxAllowance) {
+            return drained;
+        }
+        int replayable = replayable();
+        if (replayable == 0) {
+            return 0;
+        }
+        int replayed = spill.replayTo(batcher, replayable);
+        allowance -= replayed;
+        return replayed;
+    }
+
+    /**
+     * Move everything in the in-memory buffer to the spill file, e.g. when shutting down with the connection down
+     *
+     * @return the number of lines moved
+     */
+    public int spillAll() {
+        int moved = 0;
+        int batch;
+        while ((batch = memory.drainTo(spill)) > 0) {
+            moved += batch;
+        }
+        return moved;
+    }
+
+    // lines the rate allows now; only the dispatcher calls this
+    private int replayable() {
+        long now = System.nanoTime();
+        allowance = Math.min(maxAllowance, allowance + (now - lastRefill) * linesPerNano);
+        lastRefill = now;
+        return (int) allowance;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        if (!memory.isEmpty()) {
+            return false;
+        }
+        if (0 == maxAllowance || spill.isEmpty()) {
+            return true;
+        }
+        return replayable() == 0;
+    }
+
+    /**
+     * @return the lines waiting in memory and, for a buffer which replays, those waiting in the spill file
+     */
+    @Override
+    public int size() {
+        long size = memory.size();
+        if (maxAllowance > 0) {
+            size += spill.size();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    @Override
+    public long getDroppedCount() {
+        return memory.getDroppedCount() - spilled.sum();
+    }
+
+    public SpillFile getSpillFile() {
+        return spill;
+    }
+}
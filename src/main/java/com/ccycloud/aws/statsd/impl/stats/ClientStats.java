@@ -0,0 +1,143 @@
+package com.ccycloud.aws.statsd.impl.stats;
+
+import com.ccycloud.aws.statsd.impl.queue.EventBuffer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * The client's own counters.  Updated on recording threads and the dispatcher alike, so every count is a striped
+ * LongAdder: an update never contends on a shared cache line, and the cost is only paid when the counts are read.
+ */
+public class ClientStats implements ClientStatsMBean {
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder encoded = new LongAdder();
+    private final LongAdder packets = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    // payload available in the packets sent, for the fill ratio
+    private final LongAdder capacity = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LongAdder drains = new LongAdder();
+    private final LongAdder drainNanos = new LongAdder();
+    private final LongAccumulator maxDrainNanos = new LongAccumulator(new LongBinaryOperator() {
+        @Override
+        public long applyAsLong(long left, long right) {
+            return Math.max(left, right);
+        }
+    }, 0L);
+
+    private volatile EventBuffer[] queues = new EventBuffer[0];
+
+    /**
+     * Report queue depth and drops as the totals over these buffers
+     */
+    public void watch(EventBuffer... queues) {
+        this.queues = queues.clone();
+    }
+
+    public void enqueued() {
+        enqueued.increment();
+    }
+
+    public void encoded() {
+        encoded.increment();
+    }
+
+    /**
+     * @param length    payload bytes in the packet
+     * @param maxLength the most the packet could have held
+     */
+    public void sent(int length, int maxLength, boolean succeeded) {
+        if (succeeded) {
+            packets.increment();
+            bytes.add(length);
+            capacity.add(Math.max(length, maxLength));
+        } else {
+            sendErrors.increment();
+        }
+    }
+
+    public void drained(long elapsedNanos) {
+        drains.increment();
+        drainNanos.add(elapsedNanos);
+        maxDrainNanos.accumulate(elapsedNanos);
+    }
+
+    @Override
+    public long getMetricsEnqueued() {
+        return enqueued.sum();
+    }
+
+    @Override
+    public long getMetricsDropped() {
+        long dropped = 0;
+        for (EventBuffer watched : queues) {
+            dropped += watched.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    @Override
+    public long getMetricsEncoded() {
+        return encoded.sum();
+    }
+
+    @Override
+    public long getPacketsSent() {
+        return packets.sum();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytes.sum();
+    }
+
+    @Override
+    public long getSendErrors() {
+        return sendErrors.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        int depth = 0;
+        for (EventBuffer watched : queues) {
+            depth += watched.size();
+        }
+        return depth;
+    }
+
+    @Override
+    public long getDrainCount() {
+        return drains.sum();
+    }
+
+    @Override
+    public double getMeanDrainLatencyMicros() {
+        long count = drains.sum();
+        return 0 == count ? 0 : toMicros(drainNanos.sum()) / count;
+    }
+
+    @Override
+    public double getMaxDrainLatencyMicros() {
+        return toMicros(maxDrainNanos.get());
+    }
+
+    /**
+     * @return the payload the packets sent could have held, in bytes
+     */
+    public long getBytesAvailable() {
+        return capacity.sum();
+    }
+
+    @Override
+    public double getBatchFillRatio() {
+        long available = capacity.sum();
+        return 0 == available ? 0 : (double) bytes.sum() / available;
+    }
+
+    private static double toMicros(long nanos) {
+        return nanos / (double) TimeUnit.MICROSECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,38 @@
+package com.ccycloud.aws.statsd.impl.stats;
+
+/**
+ * JMX view of a client's own activity, registered by the top-level client as
+ * "com.ccycloud.aws.statsd:type=StatsdClient"
+ */
+public interface ClientStatsMBean {
+    /** metrics accepted onto the event queue */
+    long getMetricsEnqueued();
+
+    /** metrics discarded because the event queue was full or a metric did not fit in its slot */
+    long getMetricsDropped();
+
+    /** metric lines handed to the batcher, from the queue or from aggregated series */
+    long getMetricsEncoded();
+
+    long getPacketsSent();
+
+    long getBytesSent();
+
+    /** packets the transport failed to send */
+    long getSendErrors();
+
+    /** metrics currently waiting on the event queue */
+    int getQueueDepth();
+
+    /** times the dispatcher found metrics waiting and drained them */
+    long getDrainCount();
+
+    /** mean time to drain the queue and send the resulting packets, in microseconds */
+    double getMeanDrainLatencyMicros();
+
+    /** longest drain since the client started, in microseconds */
+    double getMaxDrainLatencyMicros();
+
+    /** bytes sent as a fraction of the payload available in the packets sent; 1.0 means every packet was full */
+    double getBatchFillRatio();
+}
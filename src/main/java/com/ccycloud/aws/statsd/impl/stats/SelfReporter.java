@@ -0,0 +1,80 @@
+package com.ccycloud.aws.statsd.impl.stats;
+
+import com.ccycloud.aws.statsd.impl.MetricEncoder;
+import com.ccycloud.aws.statsd.impl.MetricSink;
+
+/**
+ * Sends the client's own counters through the client each flush interval, under a prefix reserved for them:
+ * counts as counters of the change since the last report, and queue depth, drain latency and batch fill as gauges.
+ *
+ * Only called from the dispatcher thread.
+ */
+public class SelfReporter {
+    public static final String DEFAULT_PREFIX = "statsd_client";
+
+    private final ClientStats stats;
+    private final MetricEncoder encoder;
+    private final String prefix;
+
+    private long enqueued;
+    private long dropped;
+    private long encoded;
+    private long packets;
+    private long bytes;
+    private long available;
+    private long sendErrors;
+    private long drains;
+    private double drainMicros;
+
+    public SelfReporter(ClientStats stats, MetricEncoder encoder, String prefix) {
+        this.stats = stats;
+        this.encoder = encoder;
+        this.prefix = prefix;
+    }
+
+    public void reportTo(MetricSink sink) {
+        long nowEnqueued = stats.getMetricsEnqueued();
+        long nowDropped = stats.getMetricsDropped();
+        long nowEncoded = stats.getMetricsEncoded();
+        long nowPackets = stats.getPacketsSent();
+        long nowBytes = stats.getBytesSent();
+        long nowAvailable = stats.getBytesAvailable();
+        long nowSendErrors = stats.getSendErrors();
+        long nowDrains = stats.getDrainCount();
+        double nowDrainMicros = stats.getMeanDrainLatencyMicros() * nowDrains;
+
+        counter(sink, "enqueued", nowEnqueued - enqueued);
+        counter(sink, "dropped", nowDropped - dropped);
+        counter(sink, "encoded", nowEncoded - encoded);
+        counter(sink, "packets_sent", nowPackets - packets);
+        counter(sink, "bytes_sent", nowBytes - bytes);
+        counter(sink, "send_errors", nowSendErrors - sendErrors);
+        gauge(sink, "queue_depth", stats.getQueueDepth());
+        if (nowDrains > drains) {
+            gauge(sink, "drain_latency_us", Math.round((nowDrainMicros - drainMicros) / (nowDrains - drains)));
+        }
+        if (nowAvailable > available) {
+            gauge(sink, "batch_fill_percent", Math.round(100.0 * (nowBytes - bytes) / (nowAvailable - available)));
+        }
+
+        enqueued = nowEnqueued;
+        dropped = nowDropped;
+        encoded = nowEncoded;
+        packets = nowPackets;
+        bytes = nowBytes;
+        available = nowAvailable;
+        sendErrors = nowSendErrors;
+        drains = nowDrains;
+        drainMicros = nowDrainMicros;
+    }
+
+    private void counter(MetricSink sink, String name, long delta) {
+        if (0 != delta) {
+            sink.add(encoder.encodeToScratch(prefix, name, null, delta, MetricEncoder.Type.COUNTER));
+        }
+    }
+
+    private void gauge(MetricSink sink, String name, long value) {
+        sink.add(encoder.encodeToScratch(prefix, name, null, value, MetricEncoder.Type.GAUGE));
+    }
+}
@@ -0,0 +1,50 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delays between reconnection attempts: exponential, with jitter.  Each delay is drawn at random from the upper half
+ * of a ceiling which starts at the minimum and doubles after every failure up to the maximum, so clients which lost
+ * the same server at the same moment spread their retries out rather than all arriving together.
+ *
+ * Not thread safe; owned by whichever thread is doing the reconnecting.
+ */
+public class Backoff {
+    static final long DEFAULT_MIN_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final long DEFAULT_MAX_DELAY_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final long minDelayNanos;
+    private final long maxDelayNanos;
+    private long ceilingNanos;
+
+    public Backoff() {
+        this(DEFAULT_MIN_DELAY_NANOS, DEFAULT_MAX_DELAY_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    public Backoff(long minDelay, long maxDelay, TimeUnit unit) {
+        if (minDelay < 1 || maxDelay < minDelay) {
+            throw new IllegalArgumentException("Backoff delays must be positive, and the maximum no less than the minimum");
+        }
+        this.minDelayNanos = unit.toNanos(minDelay);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.ceilingNanos = minDelayNanos;
+    }
+
+    /**
+     * @return how long to wait before the next attempt, having just failed
+     */
+    public long nextDelayNanos() {
+        long half = ceilingNanos / 2;
+        long delay = half + ThreadLocalRandom.current().nextLong(ceilingNanos - half + 1);
+        ceilingNanos = Math.min(maxDelayNanos, ceilingNanos * 2);
+        return delay;
+    }
+
+    /**
+     * Start again from the minimum delay, after a successful attempt
+     */
+    public void reset() {
+        ceilingNanos = minDelayNanos;
+    }
+}
@@ -0,0 +1,104 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Maps keys to nodes by consistent hashing.  Each node is placed at many pseudo-random points around a 64 bit ring,
+ * derived from its name alone, and a key belongs to the first node point at or after the key's own hash.
+ *
+ * Because a node's points depend only on its name, adding or removing a node only moves the keys on the arcs it
+ * gains or loses, about 1/n of them, and the remaining keys stay where they were.
+ */
+public class ConsistentHashRing {
+    public static final int DEFAULT_POINTS_PER_NODE = 160;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long[] points;
+    private final int[] owners;
+
+    /**
+     * @param nodes names which identify each node stably, such as "host:port"; a node's index is its shard number
+     */
+    public ConsistentHashRing(List<String> nodes, int pointsPerNode) {
+        if (nodes.isEmpty() || pointsPerNode < 1) {
+            throw new IllegalArgumentException("A hash ring needs at least one node and one point per node");
+        }
+        int count = nodes.size() * pointsPerNode;
+        final long[] unsortedPoints = new long[count];
+        Integer[] order = new Integer[count];
+        for (int node = 0; node < nodes.size(); node++) {
+            for (int replica = 0; replica < pointsPerNode; replica++) {
+                int i = node * pointsPerNode + replica;
+                byte[] name = (nodes.get(node) + "#" + replica).getBytes(StandardCharsets.UTF_8);
+                unsortedPoints[i] = hash(name, 0, name.length);
+                order[i] = i;
+            }
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(unsortedPoints[a], unsortedPoints[b]);
+            }
+        });
+        this.points = new long[count];
+        this.owners = new int[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = unsortedPoints[order[i]];
+            owners[i] = order[i] / pointsPerNode;
+        }
+    }
+
+    /**
+     * @return the index of the node owning the key held in the given bytes
+     */
+    public int nodeFor(byte[] key, int offset, int length) {
+        return ownerOf(hash(key, offset, length));
+    }
+
+    /**
+     * As {@link #nodeFor(byte[], int, int)} for length bytes of the buffer from an absolute index; the buffer's
+     * position is not used or changed
+     */
+    public int nodeFor(ByteBuffer key, int index, int length) {
+        if (key.hasArray()) {
+            return nodeFor(key.array(), key.arrayOffset() + index, length);
+        }
+        long h = FNV_OFFSET;
+        for (int i = index; i < index + length; i++) {
+            h = (h ^ (key.get(i) & 0xff)) * FNV_PRIME;
+        }
+        return ownerOf(mix(h));
+    }
+
+    private int ownerOf(long hash) {
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index == points.length ? 0 : index];
+    }
+
+    // FNV-1a over the bytes, finished with the murmur3 mixer so nearby keys land far apart on the ring
+    static long hash(byte[] key, int offset, int length) {
+        long h = FNV_OFFSET;
+        for (int i = offset; i < offset + length; i++) {
+            h = (h ^ (key[i] & 0xff)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,191 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import com.ccycloud.aws.statsd.impl.config.Configuration;
+import com.ccycloud.aws.statsd.impl.logging.SystemLogger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends datagrams over a connected, non-blocking {@link DatagramChannel}.
+ *
+ * Unlike {@link UdpConnection} no DatagramPacket is built and no destination address is looked up per send: the
+ * channel is connected once and written to directly.  Direct buffers handed to {@link #send(ByteBuffer)} go to
+ * the kernel without being copied; anything else is copied once into a reused direct buffer.
+ *
+ * A send which finds the socket's buffer full drops the datagram rather than waiting, as UDP would anyway.  As with
+ * UdpConnection the host is resolved in the background, and the channel connected once it has been, retrying with
+ * backoff if it cannot be.
+ */
+public class DatagramChannelConnection implements UdpConnectionInterface {
+    // largest UDP payload over IPv4
+    static final int MAX_DATAGRAM_SIZE = 65507;
+
+    private final ResolvedAddress remote;
+    private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+
+    private volatile DatagramChannel channel = null;
+    private volatile boolean open = false;
+    // the address the current channel is connected to
+    private InetSocketAddress connectedTo = null;
+    private final ReconnectSupervisor reconnector = new ReconnectSupervisor(new ReconnectSupervisor.Attempt() {
+        @Override
+        public boolean connect() {
+            InetSocketAddress endpoint = getRemoteEndpoint();
+            return null == endpoint || openChannel(endpoint);
+        }
+    });
+
+    public DatagramChannelConnection(String host, int port) {
+        this(host, port, Configuration.DEFAULT_DNS_TTL_MS);
+    }
+
+    /**
+     * @param dnsTtlMs how long a resolved address is used before the host is looked up again; must be positive
+     */
+    public DatagramChannelConnection(String host, int port, long dnsTtlMs) {
+        remote = new ResolvedAddress(host, port, dnsTtlMs);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return open;
+    }
+
+    @Override
+    public boolean isReady() {
+        DatagramChannel current = channel;
+        return open && current != null && current.isOpen() && current.isConnected();
+    }
+
+    @Override
+    public boolean send(String message) {
+        byte[] buffer = message.getBytes(StandardCharsets.ISO_8859_1);
+        return send(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public synchronized boolean send(byte[] message, int offset, int length) {
+        if (!isReady()) {
+            return false;
+        }
+        if (length > MAX_DATAGRAM_SIZE) {
+            SystemLogger.error(String.format("Unable to send packet : %d bytes exceeds the maximum datagram size", length));
+            return false;
+        }
+        sendBuffer.clear();
+        sendBuffer.put(message, offset, length);
+        sendBuffer.flip();
+        return write(sendBuffer);
+    }
+
+    @Override
+    public boolean send(ByteBuffer message) {
+        if (message.isDirect()) {
+            return isReady() && write(message);
+        }
+        if (message.hasArray()) {
+            int length = message.remaining();
+            boolean sent = send(message.array(), message.arrayOffset() + message.position(), length);
+            message.position(message.position() + length);
+            return sent;
+        }
+        byte[] copy = new byte[message.remaining()];
+        message.get(copy);
+        return send(copy, 0, copy.length);
+    }
+
+    private boolean write(ByteBuffer datagram) {
+        DatagramChannel current = channel;
+        if (null == current) {
+            return false;
+        }
+        try {
+            if (current.write(datagram) == 0) {
+                SystemLogger.error("Unable to send packet : socket send buffer full");
+                return false;
+            }
+            return true;
+        } catch (IOException ioe) {
+            SystemLogger.error(String.format("Unable to send packet : %s", ioe.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Open the connection, connecting the channel straight away if the host's address is already known and otherwise
+     * once it has been resolved in the background
+     */
+    @Override
+    public void connect() throws SocketException {
+        disconnect(); // ensure we recycle any resources held by a prior connection
+        open = true;
+        InetSocketAddress endpoint = getRemoteEndpoint();
+        if (null != endpoint && !openChannel(endpoint)) {
+            reconnector.retry();
+        }
+        remote.start(new ResolvedAddress.Listener() {
+            @Override
+            public void resolved(InetSocketAddress address) {
+                // until the new address connects, the previous channel, if any, is kept
+                if (!openChannel(address)) {
+                    reconnector.retry();
+                }
+            }
+        });
+    }
+
+    // connect a new channel to the address, then retire the old one
+    private synchronized boolean openChannel(InetSocketAddress endpoint) {
+        if (!open || endpoint.equals(connectedTo)) {
+            return true;
+        }
+        DatagramChannel opened = null;
+        try {
+            opened = DatagramChannel.open();
+            opened.configureBlocking(false);
+            opened.connect(endpoint);
+        } catch (IOException ioe) {
+            SystemLogger.error(String.format("Unable to create channel : %s", ioe.getMessage()));
+            close(opened);
+            return false;
+        }
+        DatagramChannel previous = channel;
+        channel = opened;
+        connectedTo = endpoint;
+        close(previous);
+        return true;
+    }
+
+    /**
+     * @return the host's last resolved address, or null if it has not been resolved yet
+     */
+    public InetSocketAddress getRemoteEndpoint() {
+        return remote.get();
+    }
+
+    @Override
+    public synchronized void disconnect() {
+        open = false;
+        remote.stop();
+        reconnector.stop();
+        DatagramChannel current = channel;
+        channel = null;
+        connectedTo = null;
+        close(current);
+    }
+
+    private static void close(DatagramChannel retired) {
+        if (null != retired) {
+            try {
+                retired.close();
+            } catch (IOException ioe) {
+                SystemLogger.error(String.format("Unable to close channel : %s", ioe.getMessage()));
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retries a failed connection on a background thread, with {@link Backoff} between attempts, until one succeeds or
+ * the supervisor is stopped.  The caller which saw the failure returns at once; metrics keep queueing meanwhile.
+ */
+public class ReconnectSupervisor {
+    private static final ScheduledExecutorService RECONNECTOR = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "statsd-reconnect");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * One connection attempt, run on the reconnect thread
+     */
+    public interface Attempt {
+        /**
+         * @return whether the connection is now established
+         */
+        boolean connect();
+    }
+
+    private final Attempt attempt;
+    private final Backoff backoff;
+    private boolean active = false;
+    private ScheduledFuture<?> next;
+
+    public ReconnectSupervisor(Attempt attempt) {
+        this(attempt, new Backoff());
+    }
+
+    public ReconnectSupervisor(Attempt attempt, Backoff backoff) {
+        this.attempt = attempt;
+        this.backoff = backoff;
+    }
+
+    /**
+     * Schedule another attempt after the next backoff delay, unless one is already scheduled
+     */
+    public synchronized void retry() {
+        active = true;
+        if (null == next) {
+            next = RECONNECTOR.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    attempt();
+                }
+            }, backoff.nextDelayNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Cancel any scheduled attempt; the next failure starts again from the shortest delay
+     */
+    public synchronized void stop() {
+        active = false;
+        backoff.reset();
+        if (null != next) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+
+    public synchronized boolean isRetrying() {
+        return active;
+    }
+
+    private void attempt() {
+        synchronized (this) {
+            next = null;
+            if (!active) {
+                return;
+            }
+        }
+        boolean connected = attempt.connect();
+        synchronized (this) {
+            if (connected) {
+                active = false;
+                backoff.reset();
+            } else if (active) {
+                retry();
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import com.ccycloud.aws.statsd.impl.logging.SystemLogger;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A host and port whose address is looked up off the caller's thread and looked up again every TTL, so that a
+ * long-running client picks up DNS changes and a slow resolver never blocks startup or sending.
+ *
+ * {@link #get()} only ever returns the last address resolved.  IP literals need no lookup and are resolved at once.
+ */
+public class ResolvedAddress {
+    // how soon a failed lookup is tried again, however long the TTL
+    static final long RETRY_DELAY_MS = 1000L;
+
+    private static final ScheduledExecutorService RESOLVER = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "statsd-resolver");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Told of each newly resolved address which differs from the last, on the resolver thread
+     */
+    public interface Listener {
+        void resolved(InetSocketAddress address);
+    }
+
+    private final String host;
+    private final int port;
+    private final long ttlMs;
+
+    private volatile InetSocketAddress address;
+    private Listener listener;
+    private ScheduledFuture<?> next;
+
+    /**
+     * @param ttlMs how long an address is used before the host is looked up again; must be positive
+     */
+    public ResolvedAddress(String host, int port, long ttlMs) {
+        if (ttlMs <= 0) {
+            // a TTL of 0 would look the host up again as soon as each lookup finished
+            throw new IllegalArgumentException("DNS TTL must be positive: " + ttlMs);
+        }
+        this.host = host;
+        this.port = port;
+        this.ttlMs = ttlMs;
+        if (isLiteral(host)) {
+            try {
+                address = new InetSocketAddress(InetAddress.getByName(host), port);
+            } catch (UnknownHostException uhe) {
+                // not a well formed literal after all; leave it to the resolver thread to report
+            }
+        }
+    }
+
+    /**
+     * @return the last address resolved, or null if the host has not been resolved yet; never blocks
+     */
+    public InetSocketAddress get() {
+        return address;
+    }
+
+    /**
+     * Resolve now, in the background, and then every TTL, telling the listener whenever the address changes
+     */
+    public synchronized void start(Listener listener) {
+        stop();
+        this.listener = listener;
+        next = RESOLVER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                resolve();
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        listener = null;
+        if (null != next) {
+            next.cancel(false);
+            next = null;
+        }
+    }
+
+    /**
+     * Look the host up on the calling thread, which may block for as long as the resolver takes
+     *
+     * @return whether the host could be resolved
+     */
+    boolean resolve() {
+        InetSocketAddress resolved = null;
+        try {
+            resolved = new InetSocketAddress(InetAddress.getByName(host), port);
+        } catch (UnknownHostException uhe) {
+            SystemLogger.error(String.format("Unable to resolve %s : %s", host, uhe.getMessage()));
+        }
+        Listener current;
+        synchronized (this) {
+            current = listener;
+            if (null != current) {
+                next = RESOLVER.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        resolve();
+                    }
+                }, null == resolved ? Math.min(RETRY_DELAY_MS, ttlMs) : ttlMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (null == resolved) {
+            return false;
+        }
+        InetSocketAddress previous = address;
+        address = resolved;
+        if (null != current && !resolved.equals(previous)) {
+            current.resolved(resolved);
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+
+    // dotted IPv4 or any IPv6 form, neither of which InetAddress looks up
+    static boolean isLiteral(String host) {
+        if (null == host || host.isEmpty()) {
+            return false;
+        }
+        if (host.indexOf(':') >= 0) {
+            return true;
+        }
+        for (int i = 0; i < host.length(); i++) {
+            char c = host.charAt(i);
+            if (c != '.' && (c < '0' || c > '9')) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
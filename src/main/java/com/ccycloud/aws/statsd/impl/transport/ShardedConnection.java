@@ -0,0 +1,156 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import com.ccycloud.aws.statsd.impl.logging.SystemLogger;
+
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One connection per statsd server, with each series assigned to a server by consistent hashing of its name and
+ * tags, so that every line for a series reaches the same server and its aggregation stays correct.
+ *
+ * The client gives each shard its own batch buffer (see {@link com.ccycloud.aws.statsd.impl.ShardedBatcher}); sends
+ * made on this connection directly are routed by the series of their first line.
+ */
+public class ShardedConnection implements UdpConnectionInterface {
+    private final List<String> endpoints;
+    private final List<UdpConnectionInterface> shards;
+    private final ConsistentHashRing ring;
+
+    /**
+     * @param endpoints stable names of the servers, such as "host:port", in the same order as the shards
+     */
+    public ShardedConnection(List<String> endpoints, List<UdpConnectionInterface> shards) {
+        if (endpoints.size() != shards.size()) {
+            throw new IllegalArgumentException("Each shard needs exactly one endpoint name");
+        }
+        this.endpoints = Collections.unmodifiableList(new ArrayList<String>(endpoints));
+        this.shards = Collections.unmodifiableList(new ArrayList<UdpConnectionInterface>(shards));
+        this.ring = new ConsistentHashRing(endpoints, ConsistentHashRing.DEFAULT_POINTS_PER_NODE);
+    }
+
+    /**
+     * @return the number of leading bytes of an encoded line which identify its series: everything before the value
+     */
+    public static int seriesLength(byte[] line, int offset, int length) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            if (line[i] == ':') {
+                return i - offset;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * As {@link #seriesLength(byte[], int, int)} for the bytes between the buffer's position and limit
+     */
+    public static int seriesLength(ByteBuffer line) {
+        for (int i = line.limit() - 1; i >= line.position(); i--) {
+            if (line.get(i) == ':') {
+                return i - line.position();
+            }
+        }
+        return line.remaining();
+    }
+
+    public int shardFor(byte[] line, int offset, int length) {
+        return ring.nodeFor(line, offset, seriesLength(line, offset, firstLineLength(line, offset, length)));
+    }
+
+    public int shardFor(ByteBuffer line) {
+        return ring.nodeFor(line, line.position(), seriesLength(line));
+    }
+
+    public List<UdpConnectionInterface> getShards() {
+        return shards;
+    }
+
+    public List<String> getEndpoints() {
+        return endpoints;
+    }
+
+    @Override
+    public boolean isConnected() {
+        for (UdpConnectionInterface shard : shards) {
+            if (shard.isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // a shard which is not ready yet drops what is routed to it, like a shard which is down
+    @Override
+    public boolean isReady() {
+        for (UdpConnectionInterface shard : shards) {
+            if (shard.isReady()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean send(String message) {
+        byte[] buffer = message.getBytes(StandardCharsets.ISO_8859_1);
+        return send(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public boolean send(byte[] message, int offset, int length) {
+        return shards.get(shardFor(message, offset, length)).send(message, offset, length);
+    }
+
+    @Override
+    public boolean send(ByteBuffer message) {
+        int start = message.position();
+        int end = start;
+        while (end < message.limit() && message.get(end) != '\n') {
+            end++;
+        }
+        ByteBuffer first = message.duplicate();
+        first.limit(end);
+        return shards.get(shardFor(first)).send(message);
+    }
+
+    /**
+     * Connect every shard; a server which cannot be reached leaves its shard disconnected and the rest working
+     *
+     * @throws SocketException if no shard could be connected
+     */
+    @Override
+    public void connect() throws SocketException {
+        SocketException last = null;
+        for (int i = 0; i < shards.size(); i++) {
+            try {
+                shards.get(i).connect();
+            } catch (SocketException se) {
+                SystemLogger.error(String.format("Unable to connect to statsd shard %s : %s", endpoints.get(i), se.getMessage()));
+                last = se;
+            }
+        }
+        if (!isConnected() && null != last) {
+            throw last;
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        for (UdpConnectionInterface shard : shards) {
+            shard.disconnect();
+        }
+    }
+
+    private static int firstLineLength(byte[] message, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (message[i] == '\n') {
+                return i - offset;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,277 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import com.ccycloud.aws.statsd.impl.logging.SystemLogger;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Streams metrics to a statsd server or relay over a stream socket; subclasses say how to open it.  Each packet the
+ * batcher assembles is followed by a newline or, for agents which read a stream as a series of datagrams, preceded
+ * by its length as a four byte little-endian integer.
+ *
+ * Sends only append to an in-memory buffer; a dedicated writer thread owns the socket, writing the buffer out once
+ * it holds flushSize bytes or flushInterval has passed, whichever comes first.  Two buffers are swapped so senders
+ * keep appending while the writer is blocked on the socket.  If the connection drops the writer reconnects in the
+ * background with a jittered, growing delay, while sends keep buffering; once the buffer is full further sends are
+ * dropped and counted, so no caller ever waits on the network.
+ *
+ * The connection reports itself connected from {@link #connect()} until {@link #disconnect()}, whatever the state of
+ * the socket underneath, so that metrics recorded during a reconnect are buffered rather than discarded.
+ */
+public abstract class StreamConnection implements UdpConnectionInterface {
+    static final byte SEPARATOR = '\n';
+    static final int LENGTH_SIZE = 4;
+
+    private final int flushSize;
+    // each packet framed by its length rather than followed by a newline
+    private final boolean lengthPrefixed;
+    private final long flushIntervalNanos;
+    protected final int connectTimeoutMs;
+
+    // senders append to filling; the writer swaps it for draining under the lock, then writes draining unlocked
+    private final Object lock = new Object();
+    private ByteBuffer filling;
+    private ByteBuffer draining;
+    private volatile int pending = 0;
+
+    private final LongAdder dropped = new LongAdder();
+    private volatile boolean open = false;
+    private volatile Thread writer;
+
+    // owned by the writer thread; only closed from elsewhere to unblock a writer stuck on a server not reading
+    private volatile SocketChannel channel;
+    private final Backoff backoff = new Backoff();
+
+    /**
+     * @param bufferSize bytes held per buffer while waiting to be written; sends which do not fit are dropped
+     * @param flushSize  bytes buffered before the writer is woken early
+     */
+    protected StreamConnection(int bufferSize, int flushSize, long flushInterval, TimeUnit unit, int connectTimeoutMs) {
+        this(bufferSize, flushSize, flushInterval, unit, connectTimeoutMs, false);
+    }
+
+    /**
+     * @param lengthPrefixed precede each packet with its length instead of following it with a newline
+     */
+    protected StreamConnection(int bufferSize, int flushSize, long flushInterval, TimeUnit unit, int connectTimeoutMs,
+                               boolean lengthPrefixed) {
+        if (bufferSize < 1 || flushSize < 1 || flushSize > bufferSize) {
+            throw new IllegalArgumentException("Stream flush size must be positive and no larger than the buffer size");
+        }
+        this.flushSize = flushSize;
+        this.lengthPrefixed = lengthPrefixed;
+        this.flushIntervalNanos = unit.toNanos(flushInterval);
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.filling = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        this.draining = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return open;
+    }
+
+    // while the writer is reconnecting, metrics are better left in the client's queue, which can spill them to disk
+    @Override
+    public boolean isReady() {
+        return open && null != channel;
+    }
+
+    @Override
+    public boolean send(String message) {
+        byte[] buffer = message.getBytes(StandardCharsets.ISO_8859_1);
+        return send(buffer, 0, buffer.length);
+    }
+
+    @Override
+    public boolean send(byte[] message, int offset, int length) {
+        if (!open) {
+            return false;
+        }
+        int buffered;
+        synchronized (lock) {
+            if (filling.remaining() < length + framing()) {
+                dropped.increment();
+                return false;
+            }
+            if (lengthPrefixed) {
+                filling.putInt(length).put(message, offset, length);
+            } else {
+                filling.put(message, offset, length).put(SEPARATOR);
+            }
+            buffered = pending = filling.position();
+        }
+        wakeWriterIfFull(buffered);
+        return true;
+    }
+
+    @Override
+    public boolean send(ByteBuffer message) {
+        if (!open) {
+            return false;
+        }
+        int buffered;
+        synchronized (lock) {
+            if (filling.remaining() < message.remaining() + framing()) {
+                dropped.increment();
+                return false;
+            }
+            if (lengthPrefixed) {
+                filling.putInt(message.remaining()).put(message);
+            } else {
+                filling.put(message).put(SEPARATOR);
+            }
+            buffered = pending = filling.position();
+        }
+        wakeWriterIfFull(buffered);
+        return true;
+    }
+
+    // bytes each packet takes on the stream besides its own
+    private int framing() {
+        return lengthPrefixed ? LENGTH_SIZE : 1;
+    }
+
+    private void wakeWriterIfFull(int buffered) {
+        if (buffered >= flushSize) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Start the writer thread, which connects in the background; returns without waiting for the socket
+     */
+    @Override
+    public synchronized void connect() throws SocketException {
+        disconnect(); // ensure we recycle any resources held by a prior connection
+        open = true;
+        Thread thread = new Thread(new Writer(), "statsd-stream-writer");
+        thread.setDaemon(true);
+        writer = thread;
+        thread.start();
+    }
+
+    /**
+     * Write out anything still buffered, if the server is reachable, then close the socket
+     */
+    @Override
+    public synchronized void disconnect() {
+        Thread thread = writer;
+        if (null == thread) {
+            return;
+        }
+        open = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(connectTimeoutMs + TimeUnit.NANOSECONDS.toMillis(flushIntervalNanos) + 1000L);
+            if (thread.isAlive()) {
+                SystemLogger.error(String.format("Timed out writing to %s; abandoning buffered metrics", describeEndpoint()));
+                SocketChannel stuck = channel;
+                if (null != stuck) {
+                    stuck.close();
+                }
+                thread.join();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ioe) {
+            SystemLogger.error(String.format("Unable to close channel : %s", ioe.getMessage()));
+        }
+        writer = null;
+    }
+
+    /**
+     * @return the number of sends discarded because the buffer was full or the connection closed mid-write
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * Open a blocking channel connected to the server, taking no longer than connectTimeoutMs where possible
+     */
+    protected abstract SocketChannel openChannel() throws IOException;
+
+    /**
+     * @return the server's address, for log messages
+     */
+    protected abstract String describeEndpoint();
+
+    private class Writer implements Runnable {
+        @Override
+        public void run() {
+            long nextFlush = System.nanoTime() + flushIntervalNanos;
+            while (open) {
+                if (null == channel && !reconnect()) {
+                    LockSupport.parkNanos(this, backoff.nextDelayNanos());
+                    continue;
+                }
+                long wait = nextFlush - System.nanoTime();
+                if (pending < flushSize && wait > 0) {
+                    LockSupport.parkNanos(this, wait);
+                }
+                if (pending >= flushSize || nextFlush - System.nanoTime() <= 0 || !open) {
+                    writePending();
+                    nextFlush = System.nanoTime() + flushIntervalNanos;
+                }
+            }
+            // one last attempt to deliver whatever is still buffered
+            if (null != channel || reconnect()) {
+                writePending();
+            }
+            closeChannel();
+        }
+
+        private boolean reconnect() {
+            try {
+                channel = openChannel();
+                backoff.reset();
+                return true;
+            } catch (IOException ioe) {
+                SystemLogger.error(String.format("Unable to connect to %s : %s", describeEndpoint(), ioe.getMessage()));
+                return false;
+            }
+        }
+
+        private void writePending() {
+            synchronized (lock) {
+                ByteBuffer full = filling;
+                filling = draining;
+                draining = full;
+                pending = 0;
+            }
+            draining.flip();
+            try {
+                while (draining.hasRemaining()) {
+                    channel.write(draining);
+                }
+            } catch (IOException ioe) {
+                // the server may have received part of the buffer, so it cannot safely be resent
+                SystemLogger.error(String.format("Unable to send to %s, reconnecting : %s", describeEndpoint(), ioe.getMessage()));
+                dropped.increment();
+                closeChannel();
+            } finally {
+                draining.clear();
+            }
+        }
+
+        private void closeChannel() {
+            if (null != channel) {
+                try {
+                    channel.close();
+                } catch (IOException ioe) {
+                    SystemLogger.error(String.format("Unable to close channel : %s", ioe.getMessage()));
+                }
+                channel = null;
+            }
+        }
+    }
+}
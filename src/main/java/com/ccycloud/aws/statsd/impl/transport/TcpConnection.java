@@ -0,0 +1,44 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams newline delimited metrics to a statsd server or relay over TCP, for links where UDP loss is not acceptable
+ */
+public class TcpConnection extends StreamConnection {
+    private final String remoteHost;
+    private final int remotePort;
+
+    public TcpConnection(String host, int port, int bufferSize, int flushSize, long flushInterval, TimeUnit unit,
+                         int connectTimeoutMs) {
+        super(bufferSize, flushSize, flushInterval, unit, connectTimeoutMs);
+        this.remoteHost = host;
+        this.remotePort = port;
+    }
+
+    @Override
+    protected SocketChannel openChannel() throws IOException {
+        SocketChannel opened = SocketChannel.open();
+        try {
+            opened.socket().setTcpNoDelay(true); // metrics are already batched
+            opened.socket().setKeepAlive(true);
+            opened.socket().connect(getRemoteEndpoint(), connectTimeoutMs);
+            return opened;
+        } catch (IOException ioe) {
+            opened.close();
+            throw ioe;
+        }
+    }
+
+    @Override
+    protected String describeEndpoint() {
+        return remoteHost + ":" + remotePort;
+    }
+
+    public InetSocketAddress getRemoteEndpoint() {
+        return new InetSocketAddress(remoteHost, remotePort);
+    }
+}
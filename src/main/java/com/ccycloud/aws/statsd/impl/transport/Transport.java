@@ -0,0 +1,128 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import com.ccycloud.aws.statsd.impl.config.Configuration;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The kinds of connection the client can send metrics over
+ */
+public enum Transport {
+    /** java.net.DatagramSocket; one DatagramPacket per send */
+    UDP {
+        @Override
+        public UdpConnectionInterface create(String host, int port, Map<String, String> configuration) {
+            return new UdpConnection(host, port,
+                    Configuration.getLong(configuration, Configuration.CONFIG_DNS_TTL_MS, Configuration.DEFAULT_DNS_TTL_MS));
+        }
+    },
+    /** connected, non-blocking java.nio DatagramChannel written from direct buffers */
+    UDP_CHANNEL {
+        @Override
+        public UdpConnectionInterface create(String host, int port, Map<String, String> configuration) {
+            return new DatagramChannelConnection(host, port,
+                    Configuration.getLong(configuration, Configuration.CONFIG_DNS_TTL_MS, Configuration.DEFAULT_DNS_TTL_MS));
+        }
+    },
+    /** newline delimited stream over TCP, buffered and written by a background thread which also reconnects */
+    TCP {
+        @Override
+        public UdpConnectionInterface create(String host, int port, Map<String, String> configuration) {
+            return new TcpConnection(host, port,
+                    Configuration.getInt(configuration, Configuration.CONFIG_TCP_BUFFER_SIZE, Configuration.DEFAULT_TCP_BUFFER_SIZE),
+                    Configuration.getInt(configuration, Configuration.CONFIG_TCP_FLUSH_SIZE, Configuration.DEFAULT_TCP_FLUSH_SIZE),
+                    Configuration.getLong(configuration, Configuration.CONFIG_TCP_FLUSH_INTERVAL_MS, Configuration.DEFAULT_TCP_FLUSH_INTERVAL_MS),
+                    TimeUnit.MILLISECONDS,
+                    Configuration.getInt(configuration, Configuration.CONFIG_TCP_CONNECT_TIMEOUT_MS, Configuration.DEFAULT_TCP_CONNECT_TIMEOUT_MS));
+        }
+    },
+    /**
+     * length-prefixed packets over a Unix domain stream socket to an agent on this host, such as dogstatsd in
+     * unixstream mode; the host and port are unused
+     */
+    UNIX {
+        @Override
+        public UdpConnectionInterface create(String host, int port, Map<String, String> configuration) {
+            return new UnixDomainConnection(configuration.get(Configuration.CONFIG_SOCKET_PATH),
+                    Configuration.getInt(configuration, Configuration.CONFIG_TCP_BUFFER_SIZE, Configuration.DEFAULT_TCP_BUFFER_SIZE),
+                    Configuration.getInt(configuration, Configuration.CONFIG_TCP_FLUSH_SIZE, Configuration.DEFAULT_TCP_FLUSH_SIZE),
+                    Configuration.getLong(configuration, Configuration.CONFIG_TCP_FLUSH_INTERVAL_MS, Configuration.DEFAULT_TCP_FLUSH_INTERVAL_MS),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public UdpConnectionInterface create(Map<String, String> configuration) {
+            return create(null, 0, configuration);
+        }
+
+        @Override
+        public String[] getMandatoryConfigKeys(Map<String, String> configuration) {
+            return new String[]{Configuration.CONFIG_SOCKET_PATH};
+        }
+    };
+
+    public abstract UdpConnectionInterface create(String host, int port, Map<String, String> configuration) throws UnknownHostException;
+
+    /**
+     * Create a connection to the server named by the configuration's host and port or, if a list of endpoints is
+     * configured, a connection sharding series across them
+     */
+    public UdpConnectionInterface create(Map<String, String> configuration) throws UnknownHostException {
+        String endpoints = Configuration.getString(configuration, Configuration.CONFIG_ENDPOINTS, null);
+        if (null == endpoints) {
+            return create(configuration.get(Configuration.CONFIG_HOST),
+                    Integer.parseInt(configuration.get(Configuration.CONFIG_PORT)), configuration);
+        }
+        List<String> names = new ArrayList<String>();
+        List<UdpConnectionInterface> shards = new ArrayList<UdpConnectionInterface>();
+        for (String e : endpoints.split(",")) {
+            String endpoint = e.trim();
+            if (endpoint.length() == 0) {
+                continue;
+            }
+            int separator = endpoint.lastIndexOf(':');
+            if (separator < 1 || separator == endpoint.length() - 1) {
+                throw new IllegalArgumentException("Endpoints must be given as host:port: " + e);
+            }
+            String host = endpoint.substring(0, separator);
+            if (host.startsWith("[") && host.endsWith("]")) {
+                host = host.substring(1, host.length() - 1);
+            }
+            names.add(endpoint);
+            shards.add(create(host, Integer.parseInt(endpoint.substring(separator + 1)), configuration));
+        }
+        if (names.isEmpty()) {
+            throw new IllegalArgumentException("No endpoints configured: " + endpoints);
+        }
+        return new ShardedConnection(names, shards);
+    }
+
+    /**
+     * @return the configuration keys which must be present to create this transport
+     */
+    public String[] getMandatoryConfigKeys(Map<String, String> configuration) {
+        if (null != Configuration.getString(configuration, Configuration.CONFIG_ENDPOINTS, null)) {
+            return new String[0];
+        }
+        return Configuration.getMandatoryConfigKeys();
+    }
+
+    /**
+     * @return whether the batcher should assemble datagrams in direct memory for this transport
+     */
+    public boolean prefersDirectBuffers() {
+        return this == UDP_CHANNEL;
+    }
+
+    public static Transport fromConfiguration(String value) {
+        try {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException iae) {
+            throw new IllegalArgumentException("Unknown transport: " + value);
+        }
+    }
+}
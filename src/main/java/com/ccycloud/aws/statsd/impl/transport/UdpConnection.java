@@ -1,37 +1,61 @@
 package com.ccycloud.aws.statsd.impl.transport;
 
+import com.ccycloud.aws.statsd.impl.config.Configuration;
 import com.ccycloud.aws.statsd.impl.logging.SystemLogger;
 
 import java.io.IOException;
 import java.net.*;
+import java.nio.ByteBuffer;
 import java.nio.charset.UnsupportedCharsetException;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Implements the logic necessary to send messages to a remote UDP socket
+ *
+ * The connection is open from {@link #connect()} until {@link #disconnect()}, while the host is resolved in the
+ * background; it is ready to send once the socket is connected, and moves to a new socket whenever the host's
+ * address changes.  A socket which cannot be opened or connected is retried in the background, with backoff, for
+ * as long as the connection is open.
+ *
  * Created by jeremyb on 03/04/2014.
  */
 public class UdpConnection implements UdpConnectionInterface {
     final String CHARSET = "ISO-8859-1";
-    final int MAX_COUNT = 3;
 
-    private DatagramSocket socket = null;
-
-    private String localHost;
-    private String remoteHost;
-    private int remotePort;
-    private AtomicInteger connectionCount = new AtomicInteger(0);
+    private volatile DatagramSocket socket = null;
+    private volatile boolean open = false;
+
+    private final ResolvedAddress remote;
+    // the address the current socket is connected to
+    private InetSocketAddress connectedTo = null;
+    private final ReconnectSupervisor reconnector = new ReconnectSupervisor(new ReconnectSupervisor.Attempt() {
+        @Override
+        public boolean connect() {
+            InetSocketAddress endpoint = getRemoteEndpoint();
+            // with no address yet, the resolver connects once it has one
+            return null == endpoint || attemptConnection(endpoint);
+        }
+    });
 
     public UdpConnection(String host, int port) throws UnknownHostException {
+        this(host, port, Configuration.DEFAULT_DNS_TTL_MS);
+    }
 
-        remoteHost = host;
-        remotePort = port;
-        localHost = InetAddress.getLocalHost().getCanonicalHostName().replaceAll("\\\\.", "_");
+    /**
+     * @param dnsTtlMs how long a resolved address is used before the host is looked up again; must be positive
+     */
+    public UdpConnection(String host, int port, long dnsTtlMs) {
+        remote = new ResolvedAddress(host, port, dnsTtlMs);
     }
 
     @Override
     public boolean isConnected() {
-        return socket != null && socket.isConnected();
+        return open;
+    }
+
+    @Override
+    public boolean isReady() {
+        DatagramSocket current = socket;
+        return open && null != current && current.isConnected();
     }
 
     @Override
@@ -49,62 +73,121 @@ public class UdpConnection implements UdpConnectionInterface {
         return false;
     }
 
+    @Override
+    public boolean send(byte[] message, int offset, int length) {
+        try {
+            if(isConnected()) {
+                sendMessage(message, offset, length);
+                return true;
+            }
+        } catch (IOException ioe) {
+            SystemLogger.error(String.format("Unable to send packet : %s", ioe.getMessage()));
+        }
+        return false;
+    }
+
+    @Override
+    public boolean send(ByteBuffer message) {
+        int length = message.remaining();
+        boolean sent;
+        if(message.hasArray()) {
+            sent = send(message.array(), message.arrayOffset() + message.position(), length);
+            message.position(message.position() + length);
+        } else {
+            byte[] copy = new byte[length];
+            message.get(copy);
+            sent = send(copy, 0, length);
+        }
+        return sent;
+    }
+
     public void sendMessage(String message) throws IOException {
-        // prepend the local hostname
-//        String _msg = String.format("%s", localHost, message);
         byte[] buffer = message.getBytes(CHARSET);
-        getSocket().send(buildPacket(buffer));
+        sendMessage(buffer, 0, buffer.length);
     }
 
-    private DatagramPacket buildPacket(byte[] buffer)  throws SocketException {
-        DatagramPacket pkt = new DatagramPacket(buffer, buffer.length);
-        pkt.setSocketAddress(getSocket().getRemoteSocketAddress());
-        return pkt;
+    public void sendMessage(byte[] buffer, int offset, int length) throws IOException {
+        DatagramSocket current = getSocket();
+        if(null == current) {
+            throw new SocketException(String.format("Not yet connected to %s", remote));
+        }
+        // the socket is connected, so the packet needs no address of its own
+        current.send(new DatagramPacket(buffer, offset, length));
     }
 
+    /**
+     * Open the connection, connecting the socket straight away if the host's address is already known and otherwise
+     * once it has been resolved in the background
+     */
     @Override
     public void connect() throws SocketException {
         disconnect(); // ensure we recycle any resources held by a prior connection
-        attemptConnection();
+        open = true;
+        InetSocketAddress endpoint = getRemoteEndpoint();
+        if(null != endpoint && !attemptConnection(endpoint)) {
+            reconnector.retry();
+        }
+        remote.start(new ResolvedAddress.Listener() {
+            @Override
+            public void resolved(InetSocketAddress address) {
+                if(!attemptConnection(getRemoteEndpoint())) {
+                    reconnector.retry();
+                }
+            }
+        });
     }
 
     private DatagramSocket getSocket() throws SocketException {
         return socket;
     }
 
-    private void attemptConnection() throws SocketException {
-        int localCount = connectionCount.incrementAndGet();
-        if(localCount > MAX_COUNT) {
-            throw new SocketException("Exceeded max connection attempts; abandoning statsd connection");
+    // connect a new socket to the address, then retire the old one, so senders always hold a usable socket
+    private synchronized boolean attemptConnection(InetSocketAddress endpoint) {
+        if(!open || endpoint.equals(connectedTo)) {
+            return true;
         }
-        if (null == socket) {
-            socket = createSocket();
-        }
-
-        if (null != socket && !socket.isConnected()) {
-            try {
-                socket.connect(getRemoteEndpoint());
-                connectionCount.compareAndSet(localCount, 0); // reset if nothing else has touched this.
-            } catch (Exception exc) {
-                SystemLogger.error(String.format("Unable to create socket : %s", exc.getMessage()));
+        DatagramSocket opened = null;
+        try {
+            opened = createSocket();
+            opened.connect(endpoint);
+        } catch (Exception exc) {
+            SystemLogger.error(String.format("Unable to create socket : %s", exc.getMessage()));
+            if(null != opened && opened != socket) {
+                opened.close();
             }
+            return false;
+        }
+        DatagramSocket previous = socket;
+        socket = opened;
+        connectedTo = endpoint;
+        if(null != previous && previous != opened) {
+            previous.close();
         }
+        return true;
     }
 
     public DatagramSocket createSocket() throws SocketException {
         return new DatagramSocket();
     }
 
+    /**
+     * @return the host's last resolved address, or null if it has not been resolved yet
+     */
     public InetSocketAddress getRemoteEndpoint() {
-        return new InetSocketAddress(remoteHost, remotePort);
+        return remote.get();
     }
 
-
     @Override
-    public void disconnect() {
-        if (isConnected()) {
-            socket.disconnect();
-            socket.close();
+    public synchronized void disconnect() {
+        open = false;
+        remote.stop();
+        reconnector.stop();
+        DatagramSocket current = socket;
+        socket = null;
+        connectedTo = null;
+        if (null != current) {
+            // closing also disconnects; a send racing with it fails with an IOException
+            current.close();
         }
     }
 
@@ -1,6 +1,7 @@
 package com.ccycloud.aws.statsd.impl.transport;
 
 import java.net.SocketException;
+import java.nio.ByteBuffer;
 
 /**
  * Created by jeremyb on 08/04/2014.
@@ -8,8 +9,24 @@ import java.net.SocketException;
 public interface UdpConnectionInterface {
     boolean isConnected();
 
+    /**
+     * @return whether sends can go out now; a connected transport may still be resolving or opening its socket in
+     * the background, and until then metrics are left queued
+     */
+    boolean isReady();
+
     boolean send(String message);
 
+    /**
+     * Send length bytes of message, starting at offset, as a single datagram
+     */
+    boolean send(byte[] message, int offset, int length);
+
+    /**
+     * Send the bytes between the buffer's position and limit as a single datagram; the position is advanced past them
+     */
+    boolean send(ByteBuffer message);
+
     void connect() throws SocketException;
 
     void disconnect();
@@ -0,0 +1,109 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends metrics to a statsd agent on the same host through a Unix domain stream socket, skipping the UDP/IP stack
+ * entirely and never losing metrics to a full receive buffer.
+ *
+ * This is not a unixgram transport: the JDK supports Unix domain sockets from Java 16, and only as stream sockets,
+ * so an agent listening on a datagram socket will refuse the connection.  The packets the batcher assembles are
+ * written as they would be sent over UDP, each preceded by its length as a four byte little-endian integer, which
+ * is the framing dogstatsd expects on a socket in "unixstream" mode.
+ *
+ * The socket classes are looked up reflectively to keep the client building for Java 8; on older runtimes creating
+ * a connection fails.
+ */
+public class UnixDomainConnection extends StreamConnection {
+    private static final ProtocolFamily UNIX;
+    private static final Method OPEN_CHANNEL;
+    private static final Method ADDRESS_OF;
+
+    static {
+        ProtocolFamily family = null;
+        Method open = null;
+        Method of = null;
+        try {
+            family = StandardProtocolFamily.valueOf("UNIX");
+            open = SocketChannel.class.getMethod("open", ProtocolFamily.class);
+            of = Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class);
+        } catch (IllegalArgumentException iae) {
+            family = null;
+        } catch (ReflectiveOperationException roe) {
+            family = null;
+        }
+        UNIX = family;
+        OPEN_CHANNEL = open;
+        ADDRESS_OF = of;
+    }
+
+    private final String path;
+    private final SocketAddress address;
+
+    public UnixDomainConnection(String path, int bufferSize, int flushSize, long flushInterval, TimeUnit unit) {
+        super(bufferSize, flushSize, flushInterval, unit, 0, true);
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Unix domain sockets need Java 16 or later; running on "
+                    + System.getProperty("java.version"));
+        }
+        this.path = path;
+        this.address = (SocketAddress) invoke(ADDRESS_OF, path);
+    }
+
+    /**
+     * @return true if this JVM can open Unix domain socket channels
+     */
+    public static boolean isSupported() {
+        return null != UNIX && null != OPEN_CHANNEL && null != ADDRESS_OF;
+    }
+
+    @Override
+    protected SocketChannel openChannel() throws IOException {
+        SocketChannel opened;
+        try {
+            opened = (SocketChannel) OPEN_CHANNEL.invoke(null, UNIX);
+        } catch (InvocationTargetException ite) {
+            throw asIOException(ite.getCause());
+        } catch (IllegalAccessException iae) {
+            throw new IOException(iae);
+        }
+        try {
+            opened.connect(address);
+            return opened;
+        } catch (IOException ioe) {
+            opened.close();
+            throw ioe;
+        }
+    }
+
+    @Override
+    protected String describeEndpoint() {
+        return path;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    private static Object invoke(Method method, Object argument) {
+        try {
+            return method.invoke(null, argument);
+        } catch (InvocationTargetException ite) {
+            Throwable cause = ite.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new IllegalArgumentException(cause);
+        } catch (IllegalAccessException iae) {
+            throw new IllegalStateException(iae);
+        }
+    }
+
+    private static IOException asIOException(Throwable cause) {
+        return cause instanceof IOException ? (IOException) cause : new IOException(cause);
+    }
+}
@@ -0,0 +1,81 @@
+package com.ccycloud.aws.statsd;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StatsdClientInterfaceTest extends TestCase {
+
+    // implements only the methods the interface has always had
+    private static class IntClient implements StatsdClientInterface {
+        private final List<String> calls = new ArrayList<String>();
+
+        @Override
+        public void incrementCounter(String prefix, String bucket, Map<String, String> tags, int count) {
+            calls.add("counter " + bucket + tags + " " + count);
+        }
+
+        @Override
+        public void incrementSampleCounter(String prefix, String bucket, Map<String, String> tags, int count, double sampleRate) {
+            calls.add("sampled counter " + bucket + tags + " " + count);
+        }
+
+        @Override
+        public void gaugeReading(String prefix, String bucket, Map<String, String> tags, int count) {
+            calls.add("gauge " + bucket + tags + " " + count);
+        }
+
+        @Override
+        public void timedEvent(String prefix, String bucket, Map<String, String> tags, int eventDurationInMs) {
+            calls.add("timer " + bucket + tags + " " + eventDurationInMs);
+        }
+
+        @Override
+        public void incrementUniqueCounter(String prefix, String bucket, Map<String, String> tags, int count) {
+            calls.add("set " + bucket + tags + " " + count);
+        }
+    }
+
+    private IntClient client = new IntClient();
+
+    @Test
+    public void testNewerOverloadsFallBackToTheIntMethods() {
+        client.incrementCounter("app", "requests", null, 5L);
+        client.incrementCounter("app", "requests", null, Long.MAX_VALUE);
+        client.gaugeReading("app", "depth", null, 2.6);
+        client.timedEvent("app", "latency", null, 12L);
+        client.timedEvent("app", "latency", null, 0.4);
+        client.sampleTimedEvent("app", "latency", null, 7, 0.5);
+
+        assertEquals(Arrays.asList("counter requestsnull 5", "counter requestsnull " + Integer.MAX_VALUE,
+                "gauge depthnull 3", "timer latencynull 12", "timer latencynull 0", "timer latencynull 7"), client.calls);
+    }
+
+    @Test
+    public void testHandlesRecordThroughTheClient() {
+        Map<String, String> tags = new HashMap<String, String>();
+        tags.put("service", "pricing");
+        Counter counter = client.counter("app", "requests", tags);
+        Timer timer = client.timer("app", "latency", tags);
+        tags.put("service", "changed after the handles were created");
+
+        counter.increment();
+        timer.recordNanos(3000000);
+        counter.increment(4);
+        assertEquals(Arrays.asList("counter requests{service=pricing} 1", "timer latency{service=pricing} 3",
+                "counter requests{service=pricing} 4"), client.calls);
+
+        try (Stopwatch timing = timer.stopwatch().start()) {
+            assertTrue(timing.isRunning());
+        }
+        assertTrue(client.calls.get(3), client.calls.get(3).startsWith("timer latency{service=pricing} "));
+    }
+}
@@ -7,6 +7,13 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -35,6 +42,21 @@ public class StatsdTest extends TestCase {
         assertNotNull(instance);
     }
 
+    @Test
+    public void testStatsAreRegisteredAsAnMBean() throws Exception {
+        Map<String,String> configuration = new HashMap<String,String>();
+        configuration.put("statsd.host", "localhost");
+        configuration.put("statsd.port", "8125");
+
+        StatsdClient.get(configuration);
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(StatsdClient.MBEAN_NAME);
+        assertTrue(server.isRegistered(name));
+        assertTrue(server.getAttribute(name, "MetricsEnqueued") instanceof Long);
+        assertTrue(server.getAttribute(name, "QueueDepth") instanceof Integer);
+    }
+
     @Test
     public void testActualConnection() throws Exception {
         Map<String,String> configuration = new HashMap<String,String>();
@@ -68,4 +90,56 @@ public class StatsdTest extends TestCase {
         Thread.sleep(1000l);
 
     }
+
+    @Test
+    public void testBuiltClientsAreIndependent() throws Exception {
+        DatagramSocket receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        receiver.setSoTimeout(5000);
+        StatsdClient first = StatsdClient.builder()
+                .host("127.0.0.1").port(receiver.getLocalPort())
+                .prefix("pricing_engine").tags(Tags.of("service", "pricing", "zone", "eu"))
+                .name("pricing").build();
+        StatsdClient second = StatsdClient.builder()
+                .host("127.0.0.1").port(receiver.getLocalPort()).build();
+        try {
+            assertNotSame(first, second);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertTrue(server.isRegistered(new ObjectName(first.getObjectName())));
+            assertTrue(server.isRegistered(new ObjectName(second.getObjectName())));
+            assertFalse(first.getObjectName().equals(second.getObjectName()));
+
+            // the default prefix when the call has none, and the default tags beneath the call's own
+            first.incrementCounter(null, "quotes", Tags.of("zone", "us"), 1);
+            first.close();
+            assertFalse(server.isRegistered(new ObjectName(first.getObjectName())));
+
+            DatagramPacket packet = new DatagramPacket(new byte[1500], 1500);
+            receiver.receive(packet);
+            assertEquals("pricing_engine.quotes,service=pricing,zone=us:1|c",
+                    new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.ISO_8859_1));
+            assertEquals(0, second.getStats().getMetricsEnqueued());
+        } finally {
+            first.close();
+            second.close();
+            receiver.close();
+        }
+    }
+
+    @Test
+    public void testClientsSharingANameKeepTheirOwnMBeans() throws Exception {
+        StatsdClient first = StatsdClient.builder().host("127.0.0.1").port(8125).name("shared").build();
+        StatsdClient second = StatsdClient.builder().host("127.0.0.1").port(8125).name("shared").build();
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertFalse(first.getObjectName().equals(second.getObjectName()));
+            assertEquals("The first keeps the name", StatsdClient.MBEAN_NAME + ",name=\"shared\"", first.getObjectName());
+            assertTrue(server.isRegistered(new ObjectName(second.getObjectName())));
+
+            second.close();
+            assertTrue("Closing the second leaves the first registered", server.isRegistered(new ObjectName(first.getObjectName())));
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
 }
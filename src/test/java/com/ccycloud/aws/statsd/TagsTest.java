@@ -0,0 +1,73 @@
+package com.ccycloud.aws.statsd;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TagsTest extends TestCase {
+
+    @Test
+    public void testIsASortedMapEqualToTheSameTagsInAnyMap() {
+        Map<String,String> map = new HashMap<String,String>();
+        map.put("service", "pricing");
+        map.put("hostname", "machine-hostname");
+
+        Tags subject = Tags.of("service", "pricing", "hostname", "machine-hostname");
+
+        assertEquals(map, subject);
+        assertEquals(subject, map);
+        assertEquals(map.hashCode(), subject.hashCode());
+        assertEquals(Tags.of(map), subject);
+        assertEquals(Arrays.asList("hostname", "service"), Arrays.asList(subject.keySet().toArray()));
+        assertEquals(new TreeMap<String,String>(map).toString(), subject.toString());
+        assertEquals("pricing", subject.get("service"));
+        assertNull(subject.get("missing"));
+    }
+
+    @Test
+    public void testAndAddsOrReplacesWithoutChangingTheOriginal() {
+        Tags original = Tags.of("service", "pricing");
+
+        Tags added = original.and("zone", "eu");
+        Tags replaced = original.and("service", "quotes");
+
+        assertEquals(1, original.size());
+        assertEquals(Tags.of("service", "pricing", "zone", "eu"), added);
+        assertEquals(Tags.of("service", "quotes"), replaced);
+        assertSame(original, Tags.of(original));
+        assertEquals(Tags.of("service", "quotes", "zone", "eu"), original.and(Tags.of("zone", "eu", "service", "quotes")));
+        assertSame(original, original.and((Map<String, String>) null));
+    }
+
+    @Test
+    public void testIsImmutable() {
+        Tags subject = Tags.of("service", "pricing");
+        try {
+            subject.put("zone", "eu");
+            fail("Tags must not be modifiable");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+        try {
+            subject.entrySet().iterator().remove();
+            fail("Tags must not be modifiable");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        } catch (IllegalStateException expected) {
+            // also refuses
+        }
+        assertEquals(1, subject.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsAKeyWithoutAValue() {
+        Tags.of("service");
+    }
+}
@@ -0,0 +1,112 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.impl.stats.ClientStats;
+import com.ccycloud.aws.statsd.impl.transport.RecordingConnection;
+import junit.framework.TestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MetricBatcherTest extends TestCase {
+
+    private RecordingConnection connection;
+
+    private MetricBatcher subject;
+
+    @Before
+    public void init() {
+        connection = new RecordingConnection();
+        subject = new MetricBatcher(connection, 16);
+    }
+
+    private void add(String metric) {
+        subject.add(metric.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testMetricsArePackedWithNewlines() {
+        add("a:1|c");
+        add("b:2|c");
+        assertTrue(connection.getPackets().isEmpty());
+
+        subject.flush();
+        assertEquals(Arrays.asList("a:1|c\nb:2|c"), connection.getPackets());
+    }
+
+    @Test
+    public void testMetricsAreNeverSplitAcrossPackets() {
+        add("abc:1|c");   // 7 bytes
+        add("def:22|c");  // 7 + 1 + 8 = 16 bytes, fits exactly
+        add("g:3|c");     // would overflow
+        subject.flush();
+
+        assertEquals(Arrays.asList("abc:1|c\ndef:22|c", "g:3|c"), connection.getPackets());
+    }
+
+    @Test
+    public void testOversizedMetricIsSentAlone() {
+        add("a:1|c");
+        add("a_very_long_bucket_name:1|c");
+        add("b:1|c");
+        subject.flush();
+
+        assertEquals(Arrays.asList("a:1|c", "a_very_long_bucket_name:1|c", "b:1|c"), connection.getPackets());
+    }
+
+    @Test
+    public void testEmptyFlushSendsNothing() {
+        subject.flush();
+        assertTrue(connection.getPackets().isEmpty());
+    }
+
+    @Test
+    public void testDirectPacketPacksTheSame() {
+        subject = new MetricBatcher(connection, 16, true);
+        add("a:1|c");
+        add("b:2|c");
+        add("c:3|c");
+        subject.add(ByteBuffer.wrap("d:4|c".getBytes(StandardCharsets.ISO_8859_1)));
+        subject.flush();
+
+        assertEquals(Arrays.asList("a:1|c\nb:2|c", "c:3|c\nd:4|c"), connection.getPackets());
+    }
+
+    @Test
+    public void testPacketIsSentOnceItHoldsEnoughLines() {
+        subject = new MetricBatcher(connection, 16, false, new ClientStats(), 16, 2);
+        add("a:1|c");
+        assertTrue(connection.getPackets().isEmpty());
+        add("b:2|c");
+        add("c:3|c");
+
+        assertEquals(Arrays.asList("a:1|c\nb:2|c"), connection.getPackets());
+        subject.flush();
+        assertEquals(Arrays.asList("a:1|c\nb:2|c", "c:3|c"), connection.getPackets());
+    }
+
+    @Test
+    public void testPacketIsSentOnceItHoldsEnoughBytes() {
+        subject = new MetricBatcher(connection, 16, false, new ClientStats(), 8, 0);
+        add("a:1|c");
+        assertTrue(connection.getPackets().isEmpty());
+        add("b:2|c");
+
+        assertEquals(Arrays.asList("a:1|c\nb:2|c"), connection.getPackets());
+    }
+
+    @Test
+    public void testFlushSizeMustFitInAPacket() {
+        try {
+            new MetricBatcher(connection, 16, false, new ClientStats(), 17, 0);
+            fail("A flush size larger than the packet could never be reached");
+        } catch (IllegalArgumentException expected) {
+            // the packet size is the most a datagram holds
+        }
+    }
+}
@@ -73,6 +73,15 @@ public class MetricBuilderTest  extends TestCase {
         assertEquals("Verify generated string matches expected", expected, actual);
     }
 
+    @Test
+    public void testSmallSampleRatesKeepTheirSignificantDigits() {
+        assertEquals("a:1|c@0.010", subject.buildSampleCounter("a", null, null, 1, 0.01));
+        assertEquals("a:1|c@0.00010", subject.buildSampleCounter("a", null, null, 1, 0.0001));
+        assertEquals("a:1|c@0.0000012", subject.buildSampleCounter("a", null, null, 1, 0.0000012));
+        assertEquals("Never sent as a rate of 0", "a:1|c@0.00000001", subject.buildSampleCounter("a", null, null, 1, 1e-12));
+        assertEquals("a:1|ms@0.000150", subject.buildSampleTimer("a", null, null, 1, 0.00015));
+    }
+
     @Test
     public void testSanitiseCommas() {
         assertEquals("Trailing commas should be stripped", "abc", subject.sanitise("abc,"));
@@ -0,0 +1,243 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.Tags;
+import junit.framework.TestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MetricEncoderTest extends TestCase {
+
+    private static final String ALPHABET = "abcXYZ019_.,. \t\r\n=:|@-#/\u00e9\u00ff\u0100\u2028\u00a0";
+
+    private MetricEncoder subject;
+    private ByteBuffer buffer;
+
+    @Before
+    public void init() {
+        subject = new MetricEncoder();
+        buffer = ByteBuffer.allocate(4096);
+    }
+
+    private String encode(String prefix, String bucket, Map<String,String> tags, long value, MetricEncoder.Type type) {
+        buffer.clear();
+        subject.encode(buffer, prefix, bucket, tags, value, type);
+        buffer.flip();
+        return new String(buffer.array(), 0, buffer.limit(), StandardCharsets.ISO_8859_1);
+    }
+
+    private String encodeDouble(double value, MetricEncoder.Type type) {
+        buffer.clear();
+        subject.encode(buffer, "a", null, null, value, type);
+        buffer.flip();
+        return new String(buffer.array(), 0, buffer.limit(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void testMatchesLegacyFormatting() {
+        Random random = new Random(42);
+        for (int i = 0; i < 20000; i++) {
+            String prefix = randomString(random);
+            String bucket = randomString(random);
+            Map<String,String> tags = null;
+            if (random.nextBoolean()) {
+                tags = new HashMap<String,String>();
+                int count = random.nextInt(4);
+                for (int t = 0; t < count; t++) {
+                    tags.put(randomString(random), randomString(random));
+                }
+            }
+            long value = random.nextInt() >> random.nextInt(32);
+
+            assertEquals(legacy("%s%s%s:%d|c", prefix, bucket, tags, value),
+                    encode(prefix, bucket, tags, value, MetricEncoder.Type.COUNTER));
+            assertEquals(legacy("%s%s%s:%d|ms", prefix, bucket, tags, value),
+                    encode(prefix, bucket, tags, value, MetricEncoder.Type.TIMER));
+        }
+    }
+
+    @Test
+    public void testLongValues() {
+        assertEquals("a:0|g", encode("a", null, null, 0, MetricEncoder.Type.GAUGE));
+        assertEquals("A negative reading is set from 0", "a:0|g\na:-17|g", encode("a", null, null, -17, MetricEncoder.Type.GAUGE));
+        assertEquals("a,k=v:-17|c", encode("a", null, Tags.of("k", "v"), -17, MetricEncoder.Type.COUNTER));
+        assertEquals("a,k=v:-17|g", encode("a", null, Tags.of("k", "v"), -17, MetricEncoder.Type.GAUGE_DELTA));
+        assertEquals("a:" + Long.MAX_VALUE + "|g", encode("a", null, null, Long.MAX_VALUE, MetricEncoder.Type.GAUGE));
+        assertEquals("a:0|g\na:" + Long.MIN_VALUE + "|g", encode("a", null, null, Long.MIN_VALUE, MetricEncoder.Type.GAUGE));
+    }
+
+    @Test
+    public void testFixedPointMatchesFormatter() {
+        Random random = new Random(7);
+        for (int i = 0; i <= 100000; i++) {
+            double rate = i / 100000.0;
+            assertFixed(rate, 3);
+            assertFixed(random.nextDouble(), 3);
+            assertFixed(random.nextDouble(), 6);
+        }
+        assertFixed(0.1235, 3);
+        assertFixed(0.0005, 3);
+        assertFixed(0.9995, 3);
+        assertFixed(1.0, 3);
+        assertFixed(12.5, 0);
+    }
+
+    private void assertFixed(double value, int decimals) {
+        buffer.clear();
+        subject.putFixed(buffer, value, decimals);
+        buffer.flip();
+        assertEquals("Formatting " + value, String.format(Locale.ROOT, "%." + decimals + "f", value),
+                new String(buffer.array(), 0, buffer.limit(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testDoubleValues() {
+        assertEquals("a:12.5|g", encodeDouble(12.5, MetricEncoder.Type.GAUGE));
+        assertEquals("a:0|g\na:-0.000125|g", encodeDouble(-0.000125, MetricEncoder.Type.GAUGE));
+        assertEquals("a:3|ms", encodeDouble(3.0, MetricEncoder.Type.TIMER));
+        assertEquals("a:0.333333|ms", encodeDouble(1.0 / 3, MetricEncoder.Type.TIMER));
+        assertEquals("a:0|g", encodeDouble(-0.0000001, MetricEncoder.Type.GAUGE));
+        assertEquals("a:123456789012346|g", encodeDouble(123456789012345.67, MetricEncoder.Type.GAUGE));
+        assertEquals("a:100000000000000000000|g", encodeDouble(1e20, MetricEncoder.Type.GAUGE));
+        assertEquals("a:-0.5|g", encodeDouble(-0.5, MetricEncoder.Type.GAUGE_DELTA));
+        assertEquals("A delta written as 0 still reads as a delta", "a:+0|g",
+                encodeDouble(-5.55e-17, MetricEncoder.Type.GAUGE_DELTA));
+        try {
+            encodeDouble(Double.NaN, MetricEncoder.Type.GAUGE);
+            fail("NaN has no statsd representation");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testTagsEncodeSortedWhateverTheInsertionOrder() {
+        Map<String,String> tags = new HashMap<String,String>();
+        tags.put("zone", "eu west");
+        tags.put("app", "pricing");
+
+        assertEquals("a,app=pricing,zone=euwest:1|c", encode("a", null, Tags.of(tags), 1, MetricEncoder.Type.COUNTER));
+        assertEquals("a,app=pricing,zone=euwest:1|c",
+                encode("a", null, Tags.of("zone", "eu west", "app", "pricing"), 1, MetricEncoder.Type.COUNTER));
+        assertEquals("a:1|c", encode("a", null, Tags.EMPTY, 1, MetricEncoder.Type.COUNTER));
+    }
+
+    @Test
+    public void testSurrogatePairIsOneUnmappableByte() {
+        assertEquals("a?b:1|c", encode("a\ud83d\ude00b", null, null, 1, MetricEncoder.Type.COUNTER));
+    }
+
+    /**
+     * Once warmed up, encoding into an existing buffer should create no garbage at all
+     */
+    @Test
+    public void testSteadyStateEncodingDoesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        Map<String,String> tags = new HashMap<String,String>();
+        tags.put("hostname", "machine-hostname");
+        tags.put("service", " service-name,");
+
+        int iterations = 100000;
+        for (int i = 0; i < 5 * iterations; i++) {
+            encodeForAllocationTest(tags, i);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            encodeForAllocationTest(tags, i);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        // allow for the measurement itself; a single allocation per call would be well over a megabyte
+        System.out.println("Steady state encoding allocated " + allocated + " bytes over " + iterations + " calls");
+        assertTrue("Encoding allocated " + allocated + " bytes over " + iterations + " calls", allocated < 16 * 1024);
+    }
+
+    private void encodeForAllocationTest(Map<String,String> tags, int i) {
+        buffer.clear();
+        subject.encode(buffer, "pricing_engine.", " test..counter ", tags, i, MetricEncoder.Type.COUNTER);
+        buffer.clear();
+        subject.encodeSampled(buffer, "pricing_engine", "sampled", null, i, MetricEncoder.Type.COUNTER, 0.25, 3);
+    }
+
+    private static String randomString(Random random) {
+        if (random.nextInt(10) == 0) {
+            return null;
+        }
+        int length = random.nextInt(12);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+    // the original String.format / regex implementation, as sent on the wire in ISO-8859-1
+    private static final Pattern LEADING = Pattern.compile("^\\W+");
+    private static final Pattern TRAILING = Pattern.compile("\\W+$");
+    private static final Pattern DUPLICATE_SEPARATOR = Pattern.compile("\\.+");
+
+    private static String legacy(String format, String appname, String measurement, Map<String,String> tags, long value) {
+        String tagstring = legacyJoin(tags);
+        String separator = tagstring.length() > 0 ? "," : "";
+        String line = String.format(format, legacyBucket(appname, measurement), separator, tagstring, value);
+        return new String(line.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1);
+    }
+
+    private static String legacyBucket(String appname, String measurement) {
+        String _appname = legacySanitise(appname);
+        String _measurement = legacySanitise(measurement);
+        if (_appname.length() == 0) {
+            return _measurement;
+        }
+        return _measurement.length() == 0 ? _appname : String.format("%s.%s", _appname, _measurement);
+    }
+
+    private static String legacySanitise(String src) {
+        if (null == src) {
+            return "";
+        }
+        String working = src.replaceAll("\\s+", "");
+        Matcher m = LEADING.matcher(working);
+        if (m.find()) {
+            working = m.replaceFirst("");
+        }
+        m = TRAILING.matcher(working);
+        if (m.find()) {
+            working = m.replaceFirst("");
+        }
+        m = DUPLICATE_SEPARATOR.matcher(working);
+        if (m.find()) {
+            working = m.replaceAll(".");
+        }
+        return working.trim();
+    }
+
+    private static String legacyJoin(Map<String,String> tags) {
+        StringBuilder sb = new StringBuilder();
+        if (null != tags && tags.size() > 0) {
+            for (String k : tags.keySet()) {
+                sb.append(String.format("%s=%s,", legacySanitise(k), legacySanitise(tags.get(k))));
+            }
+            String result = sb.toString();
+            return result.endsWith(",") ? result.substring(0, result.length() - 1) : result;
+        }
+        return "";
+    }
+}
@@ -0,0 +1,70 @@
+package com.ccycloud.aws.statsd.impl;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SamplerTest extends TestCase {
+
+    @Test
+    public void testParsesRatesPerBucket() {
+        Sampler subject = Sampler.parse(" db.query=0.1 , cache.hit = 0.01 ,");
+
+        assertEquals(0.1, subject.rateFor("db.query"));
+        assertEquals(0.01, subject.rateFor("cache.hit"));
+        assertEquals(Sampler.ALWAYS, subject.rateFor("other"));
+        assertEquals(Sampler.ALWAYS, subject.rateFor(null));
+    }
+
+    @Test
+    public void testWildcardAppliesToUnlistedBuckets() {
+        Sampler subject = Sampler.parse("db.query=0.1,*=0.5");
+
+        assertEquals(0.1, subject.rateFor("db.query"));
+        assertEquals(0.5, subject.rateFor("other"));
+    }
+
+    @Test
+    public void testSmallRatesAreKeptAndSentWithTheirDigits() {
+        Sampler subject = Sampler.parse("rare=0.0001");
+        assertEquals(0.0001, subject.rateFor("rare"));
+
+        ByteBuffer line = ByteBuffer.allocate(64);
+        new MetricEncoder().encodeSampled(line, "app", "rare", null, 1L, MetricEncoder.Type.COUNTER,
+                subject.rateFor("rare"), MetricBuilder.SAMPLED_COUNT_DECIMALS);
+        assertEquals("app.rare:1|c@0.00010", new String(line.array(), 0, line.position(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void testNothingConfiguredAlwaysSends() {
+        assertEquals(Sampler.ALWAYS, Sampler.parse(null).rateFor("any"));
+        assertEquals(Sampler.ALWAYS, Sampler.parse("").rateFor("any"));
+    }
+
+    @Test
+    public void testRejectsBadRates() {
+        for (String bad : new String[]{"db.query", "=0.5", "db.query=fast", "db.query=0", "db.query=1.5"}) {
+            try {
+                Sampler.parse(bad);
+                fail("Expected " + bad + " to be rejected");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testSampleBounds() {
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(Sampler.sample(1.0));
+            assertTrue(Sampler.sample(2.0));
+            assertFalse(Sampler.sample(0.0));
+            assertFalse(Sampler.sample(-1.0));
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.impl.stats.ClientStats;
+import com.ccycloud.aws.statsd.impl.transport.RecordingConnection;
+import com.ccycloud.aws.statsd.impl.transport.ShardedConnection;
+import com.ccycloud.aws.statsd.impl.transport.Transport;
+import com.ccycloud.aws.statsd.impl.transport.UdpConnectionInterface;
+import junit.framework.TestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ShardedBatcherTest extends TestCase {
+
+    private List<RecordingConnection> shards;
+    private ShardedConnection connection;
+    private ShardedBatcher subject;
+
+    @Before
+    public void init() {
+        shards = new ArrayList<RecordingConnection>();
+        for (int i = 0; i < 3; i++) {
+            shards.add(new RecordingConnection());
+        }
+        connection = new ShardedConnection(Arrays.asList("a:8125", "b:8125", "c:8125"),
+                new ArrayList<UdpConnectionInterface>(shards));
+        subject = new ShardedBatcher(connection, 1432, false, new ClientStats());
+    }
+
+    private static byte[] line(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private int shardHolding(String line) {
+        int found = -1;
+        for (int i = 0; i < shards.size(); i++) {
+            if (shards.get(i).getLines().contains(line)) {
+                assertEquals("A line reached more than one shard", -1, found);
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    @Test
+    public void testEverySeriesStaysOnOneShard() {
+        for (int series = 0; series < 50; series++) {
+            for (int value = 0; value < 5; value++) {
+                subject.add(line("app.series_" + series + ",region=eu:" + value + "|c"));
+            }
+            subject.add(ByteBuffer.wrap(line("app.series_" + series + ",region=eu:9|ms")));
+        }
+        subject.flush();
+
+        int used = 0;
+        for (RecordingConnection shard : shards) {
+            if (!shard.getLines().isEmpty()) {
+                used++;
+            }
+        }
+        assertEquals("50 series should use every shard", 3, used);
+        for (int series = 0; series < 50; series++) {
+            int shard = shardHolding("app.series_" + series + ",region=eu:0|c");
+            for (int value = 1; value < 5; value++) {
+                assertEquals(shard, shardHolding("app.series_" + series + ",region=eu:" + value + "|c"));
+            }
+            assertEquals(shard, shardHolding("app.series_" + series + ",region=eu:9|ms"));
+        }
+    }
+
+    @Test
+    public void testTagsArePartOfTheSeries() {
+        int[] shardCounts = new int[3];
+        for (int host = 0; host < 60; host++) {
+            String metric = "app.requests,host=web" + host + ":1|c";
+            subject.add(line(metric));
+            subject.flush();
+            shardCounts[shardHolding(metric)]++;
+        }
+        for (int count : shardCounts) {
+            assertTrue(Arrays.toString(shardCounts), count > 0);
+        }
+    }
+
+    @Test
+    public void testEachShardPacksItsOwnDatagrams() {
+        for (int series = 0; series < 30; series++) {
+            subject.add(line("s" + series + ":1|c"));
+        }
+        subject.flush();
+
+        for (RecordingConnection shard : shards) {
+            assertEquals("One datagram per shard", 1, shard.getPackets().size());
+        }
+    }
+
+    @Test
+    public void testEndpointsConfigurationCreatesShards() throws Exception {
+        Map<String, String> configuration = new HashMap<String, String>();
+        configuration.put("statsd.endpoints", "127.0.0.1:8125, 127.0.0.1:8126,[::1]:8127");
+
+        UdpConnectionInterface created = Transport.UDP.create(configuration);
+
+        assertTrue(created instanceof ShardedConnection);
+        assertEquals(Arrays.asList("127.0.0.1:8125", "127.0.0.1:8126", "[::1]:8127"), ((ShardedConnection) created).getEndpoints());
+        assertEquals(0, Transport.UDP.getMandatoryConfigKeys(configuration).length);
+    }
+}
@@ -0,0 +1,582 @@
+package com.ccycloud.aws.statsd.impl;
+
+import com.ccycloud.aws.statsd.Counter;
+import com.ccycloud.aws.statsd.Gauge;
+import com.ccycloud.aws.statsd.Stopwatch;
+import com.ccycloud.aws.statsd.Tags;
+import com.ccycloud.aws.statsd.Timer;
+import com.ccycloud.aws.statsd.impl.config.Configuration;
+import com.ccycloud.aws.statsd.impl.stats.ClientStats;
+import com.ccycloud.aws.statsd.impl.transport.RecordingConnection;
+import junit.framework.TestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StatsdClientTest extends TestCase {
+
+    private RecordingConnection connection;
+    private Map<String,String> configuration;
+    private Map<String,String> tags;
+
+    @Before
+    public void init() {
+        connection = new RecordingConnection();
+        configuration = new HashMap<String,String>();
+        tags = new HashMap<String,String>();
+        tags.put("service", "pricing");
+    }
+
+    @Test
+    public void testHandlesSendPreEncodedSeries() {
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        Counter counter = subject.counter("app.", " requests", tags);
+        Gauge gauge = subject.gauge("app", "pool_size", null);
+        Timer timer = subject.timer("app", "latency", tags);
+        tags.put("service", "changed after the handle was created");
+
+        counter.increment();
+        counter.increment(5);
+        gauge.set(-3);
+        timer.record(12);
+        subject.finishMeasurements();
+
+        assertEquals(Arrays.asList("app.requests,service=pricing:1|c", "app.requests,service=pricing:5|c",
+                "app.pool_size:0|g", "app.pool_size:-3|g", "app.latency,service=pricing:12|ms"), connection.getLines());
+    }
+
+    @Test
+    public void testTimersRecordNanoTimeAsFractionalMilliseconds() throws Exception {
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+        Timer timer = subject.timer("app", "latency", null);
+
+        timer.recordNanos(1500000);
+        assertEquals("quote", timer.time(new Callable<String>() {
+            @Override
+            public String call() {
+                return "quote";
+            }
+        }));
+        Stopwatch stopwatch = timer.stopwatch();
+        try (Stopwatch timing = stopwatch.start()) {
+            assertTrue(timing.isRunning());
+        }
+        assertFalse(stopwatch.isRunning());
+        assertEquals("Stopping again records nothing", 0, stopwatch.stop());
+        try {
+            timer.time(new Runnable() {
+                @Override
+                public void run() {
+                    throw new IllegalStateException("failed");
+                }
+            });
+            fail("The task's exception should be thrown");
+        } catch (IllegalStateException expected) {
+            // and still timed
+        }
+        subject.finishMeasurements();
+
+        List<String> lines = connection.getLines();
+        assertEquals(4, lines.size());
+        assertEquals("app.latency:1.5|ms", lines.get(0));
+        for (String line : lines) {
+            assertTrue(line, line.matches("app\\.latency:\\d+(\\.\\d{1,6})?\\|ms"));
+        }
+    }
+
+    @Test
+    public void testHandlesShareAggregatedSeries() {
+        configuration.put(Configuration.CONFIG_AGGREGATE_COUNTERS, "true");
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        Counter counter = subject.counter("app", "requests", tags);
+        counter.increment();
+        counter.increment(2);
+        subject.incrementCounter("app", "requests", tags, 4);
+        subject.finishMeasurements();
+
+        assertEquals(Arrays.asList("app.requests,service=pricing:7|c"), connection.getLines());
+    }
+
+    @Test
+    public void testNegativeReadingsAreSetFromZeroWithoutAggregation() {
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        subject.gaugeReading("app", "depth", tags, -2);
+        subject.gaugeReading("app", "level", null, -2.5);
+        subject.adjustGauge("app", "level", null, -1);
+        subject.finishMeasurements();
+
+        assertEquals(Arrays.asList("app.depth,service=pricing:0|g", "app.depth,service=pricing:-2|g",
+                "app.level:0|g", "app.level:-2.5|g", "app.level:-1|g"), connection.getLines());
+    }
+
+    @Test
+    public void testAggregatedTimerHandlesKeepNanoTimeResolution() {
+        configuration.put(Configuration.CONFIG_AGGREGATE_TIMERS, "true");
+        configuration.put(Configuration.CONFIG_TIMER_SUMMARIES, "count,min,max");
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        Timer timer = subject.timer("app", "latency", null);
+        timer.recordNanos(400000);
+        timer.recordNanos(1500000);
+        subject.finishMeasurements();
+
+        assertEquals(Arrays.asList("app.latency.count:2|c", "app.latency.min:0.4|g", "app.latency.max:1.5|g"),
+                connection.getLines());
+    }
+
+    @Test
+    public void testHandlesDropWhenDisconnected() {
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+        Counter counter = subject.counter("app", "requests", null);
+
+        connection.disconnect();
+        counter.increment();
+        subject.finishMeasurements();
+
+        assertTrue(connection.getLines().isEmpty());
+    }
+
+    @Test
+    public void testMetricsWaitForTheConnectionToBeReady() throws Exception {
+        connection.setReady(false);
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        subject.incrementCounter("app", "requests", null, 1);
+        Thread.sleep(50);
+        assertTrue(connection.getLines().isEmpty());
+
+        connection.setReady(true);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (connection.getLines().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(Arrays.asList("app.requests:1|c"), connection.getLines());
+        subject.finishMeasurements();
+    }
+
+    @Test
+    public void testPartlyFilledPacketsWaitForTheBatchDelay() throws Exception {
+        configuration.put(Configuration.CONFIG_BATCH_MAX_DELAY_MS, "200");
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        long start = System.nanoTime();
+        subject.incrementCounter("app", "requests", null, 1);
+        subject.incrementCounter("app", "requests", null, 2);
+        Thread.sleep(50);
+        assertTrue(connection.getPackets().isEmpty());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (connection.getPackets().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue("Sent before the delay", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(200));
+        assertEquals(Arrays.asList("app.requests:1|c\napp.requests:2|c"), connection.getPackets());
+
+        subject.incrementCounter("app", "requests", null, 3);
+        assertTrue(subject.flush(5, TimeUnit.SECONDS));
+        assertEquals("An explicit flush sends at once", "app.requests:3|c", connection.getPackets().get(1));
+        subject.finishMeasurements();
+    }
+
+    @Test
+    public void testFlushWaitsForTheConnection() throws Exception {
+        connection.setReady(false);
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        assertFalse("Not started", subject.flush(10, TimeUnit.MILLISECONDS));
+        subject.startMeasurements();
+
+        subject.incrementCounter("app", "requests", null, 1);
+        assertFalse(subject.flush(50, TimeUnit.MILLISECONDS));
+        connection.setReady(true);
+        assertTrue(subject.flush(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("app.requests:1|c"), connection.getLines());
+        subject.finishMeasurements();
+    }
+
+    @Test
+    public void testOverflowIsSpilledAndReplayedOnceReady() throws Exception {
+        File spill = File.createTempFile("statsd", ".spill");
+        configuration.put(Configuration.CONFIG_RING_SLOTS, "4");
+        configuration.put(Configuration.CONFIG_SPILL_PATH, spill.getPath());
+        connection.setReady(false);
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            subject.incrementCounter("app", "requests", null, i);
+            expected.add("app.requests:" + i + "|c");
+        }
+        assertEquals(0, subject.getDroppedCount());
+
+        connection.setReady(true);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (connection.getLines().size() < expected.size() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        subject.finishMeasurements();
+        spill.delete();
+
+        assertEquals(expected, connection.getLines());
+    }
+
+    @Test
+    public void testFinishingWhileDisconnectedKeepsMetricsForTheNextClient() throws Exception {
+        File spill = File.createTempFile("statsd", ".spill");
+        configuration.put(Configuration.CONFIG_SPILL_PATH, spill.getPath());
+        configuration.put(Configuration.CONFIG_AGGREGATE_COUNTERS, "true");
+        connection.setReady(false);
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+        subject.gaugeReading("app", "pool_size", null, 3);
+        subject.incrementCounter("app", "requests", null, 2);
+        subject.finishMeasurements();
+        assertTrue(connection.getLines().isEmpty());
+
+        connection.setReady(true);
+        StatsdClient next = new StatsdClient(connection, configuration);
+        next.startMeasurements();
+        next.finishMeasurements();
+        spill.delete();
+
+        assertEquals(Arrays.asList("app.pool_size:3|g", "app.requests:2|c"), connection.getLines());
+    }
+
+    @Test
+    public void testParkedDispatcherIsWokenByProducer() throws Exception {
+        // with an hour's latency bound, only the producer's signal can get the metric out promptly
+        configuration.put(Configuration.CONFIG_DISPATCHER_MAX_LATENCY_MS, "3600000");
+        configuration.put(Configuration.CONFIG_FLUSH_INTERVAL_MS, "3600000");
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+        Thread.sleep(50); // let the dispatcher park
+
+        subject.incrementCounter("app", "requests", null, 1);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (connection.getLines().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(Arrays.asList("app.requests:1|c"), connection.getLines());
+        subject.finishMeasurements();
+    }
+
+    @Test
+    public void testSpinningStrategiesDispatch() {
+        for (String strategy : new String[]{"yield", "busy_spin"}) {
+            RecordingConnection connection = new RecordingConnection();
+            configuration.put(Configuration.CONFIG_DISPATCHER_WAIT_STRATEGY, strategy);
+            StatsdClient subject = new StatsdClient(connection, configuration);
+            subject.startMeasurements();
+            subject.incrementCounter("app", "requests", null, 1);
+            subject.finishMeasurements();
+
+            assertEquals(Arrays.asList("app.requests:1|c"), connection.getLines());
+        }
+    }
+
+    @Test
+    public void testSamplingHappensOnTheClient() {
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        for (int i = 0; i < 4000; i++) {
+            subject.incrementSampleCounter("app", "hits", null, 1, 0.25);
+            subject.sampleTimedEvent("app", "latency", null, 7, 0.0);
+        }
+        subject.sampleGaugeReading("app", "depth", null, 3, 1.0);
+        subject.finishMeasurements();
+
+        int hits = 0;
+        for (String line : connection.getLines()) {
+            if (line.startsWith("app.hits")) {
+                assertEquals("app.hits:1|c@0.250", line);
+                hits++;
+            }
+        }
+        assertTrue("Expected about 1000 sampled counters, got " + hits, hits > 800 && hits < 1200);
+        assertTrue(connection.getLines().contains("app.depth:3|g"));
+        assertFalse("Rate 0 sends nothing", connection.getLines().toString().contains("app.latency"));
+    }
+
+    @Test
+    public void testDefaultSampleRatesPerBucket() {
+        configuration.put(Configuration.CONFIG_SAMPLE_RATES, "latency=0.5, depth=0.5");
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        Timer timer = subject.timer("app", "latency", null);
+        for (int i = 0; i < 2000; i++) {
+            subject.timedEvent("app", "latency", null, 7);
+            timer.record(8);
+            subject.gaugeReading("app", "depth", null, 3);
+        }
+        subject.incrementCounter("app", "unlisted", null, 1);
+        subject.finishMeasurements();
+
+        int timed = 0;
+        int gauged = 0;
+        for (String line : connection.getLines()) {
+            if (line.startsWith("app.latency")) {
+                assertTrue(line, line.equals("app.latency:7|ms@0.500000") || line.equals("app.latency:8|ms@0.500000"));
+                timed++;
+            } else if (line.startsWith("app.depth")) {
+                assertEquals("Gauges carry no rate", "app.depth:3|g", line);
+                gauged++;
+            }
+        }
+        assertTrue("Expected about 2000 sampled timers, got " + timed, timed > 1700 && timed < 2300);
+        assertTrue("Expected about 1000 sampled gauges, got " + gauged, gauged > 850 && gauged < 1150);
+        assertTrue(connection.getLines().contains("app.unlisted:1|c"));
+    }
+
+    @Test
+    public void testUniqueCounterSendsEachValueOncePerInterval() {
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        for (int i = 0; i < 500; i++) {
+            subject.incrementUniqueCounter("app", "users", tags, 1001);
+        }
+        subject.incrementUniqueCounter("app", "users", tags, 1002);
+        subject.finishMeasurements();
+
+        assertEquals(new HashSet<String>(Arrays.asList("app.users,service=pricing:1001|s", "app.users,service=pricing:1002|s")),
+                new HashSet<String>(connection.getLines()));
+        assertEquals(2, connection.getLines().size());
+    }
+
+    @Test
+    public void testStatsCountWhatWasSent() {
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        for (int i = 0; i < 10; i++) {
+            subject.incrementCounter("app", "requests", tags, 1);
+        }
+        subject.finishMeasurements();
+
+        ClientStats stats = subject.getStats();
+        assertEquals(10, stats.getMetricsEnqueued());
+        assertEquals(10, stats.getMetricsEncoded());
+        assertEquals(0, stats.getMetricsDropped());
+        assertEquals(0, stats.getSendErrors());
+        assertEquals(0, stats.getQueueDepth());
+        assertTrue(stats.getPacketsSent() >= 1);
+        assertEquals(10 * ("app.requests,service=pricing:1|c".length() + 1) - stats.getPacketsSent(), stats.getBytesSent());
+        assertTrue(stats.getDrainCount() >= 1);
+    }
+
+    @Test
+    public void testSelfMetricsAreSentUnderTheirPrefix() {
+        configuration.put(Configuration.CONFIG_SELF_METRICS, "true");
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        subject.incrementCounter("app", "requests", tags, 1);
+        subject.incrementCounter("app", "requests", tags, 1);
+        subject.finishMeasurements();
+
+        assertTrue(connection.getLines().contains("statsd_client.enqueued:2|c"));
+        assertTrue(connection.getLines().contains("statsd_client.encoded:2|c"));
+        assertTrue(connection.getLines().contains("statsd_client.queue_depth:0|g"));
+        for (String line : connection.getLines()) {
+            assertTrue(line, line.startsWith("app.requests") || line.startsWith("statsd_client."));
+        }
+    }
+
+    @Test
+    public void testWorkersKeepEachSeriesInOrder() throws Exception {
+        configuration.put(Configuration.CONFIG_DISPATCHER_WORKERS, "4");
+        final StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        Thread[] producers = new Thread[4];
+        for (int p = 0; p < producers.length; p++) {
+            final int producer = p;
+            producers[p] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int value = 0; value < 500; value++) {
+                        for (int series = producer; series < 20; series += 4) {
+                            subject.gaugeReading("app", "series" + series, null, value);
+                        }
+                    }
+                }
+            });
+            producers[p].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        subject.finishMeasurements();
+
+        Map<String,Integer> last = new HashMap<String,Integer>();
+        for (String line : connection.getLines()) {
+            String series = line.substring(0, line.indexOf(':'));
+            int value = Integer.parseInt(line.substring(line.indexOf(':') + 1, line.indexOf('|')));
+            Integer previous = last.put(series, value);
+            assertEquals(line, null == previous ? 0 : previous + 1, value);
+        }
+        assertEquals(20, last.size());
+        assertEquals(10000, connection.getLines().size());
+    }
+
+    @Test
+    public void testWorkersRunOnTheSuppliedExecutor() {
+        configuration.put(Configuration.CONFIG_DISPATCHER_WORKERS, "2");
+        final AtomicInteger workers = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                workers.incrementAndGet();
+                new Thread(command, "supplied").start();
+            }
+        };
+        StatsdClient subject = new StatsdClient(connection, configuration, executor);
+        subject.startMeasurements();
+
+        subject.incrementCounter("app", "requests", tags, 1);
+        subject.finishMeasurements();
+
+        assertEquals(2, workers.get());
+        assertEquals(Arrays.asList("app.requests,service=pricing:1|c"), connection.getLines());
+    }
+
+    @Test
+    public void testFinishingSendsWhatWorkersThatNeverRanHadQueued() {
+        configuration.put(Configuration.CONFIG_DISPATCHER_WORKERS, "2");
+        configuration.put(Configuration.CONFIG_DISPATCHER_STOP_TIMEOUT_MS, "50");
+        final List<Runnable> queued = new ArrayList<Runnable>();
+        Executor stalled = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                // held behind other work; never run until after the client is finished
+                queued.add(command);
+            }
+        };
+        StatsdClient subject = new StatsdClient(connection, configuration, stalled);
+        subject.startMeasurements();
+
+        subject.incrementCounter("app", "requests", tags, 1);
+        subject.finishMeasurements();
+        assertEquals(Arrays.asList("app.requests,service=pricing:1|c"), connection.getLines());
+
+        for (Runnable worker : queued) {
+            // a worker given up on does nothing once it does run
+            worker.run();
+        }
+        assertEquals(1, connection.getLines().size());
+    }
+
+    @Test
+    public void testFinishingARejectedOrUnstartedClientSendsInline() {
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("shut down");
+            }
+        };
+        StatsdClient subject = new StatsdClient(connection, configuration, rejecting);
+        subject.startMeasurements();
+        subject.incrementCounter("app", "requests", tags, 1);
+        subject.finishMeasurements();
+
+        StatsdClient unstarted = new StatsdClient(connection, configuration);
+        unstarted.incrementCounter("app", "requests", tags, 2);
+        unstarted.finishMeasurements();
+
+        assertEquals(Arrays.asList("app.requests,service=pricing:1|c", "app.requests,service=pricing:2|c"), connection.getLines());
+    }
+
+    @Test
+    public void testVirtualModeDispatchesOnAnyJdk() {
+        configuration.put(Configuration.CONFIG_DISPATCHER_MODE, "virtual");
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        subject.incrementCounter("app", "requests", tags, 1);
+        subject.finishMeasurements();
+
+        assertEquals(Arrays.asList("app.requests,service=pricing:1|c"), connection.getLines());
+    }
+
+    @Test
+    public void testLongAndFractionalValuesWithPrebuiltTags() {
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+        Tags prebuilt = Tags.of("service", "pricing", "region", "eu");
+
+        subject.incrementCounter("app", "bytes", prebuilt, 5000000000L);
+        subject.gaugeReading("app", "load", prebuilt, 0.75);
+        subject.timedEvent("app", "latency", prebuilt, 1.25);
+        subject.gaugeReading("app", "load", prebuilt, Double.NaN);
+        subject.gauge("app", "ratio", prebuilt).set(0.5);
+        subject.timer("app", "latency", null).record(0.001);
+        subject.finishMeasurements();
+
+        assertEquals(Arrays.asList("app.bytes,region=eu,service=pricing:5000000000|c", "app.load,region=eu,service=pricing:0.75|g",
+                "app.latency,region=eu,service=pricing:1.25|ms", "app.ratio,region=eu,service=pricing:0.5|g",
+                "app.latency:0.001|ms"), connection.getLines());
+    }
+
+    @Test
+    public void testAggregatedGaugesSendEachSeriesOncePerInterval() {
+        configuration.put(Configuration.CONFIG_AGGREGATE_GAUGES, "true");
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        Gauge queueDepth = subject.gauge("app", "queue_depth", tags);
+        for (int i = 0; i < 100; i++) {
+            subject.gaugeReading("app", "pool_size", tags, i);
+            queueDepth.set(i * 2);
+        }
+        subject.adjustGauge("app", "workers", null, 3);
+        queueDepth.adjust(-1);
+        subject.finishMeasurements();
+
+        assertEquals(new HashSet<String>(Arrays.asList("app.pool_size,service=pricing:99|g", "app.queue_depth,service=pricing:198|g",
+                "app.queue_depth,service=pricing:-1|g", "app.workers:+3|g")), new HashSet<String>(connection.getLines()));
+        assertEquals(4, connection.getLines().size());
+    }
+
+    @Test
+    public void testDeltaGaugesAreSentImmediatelyWhenNotAggregated() {
+        StatsdClient subject = new StatsdClient(connection, configuration);
+        subject.startMeasurements();
+
+        subject.adjustGauge("app", "workers", null, 3);
+        subject.adjustGauge("app", "workers", null, -0.5);
+        subject.gauge("app", "workers", null).adjust(0);
+        subject.finishMeasurements();
+
+        assertEquals(Arrays.asList("app.workers:+3|g", "app.workers:-0.5|g", "app.workers:+0|g"), connection.getLines());
+    }
+}
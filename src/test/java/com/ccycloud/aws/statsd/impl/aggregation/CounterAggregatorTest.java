@@ -0,0 +1,134 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import com.ccycloud.aws.statsd.impl.MetricBatcher;
+import com.ccycloud.aws.statsd.impl.MetricEncoder;
+import com.ccycloud.aws.statsd.impl.transport.RecordingConnection;
+import junit.framework.TestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import java.util.Arrays;
+
+@RunWith(MockitoJUnitRunner.class)
+public class CounterAggregatorTest extends TestCase {
+
+    private RecordingConnection connection = new RecordingConnection();
+    private MetricBatcher batcher = new MetricBatcher(connection, 1432);
+
+    private CounterAggregator subject;
+
+    @Before
+    public void init() {
+        subject = new CounterAggregator(new MetricEncoder());
+    }
+
+    @Test
+    public void testIncrementsAreSummedPerSeries() {
+        Map<String,String> tags = new HashMap<String,String>();
+        tags.put("k1", "v1");
+
+        subject.increment("app", "hits", tags, 1);
+        subject.increment("app", "hits", new HashMap<String,String>(tags), 2);
+        subject.increment("app", "hits", null, 5);
+        subject.flushTo(batcher);
+        batcher.flush();
+
+        assertEquals(new HashSet<String>(Arrays.asList("app.hits,k1=v1:3|c", "app.hits:5|c")),
+                new HashSet<String>(connection.getLines()));
+        assertEquals(2, connection.getLines().size());
+    }
+
+    @Test
+    public void testCallerMutatingTagsDoesNotAffectStoredSeries() {
+        Map<String,String> tags = new HashMap<String,String>();
+        tags.put("k1", "v1");
+        subject.increment("app", "hits", tags, 1);
+        tags.put("k1", "changed");
+        subject.flushTo(batcher);
+        batcher.flush();
+
+        assertEquals(Arrays.asList("app.hits,k1=v1:1|c"), connection.getLines());
+    }
+
+    @Test
+    public void testIdleSeriesAreEvicted() {
+        subject.increment("app", "hits", null, 1);
+        subject.flushTo(batcher);
+        assertEquals(1, subject.size());
+
+        subject.flushTo(batcher);
+        assertEquals("A series with no increments in the interval is dropped", 0, subject.size());
+        batcher.flush();
+        assertEquals(1, connection.getLines().size());
+    }
+
+    @Test
+    public void testConcurrentIncrements() throws Exception {
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        subject.increment("app", "hits", null, 1);
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        subject.flushTo(batcher);
+        batcher.flush();
+
+        assertEquals(Arrays.asList("app.hits:40000|c"), connection.getLines());
+    }
+
+    @Test
+    public void testNoIncrementIsLostToEviction() throws Exception {
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 20000; j++) {
+                        subject.increment("app", "hits", null, 1);
+                        if (j % 100 == 0) {
+                            // leave the series idle now and then, so flushes evict it
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        Thread flusher = new Thread(new Runnable() {
+            public void run() {
+                while (!done.get()) {
+                    subject.flushTo(batcher);
+                }
+            }
+        });
+        flusher.start();
+        for (Thread t : threads) {
+            t.join();
+        }
+        done.set(true);
+        flusher.join();
+        subject.flushTo(batcher);
+        batcher.flush();
+
+        long total = 0;
+        for (String line : connection.getLines()) {
+            total += Long.parseLong(line.substring("app.hits:".length(), line.indexOf('|')));
+        }
+        assertEquals(80000, total);
+    }
+}
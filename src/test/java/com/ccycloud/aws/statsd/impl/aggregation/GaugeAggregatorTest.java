@@ -0,0 +1,143 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import com.ccycloud.aws.statsd.impl.MetricBatcher;
+import com.ccycloud.aws.statsd.impl.MetricEncoder;
+import com.ccycloud.aws.statsd.impl.transport.RecordingConnection;
+import junit.framework.TestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(MockitoJUnitRunner.class)
+public class GaugeAggregatorTest extends TestCase {
+
+    private RecordingConnection connection = new RecordingConnection();
+    private MetricBatcher batcher = new MetricBatcher(connection, 1432);
+
+    private GaugeAggregator subject;
+
+    @Before
+    public void init() {
+        subject = new GaugeAggregator(new MetricEncoder());
+    }
+
+    private void flush() {
+        subject.flushTo(batcher);
+        batcher.flush();
+    }
+
+    @Test
+    public void testLastReadingWinsPerSeries() {
+        Map<String,String> tags = new HashMap<String,String>();
+        tags.put("pool", "db");
+
+        for (int i = 0; i <= 1000; i++) {
+            subject.set("app", "pool_size", tags, i);
+        }
+        subject.set("app", "load", null, 0.25);
+        flush();
+
+        assertEquals(new HashSet<String>(Arrays.asList("app.pool_size,pool=db:1000|g", "app.load:0.25|g")),
+                new HashSet<String>(connection.getLines()));
+        assertEquals(2, connection.getLines().size());
+    }
+
+    @Test
+    public void testDeltasAreSummedAndSentWithTheirSign() {
+        subject.adjust("app", "up", null, 3);
+        subject.adjust("app", "up", null, 4);
+        subject.adjust("app", "down", null, -2.5);
+        subject.adjust("app", "level", null, 1);
+        subject.adjust("app", "level", null, -1);
+        subject.adjust("app", "residue", null, -0.1);
+        subject.adjust("app", "residue", null, -0.2);
+        subject.adjust("app", "residue", null, 0.3);
+        flush();
+
+        assertEquals(new HashSet<String>(Arrays.asList("app.up:+7|g", "app.down:-2.5|g")),
+                new HashSet<String>(connection.getLines()));
+        assertEquals(2, connection.getLines().size());
+    }
+
+    @Test
+    public void testReadingReplacesEarlierDeltasAndPrecedesLaterOnes() {
+        subject.adjust("app", "connections", null, 10);
+        subject.set("app", "connections", null, 5);
+        subject.adjust("app", "connections", null, 2);
+        flush();
+
+        assertEquals(Arrays.asList("app.connections:5|g", "app.connections:+2|g"), connection.getLines());
+    }
+
+    @Test
+    public void testUnchangedSeriesAreNotResentAndIdleSeriesAreEvicted() {
+        subject.set("app", "pool_size", null, 4);
+        SeriesKey pinned = subject.pin("app", "pinned", null);
+        flush();
+        assertEquals(2, subject.size());
+
+        flush();
+        assertEquals(Arrays.asList("app.pool_size:4|g"), connection.getLines());
+        assertEquals(1, subject.size());
+
+        subject.set(pinned, 7);
+        flush();
+        assertEquals(Arrays.asList("app.pool_size:4|g", "app.pinned:7|g"), connection.getLines());
+    }
+
+    @Test
+    public void testNegativeReadingIsSetFromZero() {
+        subject.set("app", "balance", null, -5);
+        flush();
+
+        assertEquals("Sent alone, -5 would decrement the server's value",
+                Arrays.asList("app.balance:0|g", "app.balance:-5|g"), connection.getLines());
+    }
+
+    @Test
+    public void testNoDeltaIsLostToEviction() throws Exception {
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 20000; j++) {
+                        subject.adjust("app", "connections", null, 1);
+                        if (j % 100 == 0) {
+                            // leave the series idle now and then, so flushes evict it
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        Thread flusher = new Thread(new Runnable() {
+            public void run() {
+                while (!done.get()) {
+                    subject.flushTo(batcher);
+                }
+            }
+        });
+        flusher.start();
+        for (Thread t : threads) {
+            t.join();
+        }
+        done.set(true);
+        flusher.join();
+        flush();
+
+        long total = 0;
+        for (String line : connection.getLines()) {
+            total += Long.parseLong(line.substring("app.connections:+".length(), line.indexOf('|')));
+        }
+        assertEquals(80000, total);
+    }
+}
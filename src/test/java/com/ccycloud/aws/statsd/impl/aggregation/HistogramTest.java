@@ -0,0 +1,78 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import junit.framework.TestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HistogramTest extends TestCase {
+
+    private Histogram subject;
+    private Histogram.Snapshot snapshot;
+
+    @Before
+    public void init() {
+        subject = new Histogram();
+        snapshot = new Histogram.Snapshot();
+    }
+
+    @Test
+    public void testBucketBoundariesAreContiguous() {
+        for (int i = 1; i < Histogram.BUCKET_COUNT; i++) {
+            assertEquals("Bucket " + i + " should start where the previous ended",
+                    Histogram.highestValueAt(i - 1) + 1, Histogram.lowestValueAt(i));
+        }
+        assertEquals(Histogram.MAX_VALUE, Histogram.highestValueAt(Histogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void testValuesMapIntoTheirBucket() {
+        long[] values = {0, 1, 31, 32, 33, 63, 64, 65, 1000, 123456789L, Histogram.MAX_VALUE};
+        for (long v : values) {
+            int index = Histogram.indexOf(v);
+            assertTrue(v + " below bucket", Histogram.lowestValueAt(index) <= v);
+            assertTrue(v + " above bucket", Histogram.highestValueAt(index) >= v);
+        }
+        assertEquals("Values beyond the range go in the top bucket",
+                Histogram.BUCKET_COUNT - 1, Histogram.indexOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        for (int i = 1; i <= 20; i++) {
+            subject.record(i);
+        }
+        subject.drainTo(snapshot);
+
+        assertEquals(20, snapshot.getCount());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(20, snapshot.getMax());
+        assertEquals(10, snapshot.getValueAtPercentile(50));
+        assertEquals(19, snapshot.getValueAtPercentile(95));
+    }
+
+    @Test
+    public void testPercentilesWithinRelativeError() {
+        for (int i = 1; i <= 100000; i++) {
+            subject.record(i);
+        }
+        subject.drainTo(snapshot);
+
+        assertEquals(100000, snapshot.getCount());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(100000, snapshot.getMax());
+        assertEquals(50000, snapshot.getValueAtPercentile(50), 50000 / 32.0);
+        assertEquals(99000, snapshot.getValueAtPercentile(99), 99000 / 32.0);
+    }
+
+    @Test
+    public void testDrainResets() {
+        subject.record(5);
+        subject.drainTo(snapshot);
+        subject.drainTo(snapshot);
+
+        assertEquals(0, snapshot.getCount());
+    }
+}
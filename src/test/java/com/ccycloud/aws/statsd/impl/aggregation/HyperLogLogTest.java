@@ -0,0 +1,62 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HyperLogLogTest extends TestCase {
+
+    private static void assertWithin(long expected, long actual, double tolerance) {
+        assertTrue("Estimate " + actual + " not within " + tolerance + " of " + expected,
+                Math.abs(actual - expected) <= expected * tolerance);
+    }
+
+    @Test
+    public void testEmptySketchEstimatesZero() {
+        assertEquals(0, new HyperLogLog(12).estimate());
+    }
+
+    @Test
+    public void testSmallCardinalitiesAreNearExact() {
+        HyperLogLog subject = new HyperLogLog(12);
+        for (long i = 0; i < 100; i++) {
+            subject.offer(i);
+        }
+        assertWithin(100, subject.estimate(), 0.03);
+    }
+
+    @Test
+    public void testLargeCardinalitiesWithinError() {
+        HyperLogLog subject = new HyperLogLog(12);
+        for (long i = 0; i < 1000000; i++) {
+            subject.offer(i * 7919);
+        }
+        // 1.04 / sqrt(4096) is 1.6%; allow three standard errors
+        assertWithin(1000000, subject.estimate(), 0.05);
+    }
+
+    @Test
+    public void testDuplicatesDoNotCount() {
+        HyperLogLog subject = new HyperLogLog(12);
+        for (int repeat = 0; repeat < 50; repeat++) {
+            for (long i = 0; i < 10000; i++) {
+                subject.offer(i);
+            }
+        }
+        assertWithin(10000, subject.estimate(), 0.05);
+    }
+
+    @Test
+    public void testRejectsPrecisionOutOfRange() {
+        for (int precision : new int[]{HyperLogLog.MIN_PRECISION - 1, HyperLogLog.MAX_PRECISION + 1}) {
+            try {
+                new HyperLogLog(precision);
+                fail("Expected precision " + precision + " to be rejected");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import com.ccycloud.aws.statsd.impl.MetricBatcher;
+import com.ccycloud.aws.statsd.impl.MetricEncoder;
+import com.ccycloud.aws.statsd.impl.transport.RecordingConnection;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SetAggregatorTest extends TestCase {
+
+    private RecordingConnection connection = new RecordingConnection();
+    private MetricBatcher batcher = new MetricBatcher(connection, 1432);
+
+    private List<String> flush(SetAggregator subject) {
+        subject.flushTo(batcher);
+        batcher.flush();
+        return connection.getLines();
+    }
+
+    @Test
+    public void testValuesAreDeduplicatedPerInterval() {
+        SetAggregator subject = new SetAggregator(new MetricEncoder(), 100, 0);
+        Map<String,String> tags = new HashMap<String,String>();
+        tags.put("region", "eu");
+
+        for (int i = 0; i < 500; i++) {
+            subject.add("app", "users", tags, 42);
+        }
+        subject.add("app", "users", tags, 7);
+        subject.add("app", "users", null, 42);
+
+        assertEquals(new HashSet<String>(Arrays.asList("app.users,region=eu:42|s", "app.users,region=eu:7|s", "app.users:42|s")),
+                new HashSet<String>(flush(subject)));
+        assertEquals(3, connection.getLines().size());
+    }
+
+    @Test
+    public void testEachIntervalStartsEmpty() {
+        SetAggregator subject = new SetAggregator(new MetricEncoder(), 100, 0);
+
+        subject.add("app", "users", null, 1);
+        assertEquals(Arrays.asList("app.users:1|s"), flush(subject));
+        assertEquals(0, subject.size());
+
+        assertEquals("Nothing new to send", 1, flush(subject).size());
+    }
+
+    @Test
+    public void testStaysExactWithoutSketchUpToTheLimit() {
+        SetAggregator subject = new SetAggregator(new MetricEncoder(), 10, 0);
+        for (int i = 0; i < 50; i++) {
+            subject.add("app", "users", null, i);
+        }
+        subject.add("app", "users", null, 3);
+        assertEquals(10, flush(subject).size());
+        assertEquals("Values past the limit are dropped and counted", 40, subject.getDroppedCount());
+
+        subject.add("app", "users", null, 99);
+        assertEquals("The next interval starts empty", "app.users:99|s", flush(subject).get(10));
+    }
+
+    @Test
+    public void testLargeSetsSwitchToCardinalityGauge() {
+        SetAggregator subject = new SetAggregator(new MetricEncoder(), 10, 12);
+        for (int i = 0; i < 5; i++) {
+            subject.add("app", "small", null, i);
+        }
+        for (int repeat = 0; repeat < 3; repeat++) {
+            for (int i = 0; i < 2000; i++) {
+                subject.add("app", "users", null, i);
+            }
+        }
+
+        List<String> lines = flush(subject);
+        assertEquals(6, lines.size());
+        String estimate = null;
+        for (String line : lines) {
+            if (line.startsWith("app.users")) {
+                estimate = line;
+            }
+        }
+        assertNotNull(estimate);
+        assertTrue(estimate, estimate.startsWith("app.users.cardinality:") && estimate.endsWith("|g"));
+        long value = Long.parseLong(estimate.substring("app.users.cardinality:".length(), estimate.length() - 2));
+        assertTrue("Estimate " + value, Math.abs(value - 2000) < 100);
+    }
+
+    @Test
+    public void testRejectsBadPrecisionUpFront() {
+        try {
+            new SetAggregator(new MetricEncoder(), 10, 40);
+            fail("Expected the precision to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+}
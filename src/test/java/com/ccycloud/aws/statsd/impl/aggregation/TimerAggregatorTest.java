@@ -0,0 +1,124 @@
+package com.ccycloud.aws.statsd.impl.aggregation;
+
+import com.ccycloud.aws.statsd.impl.MetricBatcher;
+import com.ccycloud.aws.statsd.impl.MetricEncoder;
+import com.ccycloud.aws.statsd.impl.transport.RecordingConnection;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TimerAggregatorTest extends TestCase {
+
+    private RecordingConnection connection = new RecordingConnection();
+    private MetricBatcher batcher = new MetricBatcher(connection, 1432);
+
+    @Test
+    public void testSummariesAreEmittedPerSeries() {
+        TimerAggregator subject = new TimerAggregator(new MetricEncoder(), TimerSummary.parse("count,min,max,p50,p99.9"), 0);
+        for (int i = 1; i <= 10; i++) {
+            subject.record("app", "latency", null, i);
+        }
+        subject.flushTo(batcher);
+        batcher.flush();
+
+        // percentiles are the midpoint of their histogram bucket, 5000us falling in 4992-5119us
+        assertEquals(Arrays.asList("app.latency.count:10|c", "app.latency.min:1|g", "app.latency.max:10|g",
+                "app.latency.p50:5.055|g", "app.latency.p99_9:10|g"), connection.getLines());
+
+        subject.flushTo(batcher);
+        assertEquals("An idle series is evicted", 0, subject.size());
+    }
+
+    @Test
+    public void testSampledModeSendsAllTimingsBelowTheLimit() {
+        TimerAggregator subject = new TimerAggregator(new MetricEncoder(), TimerSummary.parse(TimerSummary.DEFAULT_SUMMARIES), 5);
+        subject.record("app", "latency", null, 3);
+        subject.record("app", "latency", null, 7);
+        subject.flushTo(batcher);
+        batcher.flush();
+
+        assertEquals(Arrays.asList("app.latency:3|ms", "app.latency:6.975|ms"), connection.getLines());
+    }
+
+    @Test
+    public void testSubMillisecondTimingsKeepTheirResolution() {
+        TimerAggregator subject = new TimerAggregator(new MetricEncoder(), TimerSummary.parse("count,min,max"), 0);
+        subject.record("app", "latency", null, 0.25);
+        subject.record("app", "latency", null, 0.0004);
+        subject.record("app", "latency", null, 0.75);
+        subject.flushTo(batcher);
+        batcher.flush();
+
+        assertEquals(Arrays.asList("app.latency.count:3|c", "app.latency.min:0|g", "app.latency.max:0.75|g"),
+                connection.getLines());
+    }
+
+    @Test
+    public void testSampledModeBoundsLinesPerSeries() {
+        TimerAggregator subject = new TimerAggregator(new MetricEncoder(), TimerSummary.parse(TimerSummary.DEFAULT_SUMMARIES), 2);
+        for (int i = 0; i < 20; i++) {
+            subject.record("app", "latency", null, i < 10 ? 1 : 9);
+        }
+        subject.flushTo(batcher);
+        batcher.flush();
+
+        assertEquals(Arrays.asList("app.latency:1|ms@0.100000", "app.latency:9|ms@0.100000"), connection.getLines());
+    }
+
+    @Test
+    public void testUnknownSummaryRejected() {
+        try {
+            TimerSummary.parse("count,median");
+            fail("Expected an unknown summary to be rejected");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testNoTimingIsLostToEviction() throws Exception {
+        final TimerAggregator subject = new TimerAggregator(new MetricEncoder(), TimerSummary.parse("count"), 0);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    for (int j = 0; j < 20000; j++) {
+                        subject.record("app", "latency", null, j % 50);
+                        if (j % 100 == 0) {
+                            // leave the series idle now and then, so flushes evict it
+                            Thread.yield();
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        Thread flusher = new Thread(new Runnable() {
+            public void run() {
+                while (!done.get()) {
+                    subject.flushTo(batcher);
+                }
+            }
+        });
+        flusher.start();
+        for (Thread t : threads) {
+            t.join();
+        }
+        done.set(true);
+        flusher.join();
+        subject.flushTo(batcher);
+        batcher.flush();
+
+        long total = 0;
+        for (String line : connection.getLines()) {
+            total += Long.parseLong(line.substring("app.latency.count:".length(), line.indexOf('|')));
+        }
+        assertEquals(80000, total);
+    }
+}
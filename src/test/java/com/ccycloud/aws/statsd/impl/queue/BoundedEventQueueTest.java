@@ -0,0 +1,99 @@
+package com.ccycloud.aws.statsd.impl.queue;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BoundedEventQueueTest extends TestCase {
+
+    private static byte[] event(int length, int marker) {
+        byte[] event = new byte[length];
+        event[0] = (byte) marker;
+        return event;
+    }
+
+    @Test
+    public void testDropNewestWhenEntriesExhausted() {
+        BoundedEventQueue subject = new BoundedEventQueue(2, 1000, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS);
+
+        assertTrue(subject.offer(event(10, 1)));
+        assertTrue(subject.offer(event(10, 2)));
+        assertFalse(subject.offer(event(10, 3)));
+
+        assertEquals(1, subject.getDroppedCount());
+        assertEquals(1, subject.poll()[0]);
+        assertEquals(2, subject.poll()[0]);
+        assertNull(subject.poll());
+        assertTrue(subject.isEmpty());
+    }
+
+    @Test
+    public void testDropNewestWhenBytesExhausted() {
+        BoundedEventQueue subject = new BoundedEventQueue(100, 25, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS);
+
+        assertTrue(subject.offer(event(10, 1)));
+        assertTrue(subject.offer(event(10, 2)));
+        assertFalse(subject.offer(event(10, 3)));
+        assertTrue("A smaller event still fits", subject.offer(event(5, 4)));
+
+        assertEquals(25, subject.sizeInBytes());
+        assertEquals(1, subject.getDroppedCount());
+    }
+
+    @Test
+    public void testDropOldestMakesRoom() {
+        BoundedEventQueue subject = new BoundedEventQueue(2, 1000, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS);
+
+        subject.offer(event(10, 1));
+        subject.offer(event(10, 2));
+        assertTrue(subject.offer(event(10, 3)));
+
+        assertEquals(1, subject.getDroppedCount());
+        assertEquals(2, subject.poll()[0]);
+        assertEquals(3, subject.poll()[0]);
+    }
+
+    @Test
+    public void testEventLargerThanCapacityIsDropped() {
+        BoundedEventQueue subject = new BoundedEventQueue(10, 5, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS);
+
+        assertFalse(subject.offer(event(6, 1)));
+        assertEquals(1, subject.getDroppedCount());
+    }
+
+    @Test
+    public void testBlockTimesOutAndDrops() {
+        BoundedEventQueue subject = new BoundedEventQueue(1, 1000, OverflowPolicy.BLOCK, 20, TimeUnit.MILLISECONDS);
+        subject.offer(event(10, 1));
+
+        long start = System.nanoTime();
+        assertFalse(subject.offer(event(10, 2)));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(1, subject.getDroppedCount());
+    }
+
+    @Test
+    public void testBlockedProducerResumesWhenConsumerMakesRoom() throws Exception {
+        final BoundedEventQueue subject = new BoundedEventQueue(1, 1000, OverflowPolicy.BLOCK, 10, TimeUnit.SECONDS);
+        subject.offer(event(10, 1));
+
+        final boolean[] result = new boolean[1];
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                result[0] = subject.offer(event(10, 2));
+            }
+        });
+        producer.start();
+        Thread.sleep(50);
+        assertEquals(1, subject.poll()[0]);
+        producer.join(5000);
+
+        assertTrue(result[0]);
+        assertEquals(2, subject.poll()[0]);
+        assertEquals(0, subject.getDroppedCount());
+    }
+}
@@ -0,0 +1,175 @@
+package com.ccycloud.aws.statsd.impl.queue;
+
+import com.ccycloud.aws.statsd.impl.MetricBatcher;
+import com.ccycloud.aws.statsd.impl.transport.RecordingConnection;
+import junit.framework.TestCase;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(MockitoJUnitRunner.class)
+public class RingBufferTest extends TestCase {
+
+    private RecordingConnection connection;
+    private MetricBatcher batcher;
+
+    @Before
+    public void setUp() {
+        connection = new RecordingConnection();
+        batcher = new MetricBatcher(connection, 1432);
+    }
+
+    private static LineWriter line(final String text) {
+        return new LineWriter() {
+            @Override
+            public void writeTo(ByteBuffer dst) {
+                dst.put(text.getBytes(StandardCharsets.ISO_8859_1));
+            }
+        };
+    }
+
+    private List<String> drain(RingBuffer subject) {
+        subject.drainTo(batcher);
+        batcher.flush();
+        return connection.getLines();
+    }
+
+    @Test
+    public void testSlotCountRoundedUpToPowerOfTwo() {
+        assertEquals(8, new RingBuffer(5, 16, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS).getSlotCount());
+        assertEquals(8, new RingBuffer(8, 16, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS).getSlotCount());
+        assertEquals(1, new RingBuffer(1, 16, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS).getSlotCount());
+    }
+
+    @Test
+    public void testDrainsInOrder() {
+        RingBuffer subject = new RingBuffer(4, 16, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS);
+
+        assertTrue(subject.offer(line("a:1|c")));
+        assertTrue(subject.offer(line("b:2|c")));
+        assertEquals(2, subject.size());
+
+        assertEquals(Arrays.asList("a:1|c", "b:2|c"), drain(subject));
+        assertTrue(subject.isEmpty());
+    }
+
+    @Test
+    public void testDropNewestWhenFull() {
+        RingBuffer subject = new RingBuffer(2, 16, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS);
+
+        assertTrue(subject.offer(line("a:1|c")));
+        assertTrue(subject.offer(line("b:2|c")));
+        assertFalse(subject.offer(line("c:3|c")));
+
+        assertEquals(1, subject.getDroppedCount());
+        assertEquals(Arrays.asList("a:1|c", "b:2|c"), drain(subject));
+    }
+
+    @Test
+    public void testDropOldestFallsBackToDropNewest() {
+        RingBuffer subject = new RingBuffer(1, 16, OverflowPolicy.DROP_OLDEST, 0, TimeUnit.MILLISECONDS);
+
+        assertTrue(subject.offer(line("a:1|c")));
+        assertFalse(subject.offer(line("b:2|c")));
+
+        assertEquals(Arrays.asList("a:1|c"), drain(subject));
+    }
+
+    @Test
+    public void testBlockTimesOutWhenFull() {
+        RingBuffer subject = new RingBuffer(1, 16, OverflowPolicy.BLOCK, 5, TimeUnit.MILLISECONDS);
+
+        assertTrue(subject.offer(line("a:1|c")));
+        assertFalse(subject.offer(line("b:2|c")));
+        assertEquals(1, subject.getDroppedCount());
+    }
+
+    @Test
+    public void testLineWhoseEncodingThrowsIsSkipped() {
+        RingBuffer subject = new RingBuffer(4, 16, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS);
+
+        assertTrue(subject.offer(line("a:1|c")));
+        try {
+            subject.offer(new LineWriter() {
+                @Override
+                public void writeTo(ByteBuffer dst) {
+                    throw new IllegalArgumentException("tags changed while encoding");
+                }
+            });
+            fail("The encoding failure should reach the caller");
+        } catch (IllegalArgumentException expected) {
+            // and the slot it claimed is still published
+        }
+        assertTrue(subject.offer(line("b:2|c")));
+
+        assertEquals(1, subject.getDroppedCount());
+        assertEquals(Arrays.asList("a:1|c", "b:2|c"), drain(subject));
+        assertTrue(subject.isEmpty());
+    }
+
+    @Test
+    public void testOversizedLineIsSkipped() {
+        RingBuffer subject = new RingBuffer(4, 8, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS);
+
+        assertTrue(subject.offer(line("a:1|c")));
+        assertFalse(subject.offer(line("much.too.long:1|c")));
+        assertTrue(subject.offer(line("b:2|c")));
+
+        assertEquals(1, subject.getDroppedCount());
+        assertEquals(Arrays.asList("a:1|c", "b:2|c"), drain(subject));
+    }
+
+    @Test
+    public void testWrapsAround() {
+        RingBuffer subject = new RingBuffer(2, 16, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS);
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(subject.offer(line("m:" + i + "|c")));
+            subject.drainTo(batcher);
+        }
+        batcher.flush();
+
+        assertEquals(10, connection.getLines().size());
+        assertEquals("m:9|c", connection.getLines().get(9));
+        assertEquals(0, subject.getDroppedCount());
+    }
+
+    @Test
+    public void testConcurrentProducersLoseNothing() throws InterruptedException {
+        final RingBuffer subject = new RingBuffer(1024, 32, OverflowPolicy.BLOCK, 5000, TimeUnit.MILLISECONDS);
+        final int producers = 4;
+        final int perProducer = 20000;
+        final CountDownLatch done = new CountDownLatch(producers);
+
+        for (int p = 0; p < producers; p++) {
+            final LineWriter writer = line("p" + p + ":1|c");
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        subject.offer(writer);
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+
+        int drained = 0;
+        while (done.getCount() > 0 || !subject.isEmpty()) {
+            drained += subject.drainTo(batcher);
+        }
+        batcher.flush();
+
+        assertEquals(producers * perProducer, drained);
+        assertEquals(producers * perProducer, connection.getLines().size());
+        assertEquals(0, subject.getDroppedCount());
+    }
+}
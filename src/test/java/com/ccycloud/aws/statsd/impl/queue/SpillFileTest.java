@@ -0,0 +1,163 @@
+package com.ccycloud.aws.statsd.impl.queue;
+
+import com.ccycloud.aws.statsd.impl.MetricBatcher;
+import com.ccycloud.aws.statsd.impl.transport.RecordingConnection;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SpillFileTest extends TestCase {
+
+    private File path;
+    private RecordingConnection connection;
+    private MetricBatcher batcher;
+    private SpillFile subject;
+
+    @Before
+    public void setUp() throws IOException {
+        path = File.createTempFile("statsd", ".spill");
+        path.delete();
+        connection = new RecordingConnection();
+        batcher = new MetricBatcher(connection, 1432);
+    }
+
+    @After
+    public void cleanUp() {
+        if (null != subject) {
+            subject.close();
+        }
+        path.delete();
+    }
+
+    private static LineWriter line(final String text) {
+        return new LineWriter() {
+            @Override
+            public void writeTo(ByteBuffer dst) {
+                dst.put(text.getBytes(StandardCharsets.ISO_8859_1));
+            }
+        };
+    }
+
+    private List<String> replay(SpillFile spill, int maxLines) {
+        spill.replayTo(batcher, maxLines);
+        batcher.flush();
+        return connection.getLines();
+    }
+
+    @Test
+    public void testReplaysInOrderAcrossTheEndOfTheFile() throws IOException {
+        // room for two 5 byte lines and their lengths, so the third wraps around the end
+        subject = new SpillFile(path, 16);
+        assertEquals(SpillFile.HEADER_SIZE + 16, path.length());
+
+        assertTrue(subject.append(line("a:1|c")));
+        assertTrue(subject.append(line("b:2|c")));
+        assertEquals(Arrays.asList("a:1|c"), replay(subject, 1));
+        assertTrue(subject.append(line("c:3|c")));
+        assertEquals(2, subject.size());
+
+        assertEquals(Arrays.asList("a:1|c", "b:2|c", "c:3|c"), replay(subject, 10));
+        assertTrue(subject.isEmpty());
+    }
+
+    @Test
+    public void testDropsLinesWhichDoNotFit() throws IOException {
+        subject = new SpillFile(path, 16);
+
+        assertTrue(subject.append(line("a:1|c")));
+        assertTrue(subject.append(line("b:2|c")));
+        assertFalse(subject.append(line("c:3|c")));
+
+        assertEquals(1, subject.getDroppedCount());
+        assertEquals(Arrays.asList("a:1|c", "b:2|c"), replay(subject, 10));
+    }
+
+    @Test
+    public void testLinesOutliveTheProcess() throws IOException {
+        SpillFile first = new SpillFile(path, 1024);
+        first.append(line("a:1|c"));
+        first.append(line("b:2|c"));
+        first.replayTo(batcher, 1);
+        first.close();
+        assertFalse(first.append(line("c:3|c")));
+
+        subject = new SpillFile(path, 1024);
+        assertEquals(1, subject.size());
+        assertEquals(Arrays.asList("a:1|c", "b:2|c"), replay(subject, 10));
+    }
+
+    @Test
+    public void testResizingStartsAfresh() throws IOException {
+        SpillFile first = new SpillFile(path, 1024);
+        first.append(line("a:1|c"));
+        first.close();
+
+        subject = new SpillFile(path, 2048);
+        assertTrue(subject.isEmpty());
+        assertEquals(SpillFile.HEADER_SIZE + 2048, path.length());
+    }
+
+    @Test
+    public void testOnlyOneClientSpillsIntoAFile() throws IOException {
+        subject = new SpillFile(path, 1024);
+        try {
+            new SpillFile(path, 1024);
+            fail("A second client should not open a spill file in use");
+        } catch (IOException expected) {
+            // the first still has it
+        }
+        assertTrue(subject.append(line("a:1|c")));
+    }
+
+    @Test
+    public void testOverflowIsSpilledAndReplayedAtTheRate() throws IOException {
+        subject = new SpillFile(path, 1024);
+        RingBuffer memory = new RingBuffer(2, 16, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS);
+        SpillingEventBuffer buffer = new SpillingEventBuffer(memory, subject, 1);
+
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 4; i++) {
+            String text = "m" + i + ":1|c";
+            assertTrue(buffer.offer(line(text)));
+            expected.add(text);
+        }
+        assertEquals(0, buffer.getDroppedCount());
+        assertEquals(4, buffer.size());
+
+        // the memory buffer first, then the one line a second the rate allows
+        assertEquals(2, buffer.drainTo(batcher));
+        assertEquals(1, buffer.drainTo(batcher));
+        assertEquals(0, buffer.drainTo(batcher));
+        assertTrue(buffer.isEmpty());
+        assertEquals(1, buffer.size());
+        batcher.flush();
+        assertEquals(expected.subList(0, 3), connection.getLines());
+    }
+
+    @Test
+    public void testSpillAllEmptiesTheMemoryBuffer() throws IOException {
+        subject = new SpillFile(path, 1024);
+        RingBuffer memory = new RingBuffer(4, 16, OverflowPolicy.DROP_NEWEST, 0, TimeUnit.MILLISECONDS);
+        SpillingEventBuffer buffer = new SpillingEventBuffer(memory, subject, 0);
+        buffer.offer(line("a:1|c"));
+        buffer.offer(line("b:2|c"));
+
+        assertEquals(2, buffer.spillAll());
+        assertTrue(memory.isEmpty());
+        assertTrue(buffer.isEmpty());
+        assertEquals(Arrays.asList("a:1|c", "b:2|c"), replay(subject, 10));
+    }
+}
@@ -0,0 +1,81 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BackoffTest extends TestCase {
+
+    @Test
+    public void testDelaysDoubleWithJitterUpToTheMaximum() {
+        Backoff subject = new Backoff(100, 800, TimeUnit.NANOSECONDS);
+        long[] ceilings = {100, 200, 400, 800, 800, 800};
+        for (long ceiling : ceilings) {
+            long delay = subject.nextDelayNanos();
+            assertTrue("delay " + delay + " for ceiling " + ceiling, delay >= ceiling / 2 && delay <= ceiling);
+        }
+
+        subject.reset();
+        long delay = subject.nextDelayNanos();
+        assertTrue(delay >= 50 && delay <= 100);
+    }
+
+    @Test
+    public void testDelaysAreSpreadOut() {
+        long first = new Backoff(1, 1000000, TimeUnit.MILLISECONDS).nextDelayNanos();
+        for (int i = 0; i < 10; i++) {
+            if (new Backoff(1, 1000000, TimeUnit.MILLISECONDS).nextDelayNanos() != first) {
+                return;
+            }
+        }
+        fail("Every client would retry at the same moment");
+    }
+
+    @Test
+    public void testSupervisorRetriesUntilConnected() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final CountDownLatch connected = new CountDownLatch(1);
+        ReconnectSupervisor subject = new ReconnectSupervisor(new ReconnectSupervisor.Attempt() {
+            @Override
+            public boolean connect() {
+                if (attempts.incrementAndGet() < 3) {
+                    return false;
+                }
+                connected.countDown();
+                return true;
+            }
+        }, new Backoff(1, 10, TimeUnit.MILLISECONDS));
+
+        subject.retry();
+
+        assertTrue(connected.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(3, attempts.get());
+        assertFalse(subject.isRetrying());
+    }
+
+    @Test
+    public void testStoppedSupervisorMakesNoMoreAttempts() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        ReconnectSupervisor subject = new ReconnectSupervisor(new ReconnectSupervisor.Attempt() {
+            @Override
+            public boolean connect() {
+                attempts.incrementAndGet();
+                return false;
+            }
+        }, new Backoff(200, 200, TimeUnit.MILLISECONDS));
+
+        subject.retry();
+        subject.stop();
+        Thread.sleep(400);
+
+        assertEquals(0, attempts.get());
+        assertFalse(subject.isRetrying());
+    }
+}
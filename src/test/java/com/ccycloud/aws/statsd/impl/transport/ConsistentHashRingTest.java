@@ -0,0 +1,80 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ConsistentHashRingTest extends TestCase {
+
+    private static final int KEYS = 30000;
+
+    private static int[] assign(ConsistentHashRing ring) {
+        int[] owners = new int[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            byte[] key = ("app.series_" + i + ",host=web" + (i % 7)).getBytes(StandardCharsets.ISO_8859_1);
+            owners[i] = ring.nodeFor(key, 0, key.length);
+        }
+        return owners;
+    }
+
+    @Test
+    public void testKeysSpreadEvenly() {
+        int[] owners = assign(new ConsistentHashRing(Arrays.asList("a:8125", "b:8125", "c:8125"), 160));
+        int[] counts = new int[3];
+        for (int owner : owners) {
+            counts[owner]++;
+        }
+        for (int count : counts) {
+            assertTrue("Uneven spread " + Arrays.toString(counts), Math.abs(count - KEYS / 3) < KEYS / 3 * 0.2);
+        }
+    }
+
+    @Test
+    public void testAddingANodeOnlyMovesKeysToIt() {
+        int[] before = assign(new ConsistentHashRing(Arrays.asList("a:8125", "b:8125", "c:8125"), 160));
+        int[] after = assign(new ConsistentHashRing(Arrays.asList("a:8125", "b:8125", "c:8125", "d:8125"), 160));
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (before[i] != after[i]) {
+                assertEquals("Keys only move to the new node", 3, after[i]);
+                moved++;
+            }
+        }
+        assertTrue("Expected about a quarter of keys to move, moved " + moved, moved > KEYS * 0.15 && moved < KEYS * 0.35);
+    }
+
+    @Test
+    public void testRemovingANodeOnlyMovesItsKeys() {
+        List<String> nodes = Arrays.asList("a:8125", "b:8125", "c:8125");
+        int[] before = assign(new ConsistentHashRing(nodes, 160));
+        // dropping b renumbers c from 2 to 1
+        int[] after = assign(new ConsistentHashRing(Arrays.asList("a:8125", "c:8125"), 160));
+
+        for (int i = 0; i < KEYS; i++) {
+            if (before[i] == 0) {
+                assertEquals(0, after[i]);
+            } else if (before[i] == 2) {
+                assertEquals(1, after[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testBufferAndArrayAgree() {
+        ConsistentHashRing ring = new ConsistentHashRing(Arrays.asList("a:8125", "b:8125", "c:8125"), 160);
+        for (int i = 0; i < 100; i++) {
+            byte[] key = ("xx" + "series_" + i).getBytes(StandardCharsets.ISO_8859_1);
+            ByteBuffer direct = ByteBuffer.allocateDirect(key.length);
+            direct.put(key);
+            assertEquals(ring.nodeFor(key, 2, key.length - 2), ring.nodeFor(direct, 2, key.length - 2));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DatagramChannelConnectionTest extends TestCase {
+
+    private DatagramSocket receiver;
+    private DatagramChannelConnection subject;
+
+    @Before
+    public void init() throws IOException {
+        receiver = new DatagramSocket(0, InetAddress.getByName("127.0.0.1"));
+        receiver.setSoTimeout(2000);
+        subject = new DatagramChannelConnection("127.0.0.1", receiver.getLocalPort());
+    }
+
+    @After
+    public void cleanUp() {
+        subject.disconnect();
+        receiver.close();
+    }
+
+    private String receive() throws IOException {
+        DatagramPacket packet = new DatagramPacket(new byte[1500], 1500);
+        receiver.receive(packet);
+        return new String(packet.getData(), packet.getOffset(), packet.getLength(), StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void testNotConnectedUntilConnect() throws Exception {
+        assertFalse(subject.isConnected());
+        assertFalse(subject.send("a:1|c"));
+
+        subject.connect();
+        assertTrue(subject.isConnected());
+
+        subject.disconnect();
+        assertFalse(subject.isConnected());
+    }
+
+    @Test
+    public void testSendsEachForm() throws Exception {
+        subject.connect();
+
+        assertTrue(subject.send("a:1|c"));
+        assertEquals("a:1|c", receive());
+
+        byte[] bytes = "xxb:2|cxx".getBytes(StandardCharsets.ISO_8859_1);
+        assertTrue(subject.send(bytes, 2, 5));
+        assertEquals("b:2|c", receive());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(16);
+        direct.put("c:3|c".getBytes(StandardCharsets.ISO_8859_1)).flip();
+        assertTrue(subject.send(direct));
+        assertEquals("c:3|c", receive());
+        assertFalse("The buffer is consumed", direct.hasRemaining());
+
+        ByteBuffer heap = ByteBuffer.wrap("d:4|c".getBytes(StandardCharsets.ISO_8859_1));
+        assertTrue(subject.send(heap));
+        assertEquals("d:4|c", receive());
+        assertFalse("The buffer is consumed", heap.hasRemaining());
+    }
+
+    @Test
+    public void testReconnectReplacesChannel() throws Exception {
+        subject.connect();
+        subject.connect();
+
+        assertTrue(subject.send("a:1|c"));
+        assertEquals("a:1|c", receive());
+    }
+}
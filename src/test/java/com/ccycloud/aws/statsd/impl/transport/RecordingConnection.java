@@ -0,0 +1,79 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * In-memory connection which keeps every datagram sent, for asserting on exactly what went over the wire
+ */
+public class RecordingConnection implements UdpConnectionInterface {
+    private final List<String> packets = new ArrayList<String>();
+    private volatile boolean connected = true;
+    private volatile boolean ready = true;
+
+    @Override
+    public boolean isConnected() {
+        return connected;
+    }
+
+    @Override
+    public boolean isReady() {
+        return connected && ready;
+    }
+
+    /**
+     * Hold sends back, as a transport still resolving its server would
+     */
+    public void setReady(boolean ready) {
+        this.ready = ready;
+    }
+
+    @Override
+    public synchronized boolean send(String message) {
+        packets.add(message);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean send(byte[] message, int offset, int length) {
+        packets.add(new String(message, offset, length, StandardCharsets.ISO_8859_1));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean send(ByteBuffer message) {
+        byte[] copy = new byte[message.remaining()];
+        message.get(copy);
+        packets.add(new String(copy, StandardCharsets.ISO_8859_1));
+        return true;
+    }
+
+    @Override
+    public void connect() throws SocketException {
+        connected = true;
+    }
+
+    @Override
+    public void disconnect() {
+        connected = false;
+    }
+
+    public synchronized List<String> getPackets() {
+        return new ArrayList<String>(packets);
+    }
+
+    /**
+     * @return every metric line sent, in order, regardless of how they were packed into datagrams
+     */
+    public synchronized List<String> getLines() {
+        List<String> lines = new ArrayList<String>();
+        for (String packet : packets) {
+            lines.addAll(Arrays.asList(packet.split("\n")));
+        }
+        return lines;
+    }
+}
@@ -0,0 +1,83 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ResolvedAddressTest extends TestCase {
+
+    @Test
+    public void testLiteralsNeedNoLookup() {
+        assertTrue(ResolvedAddress.isLiteral("127.0.0.1"));
+        assertTrue(ResolvedAddress.isLiteral("::1"));
+        assertFalse(ResolvedAddress.isLiteral("localhost"));
+        assertFalse(ResolvedAddress.isLiteral("statsd-1.example.com"));
+        assertFalse(ResolvedAddress.isLiteral(""));
+
+        InetSocketAddress address = new ResolvedAddress("127.0.0.1", 8125, 60000).get();
+        assertNotNull(address);
+        assertEquals("127.0.0.1", address.getAddress().getHostAddress());
+        assertEquals(8125, address.getPort());
+    }
+
+    @Test
+    public void testTtlMustBePositive() {
+        for (long ttl : new long[]{0, -1}) {
+            try {
+                new ResolvedAddress("localhost", 8125, ttl);
+                fail("Expected a TTL of " + ttl + " to be rejected");
+            } catch (IllegalArgumentException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testHostnamesAreResolvedInTheBackground() throws Exception {
+        ResolvedAddress subject = new ResolvedAddress("localhost", 8125, 60000);
+        assertNull(subject.get());
+
+        final AtomicReference<InetSocketAddress> notified = new AtomicReference<InetSocketAddress>();
+        final CountDownLatch resolved = new CountDownLatch(1);
+        subject.start(new ResolvedAddress.Listener() {
+            @Override
+            public void resolved(InetSocketAddress address) {
+                notified.set(address);
+                resolved.countDown();
+            }
+        });
+        try {
+            assertTrue(resolved.await(5, TimeUnit.SECONDS));
+        } finally {
+            subject.stop();
+        }
+
+        assertNotNull(subject.get());
+        assertEquals(subject.get(), notified.get());
+        assertEquals(8125, subject.get().getPort());
+    }
+
+    @Test
+    public void testListenerIsOnlyToldOfChanges() {
+        ResolvedAddress subject = new ResolvedAddress("127.0.0.1", 8125, 60000);
+        final AtomicReference<InetSocketAddress> notified = new AtomicReference<InetSocketAddress>();
+        subject.start(new ResolvedAddress.Listener() {
+            @Override
+            public void resolved(InetSocketAddress address) {
+                notified.set(address);
+            }
+        });
+        subject.stop();
+
+        // the literal was known before the lookup, so looking it up again changes nothing
+        assertTrue(subject.resolve());
+        assertNull(notified.get());
+    }
+}
@@ -0,0 +1,198 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import com.ccycloud.aws.statsd.impl.MetricBatcher;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TcpConnectionTest extends TestCase {
+
+    private StandInServer server;
+    private TcpConnection subject;
+
+    @After
+    public void cleanUp() throws IOException {
+        if (null != subject) {
+            subject.disconnect();
+        }
+        if (null != server) {
+            server.close();
+        }
+    }
+
+    private static int freePort() throws IOException {
+        ServerSocket socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        int port = socket.getLocalPort();
+        socket.close();
+        return port;
+    }
+
+    private static void awaitLines(StandInServer server, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (server.getLineCount() < count && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testDeliversLinesInOrderAndFlushesOnDisconnect() throws Exception {
+        server = new StandInServer(0, true);
+        subject = new TcpConnection("127.0.0.1", server.getPort(), 4096, 4096, 10, TimeUnit.SECONDS, 1000);
+        subject.connect();
+        assertTrue(subject.isConnected());
+
+        assertTrue(subject.send("a:1|c"));
+        assertTrue(subject.send("b:2|c\nc:3|c"));
+        subject.disconnect();
+        assertFalse(subject.isConnected());
+        assertFalse("Closed connections accept nothing", subject.send("d:4|c"));
+
+        awaitLines(server, 3);
+        assertEquals(Arrays.asList("a:1|c", "b:2|c", "c:3|c"), server.getLines());
+    }
+
+    @Test
+    public void testFlushesOnInterval() throws Exception {
+        server = new StandInServer(0, true);
+        subject = new TcpConnection("127.0.0.1", server.getPort(), 4096, 4096, 20, TimeUnit.MILLISECONDS, 1000);
+        subject.connect();
+
+        subject.send("a:1|c");
+        awaitLines(server, 1);
+        assertEquals(Arrays.asList("a:1|c"), server.getLines());
+    }
+
+    @Test
+    public void testBuffersUntilServerAppears() throws Exception {
+        int port = freePort();
+        subject = new TcpConnection("127.0.0.1", port, 4096, 16, 20, TimeUnit.MILLISECONDS, 200);
+        subject.connect();
+
+        assertTrue("Buffered while the server is down", subject.send("a:1|c"));
+        Thread.sleep(150);
+        server = new StandInServer(port, true);
+
+        awaitLines(server, 1);
+        assertEquals(Arrays.asList("a:1|c"), server.getLines());
+    }
+
+    @Test
+    public void testDropsWhenBufferFull() throws Exception {
+        subject = new TcpConnection("127.0.0.1", freePort(), 16, 16, 10, TimeUnit.SECONDS, 200);
+        subject.connect();
+
+        assertTrue(subject.send("a:1234567890|c"));
+        assertFalse(subject.send("b:2|c"));
+        assertEquals(1, subject.getDroppedCount());
+    }
+
+    @Test
+    public void testThroughputAgainstLocalServer() throws Exception {
+        server = new StandInServer(0, false);
+        subject = new TcpConnection("127.0.0.1", server.getPort(), 1024 * 1024, 64 * 1024, 100, TimeUnit.MILLISECONDS, 1000);
+        subject.connect();
+        MetricBatcher batcher = new MetricBatcher(subject, 8932);
+        byte[] line = "pricing_engine.quote_time,service=pricing:12|ms".getBytes(StandardCharsets.ISO_8859_1);
+        int lines = 500000;
+
+        long start = System.nanoTime();
+        int sent = 0;
+        while (sent < lines) {
+            // stand in for a dispatcher which keeps up with the writer rather than overrunning its buffer
+            if (subject.getDroppedCount() > 0) {
+                fail("Buffer overran");
+            }
+            batcher.add(line);
+            sent++;
+            if (sent % 1000 == 0) {
+                batcher.flush();
+                while (server.getLineCount() < sent - 20000) {
+                    Thread.yield();
+                }
+            }
+        }
+        batcher.flush();
+        awaitLines(server, lines);
+        long elapsed = System.nanoTime() - start;
+
+        assertEquals(lines, server.getLineCount());
+        System.out.println(String.format("TCP transport delivered %d lines in %d ms (%.0f lines/s)",
+                lines, TimeUnit.NANOSECONDS.toMillis(elapsed), lines / (elapsed / 1e9)));
+    }
+
+    /**
+     * Accepts one connection at a time and reads newline delimited lines, as a statsd relay would
+     */
+    private static class StandInServer implements Runnable {
+        private final ServerSocket socket;
+        private final boolean keepLines;
+        private final List<String> lines = new ArrayList<String>();
+        private volatile int lineCount = 0;
+        private final Thread thread;
+
+        StandInServer(int port, boolean keepLines) throws IOException {
+            this.socket = new ServerSocket();
+            this.socket.setReuseAddress(true);
+            this.socket.bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+            this.keepLines = keepLines;
+            this.thread = new Thread(this);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        int getPort() {
+            return socket.getLocalPort();
+        }
+
+        int getLineCount() {
+            return lineCount;
+        }
+
+        synchronized List<String> getLines() {
+            return new ArrayList<String>(lines);
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                try {
+                    Socket client = socket.accept();
+                    BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(client.getInputStream(), StandardCharsets.ISO_8859_1), 64 * 1024);
+                    String line;
+                    while (null != (line = reader.readLine())) {
+                        if (keepLines) {
+                            synchronized (this) {
+                                lines.add(line);
+                            }
+                        }
+                        lineCount++;
+                    }
+                    client.close();
+                } catch (IOException ioe) {
+                    // closed
+                }
+            }
+        }
+
+        void close() throws IOException {
+            socket.close();
+        }
+    }
+}
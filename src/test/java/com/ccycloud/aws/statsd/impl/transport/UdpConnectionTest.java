@@ -10,7 +10,10 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.io.IOException;
 import java.net.DatagramSocket;
 import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 /**
@@ -67,6 +70,30 @@ public class UdpConnectionTest {
         verify(mockSocket).connect(Matchers.<java.net.SocketAddress>any());
     }
 
+    @Test
+    public void testFailedConnectIsRetriedInTheBackground() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        UdpConnection flaky = new UdpConnection("127.0.0.1", 8125) {
+            @Override
+            public DatagramSocket createSocket() throws SocketException {
+                if (attempts.incrementAndGet() < 3) {
+                    throw new SocketException("No buffer space available");
+                }
+                return super.createSocket();
+            }
+        };
+
+        flaky.connect();
+        assertTrue(flaky.isConnected());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!flaky.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        flaky.disconnect();
+
+        assertEquals(3, attempts.get());
+    }
+
     @Test
     public void testDisconnect() throws Exception {
 
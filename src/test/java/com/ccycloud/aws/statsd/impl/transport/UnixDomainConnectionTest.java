@@ -0,0 +1,103 @@
+package com.ccycloud.aws.statsd.impl.transport;
+
+import com.ccycloud.aws.statsd.impl.MetricBatcher;
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(MockitoJUnitRunner.class)
+public class UnixDomainConnectionTest extends TestCase {
+
+    private File socketFile;
+    private ServerSocketChannel server;
+    private UnixDomainConnection subject;
+
+    @Before
+    public void init() throws Exception {
+        Assume.assumeTrue(UnixDomainConnection.isSupported());
+        socketFile = File.createTempFile("statsd", ".sock");
+        socketFile.delete();
+        // opened reflectively, as the main code is, so the tests also compile for Java 8
+        server = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                .invoke(null, StandardProtocolFamily.valueOf("UNIX"));
+        server.bind((SocketAddress) Class.forName("java.net.UnixDomainSocketAddress").getMethod("of", String.class)
+                .invoke(null, socketFile.getPath()));
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        if (null != subject) {
+            subject.disconnect();
+        }
+        if (null != server) {
+            server.close();
+        }
+        if (null != socketFile) {
+            socketFile.delete();
+        }
+    }
+
+    // the packets written until the connection closes, each read by its length prefix
+    private static List<String> readPackets(SocketChannel client) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+        while (client.read(buffer) >= 0) {
+            // read until the connection closes
+        }
+        buffer.flip();
+        List<String> packets = new ArrayList<String>();
+        while (buffer.hasRemaining()) {
+            byte[] packet = new byte[buffer.getInt()];
+            buffer.get(packet);
+            packets.add(new String(packet, StandardCharsets.ISO_8859_1));
+        }
+        return packets;
+    }
+
+    @Test
+    public void testSendsLengthPrefixedPacketsOverTheSocket() throws Exception {
+        subject = new UnixDomainConnection(socketFile.getPath(), 4096, 4096, 10, TimeUnit.SECONDS);
+        subject.connect();
+        MetricBatcher batcher = new MetricBatcher(subject, 16);
+        batcher.add("a:1|c".getBytes(StandardCharsets.ISO_8859_1));
+        batcher.add("b:2|ms".getBytes(StandardCharsets.ISO_8859_1));
+        batcher.add("c:3|g".getBytes(StandardCharsets.ISO_8859_1));
+        batcher.flush();
+
+        SocketChannel client = server.accept();
+        subject.disconnect();
+
+        assertEquals("Packed as for UDP", Arrays.asList("a:1|c\nb:2|ms", "c:3|g"), readPackets(client));
+        assertEquals(socketFile.getPath(), subject.getPath());
+    }
+
+    @Test
+    public void testCreatedFromConfiguration() throws Exception {
+        java.util.Map<String, String> configuration = new java.util.HashMap<String, String>();
+        configuration.put("statsd.socket.path", socketFile.getPath());
+
+        UdpConnectionInterface created = Transport.fromConfiguration("unix").create(configuration);
+
+        assertTrue(created instanceof UnixDomainConnection);
+        assertEquals(socketFile.getPath(), ((UnixDomainConnection) created).getPath());
+        assertTrue(Arrays.asList(Transport.UNIX.getMandatoryConfigKeys(configuration)).contains("statsd.socket.path"));
+    }
+}